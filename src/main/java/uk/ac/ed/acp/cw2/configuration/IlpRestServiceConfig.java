@@ -7,8 +7,15 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestTemplate;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceFieldRegistry;
+import uk.ac.ed.acp.cw2.pathfinding.IncrementalLegs;
+import uk.ac.ed.acp.cw2.pathfinding.PathCache;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerMode;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerOptions;
 import uk.ac.ed.acp.cw2.utility.Utility;
 
+import java.nio.file.Path;
+
 /**
  * Configuration class that is used for dependency injection
  */
@@ -36,10 +43,48 @@ public class IlpRestServiceConfig
         return builder.build();
     }
 
+    // Default planner options, requests can override them through request parameters
+    @Bean
+    public PlannerOptions plannerOptions(@Value("${ilp.planner.mode:LATTICE}") PlannerMode mode,
+                                         @Value("${ilp.planner.max-expansions:1000000}") int maxExpansions,
+                                         @Value("${ilp.planner.time-budget-millis:0}") long timeBudgetMillis,
+                                         @Value("${ilp.planner.anytime-weight:2.5}") double initialWeight,
+                                         @Value("${ilp.planner.straight-legs:true}") boolean straightLegs,
+                                         @Value("${ilp.planner.memory-budget-kb:16384}") long memoryBudgetKb,
+                                         @Value("${ilp.planner.parallel-workers:1}") int parallelWorkers,
+                                         @Value("${ilp.planner.parallel-threshold-moves:1000}") int parallelThresholdMoves)
+    {
+        PlannerOptions plannerOptions = new PlannerOptions();
+        plannerOptions.setMode(mode);
+        plannerOptions.setMaxExpansions(maxExpansions);
+        plannerOptions.setTimeBudgetMillis(timeBudgetMillis);
+        plannerOptions.setInitialWeight(initialWeight);
+        plannerOptions.setStraightLegs(straightLegs);
+        plannerOptions.setMemoryBudgetKb(memoryBudgetKb);
+        plannerOptions.setParallelWorkers(Math.max(parallelWorkers, 1));
+        plannerOptions.setParallelThresholdMoves(parallelThresholdMoves);
+        return plannerOptions;
+    }
+
     // Dependency inject Utility class into RestServiceImplementation class
     @Bean
-    public Utility utility(ObjectMapper objectMapper)
+    public Utility utility(ObjectMapper objectMapper, DistanceFieldRegistry distanceFieldRegistry,
+                           @Value("${ilp.planner.path-cache-size:4096}") int pathCacheSize,
+                           @Value("${ilp.planner.incremental-nodes:1048576}") long incrementalNodes)
     {
-        return new Utility(objectMapper);
+        return new Utility(objectMapper, new PathCache(pathCacheSize), distanceFieldRegistry, new IncrementalLegs(incrementalNodes));
+    }
+
+    @Bean
+    public DistanceFieldRegistry distanceFieldRegistry(@Value("${ilp.distance-field.enabled:true}") boolean enabled,
+                                                       @Value("${ilp.distance-field.directory:}") String directory,
+                                                       @Value("${ilp.distance-field.radius:1000}") int radius,
+                                                       @Value("${ilp.distance-field.capacity:8}") int capacity)
+    {
+        if (!enabled)
+        {
+            return DistanceFieldRegistry.disabled();
+        }
+        return new DistanceFieldRegistry(directory.isBlank() ? null : Path.of(directory), radius, capacity);
     }
 }
@@ -8,6 +8,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import uk.ac.ed.acp.cw2.data.*;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerMode;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerOptions;
 import uk.ac.ed.acp.cw2.service.DataFetchService;
 import uk.ac.ed.acp.cw2.service.RestService;
 
@@ -26,13 +28,15 @@ public class ServiceController
     private static final Logger logger = LoggerFactory.getLogger(ServiceController.class);
     private final RestService restService;
     private final DataFetchService dataFetchService;
+    private final PlannerOptions plannerOptions;
 
     //Inject the service
     @Autowired
-    public ServiceController(final RestService restService, final DataFetchService dataFetchService)
+    public ServiceController(final RestService restService, final DataFetchService dataFetchService, final PlannerOptions plannerOptions)
     {
         this.restService = restService;
         this.dataFetchService = dataFetchService;
+        this.plannerOptions = plannerOptions;
     }
 
     @Value("${ilp.service.url}")
@@ -77,6 +81,12 @@ public class ServiceController
         return  restService.isInRegion(request);
     }
 
+    @PostMapping("/isInRegions")
+    public RegionBitmap isInRegions(@Valid @RequestBody PositionsRegionsRequest request)
+    {
+        return  restService.isInRegions(request);
+    }
+
     @GetMapping("/dronesWithCooling/{state}")
     public ArrayList<String> dronesWithCooling(@PathVariable("state") boolean state)
     {
@@ -125,24 +135,47 @@ public class ServiceController
         return restService.queryAvailableDrones(drones, servicePointDrones, servicePoints, queries);
     }
 
+    // Start from the configured planner options and apply the overrides given as request parameters
+    private PlannerOptions getPlannerOptions(PlannerMode planner, Long timeBudgetMillis, Integer maxExpansions)
+    {
+        PlannerOptions options = plannerOptions.copy();
+        if (planner != null)
+        {
+            options.setMode(planner);
+        }
+        if (timeBudgetMillis != null)
+        {
+            options.setTimeBudgetMillis(timeBudgetMillis);
+        }
+        if (maxExpansions != null)
+        {
+            options.setMaxExpansions(maxExpansions);
+        }
+        return options;
+    }
+
     @PostMapping("/calcDeliveryPath")
-    public ReturnedPath calcDeliveryPath(@RequestBody ArrayList<MedicineDispatchRequest> queries)
+    public ReturnedPath calcDeliveryPath(@RequestBody ArrayList<MedicineDispatchRequest> queries, @RequestParam(value = "planner", required = false) PlannerMode planner,
+                                         @RequestParam(value = "timeBudgetMillis", required = false) Long timeBudgetMillis,
+                                         @RequestParam(value = "maxExpansions", required = false) Integer maxExpansions)
     {
         ArrayList<ServicePoint>  servicePoints = dataFetchService.getServicePoints();
         ArrayList<RestrictedArea>  restrictedAreas = dataFetchService.getRestrictedAreas();
         ArrayList<Drone> drones = dataFetchService.getDrones();
         ArrayList<ServicePointDrones> servicePointDrones = dataFetchService.getServicePointsDrones();
-        return restService.calcDeliveryPath(queries,servicePoints,restrictedAreas,drones,servicePointDrones);
+        return restService.calcDeliveryPath(queries,servicePoints,restrictedAreas,drones,servicePointDrones,getPlannerOptions(planner, timeBudgetMillis, maxExpansions));
     }
 
     @PostMapping("/calcDeliveryPathAsGeoJson")
-    public GeoJson calcDeliveryPathAsGeoJson(@RequestBody ArrayList<MedicineDispatchRequest> queries)
+    public GeoJson calcDeliveryPathAsGeoJson(@RequestBody ArrayList<MedicineDispatchRequest> queries, @RequestParam(value = "planner", required = false) PlannerMode planner,
+                                             @RequestParam(value = "timeBudgetMillis", required = false) Long timeBudgetMillis,
+                                             @RequestParam(value = "maxExpansions", required = false) Integer maxExpansions)
     {
         ArrayList<ServicePoint>  servicePoints = dataFetchService.getServicePoints();
         ArrayList<RestrictedArea>  restrictedAreas = dataFetchService.getRestrictedAreas();
         ArrayList<Drone> drones = dataFetchService.getDrones();
         ArrayList<ServicePointDrones> servicePointDrones = dataFetchService.getServicePointsDrones();
-        return restService.calcDeliveryPathAsGeoJson(queries,servicePoints,restrictedAreas,drones,servicePointDrones);
+        return restService.calcDeliveryPathAsGeoJson(queries,servicePoints,restrictedAreas,drones,servicePointDrones,getPlannerOptions(planner, timeBudgetMillis, maxExpansions));
     }
 
 
@@ -0,0 +1,30 @@
+package uk.ac.ed.acp.cw2.data;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import lombok.*;
+
+import java.util.ArrayList;
+
+/**
+ * PositionsRegionsRequest class that act as a DTO for the type of request used by isInRegions end point.
+ * Uses Spring Boot Bean Validations to do built-in validation check.
+ */
+@Setter
+@Getter
+@ToString
+@AllArgsConstructor
+public class PositionsRegionsRequest
+{
+    //Using the validation check in Position class to validate every position
+    @Valid
+    //Check that positions is not NULL
+    @NotNull
+    private ArrayList<@NotNull Position> positions;
+
+    //Using the validation check in Region class to validate every region
+    @Valid
+    //Check that regions is not NULL
+    @NotNull
+    private ArrayList<@NotNull Region> regions;
+}
@@ -0,0 +1,20 @@
+package uk.ac.ed.acp.cw2.data;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * RegionBitmap class that act as a DTO for the answer of the isInRegions end point.
+ * Bit p * regions + r tells whether position p is in region r. The bits are packed eight to a byte,
+ * the lowest bit first (bit i is bit i % 8 of byte i / 8), and the bytes are encoded in Base64.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class RegionBitmap
+{
+    private int positions;
+    private int regions;
+    private String bitmap;
+}
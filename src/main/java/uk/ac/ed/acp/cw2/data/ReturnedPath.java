@@ -1,5 +1,6 @@
 package uk.ac.ed.acp.cw2.data;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
@@ -14,4 +15,7 @@ public class ReturnedPath
     private Double totalCost;
     private Integer totalMoves;
     private ArrayList<DronePath> dronePaths;
+    // Only reported by the anytime planner: the flight paths are at most this many times longer than the shortest ones
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double suboptimalityBound;
 }
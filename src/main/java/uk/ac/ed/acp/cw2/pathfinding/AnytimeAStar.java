@@ -0,0 +1,238 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Anytime repairing A* (ARA*) over the 16 direction lattice. The first pass is weighted A*
+ * (f = g + weight * h), which finds a path quickly that is at most weight times longer than the
+ * shortest one. Every following pass lowers the weight and carries on from the previous one:
+ * only the cells whose moves went down since they were expanded are looked at again, until a
+ * pass with weight 1 proves the path optimal or the budget runs out.
+ *
+ * The budget is the expansion limit and the deadline of the options. The first pass always runs
+ * to its end (so there is a path to return whenever one exists within the expansion limit), the
+ * deadline only stops the later passes. The bound reached is recorded in the stats: the path is
+ * at most that many times longer than the shortest one on the lattice.
+ */
+public final class AnytimeAStar
+{
+    // Weight lost by every pass
+    static final double weightStep = 0.5;
+
+    // The clock is only read every so many expansions
+    private static final int deadlineCheckInterval = 256;
+
+    private AnytimeAStar()
+    {
+    }
+
+    public static ArrayList<Position> findPath(Position start, Position end, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats)
+    {
+        return search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot,
+                options.getInitialWeight(), options.getMaxExpansions(), options.getDeadline(), stats);
+    }
+
+    /**
+     * Best path found before the deadline (System.nanoTime, 0 for none) or the expansion limit, empty when none was found.
+     */
+    public static ArrayList<Position> search(double startLng, double startLat, double endLng, double endLat, MoveValidator validator,
+                                             double initialWeight, int maxExpansions, long deadline, SearchStats stats)
+    {
+        try (SearchWorkspace workspace = SearchWorkspace.acquire())
+        {
+            Heuristic heuristic = Heuristic.lattice(endLng, endLat);
+            // Node holding the fewest moves found so far for every cell, the closed set only covers the current pass
+            LongIntHashMap best = new LongIntHashMap(1024);
+            LongIntHashMap closed = workspace.closed();
+            IntList inconsistent = new IntList();
+            int expansions = 0;
+            int goal = -1;
+            double weight = Math.max(1, initialWeight);
+
+            int root = workspace.addNode(startLng, startLat, -1, 0, weight * heuristic.estimate(startLng, startLat));
+            best.put(Lattice.key(startLng, startLat), root);
+            workspace.push(root);
+
+            while (true)
+            {
+                // One pass, until nothing left in the open list can lead to a shorter path than the one found
+                while (!workspace.isHeapEmpty() && (goal < 0 || workspace.f(workspace.peek()) < workspace.g(goal)))
+                {
+                    int u = workspace.pop();
+                    double uLng = workspace.lng(u);
+                    double uLat = workspace.lat(u);
+                    long uKey = Lattice.key(uLng, uLat);
+                    if (best.get(uKey) != u || closed.containsKey(uKey))
+                    {
+                        continue; // replaced by a node with fewer moves, or already expanded in this pass
+                    }
+
+                    // Out of budget, the best path so far (if any) is returned
+                    if (expansions++ >= maxExpansions
+                            || (goal >= 0 && expansions % deadlineCheckInterval == 0 && deadline != 0 && System.nanoTime() - deadline > 0))
+                    {
+                        if (goal < 0)
+                        {
+                            return new ArrayList<>(); // treat as "no path", too many expansions
+                        }
+                        return finish(workspace, goal, bound(workspace, best, inconsistent, heuristic, goal, weight), stats);
+                    }
+
+                    if (Lattice.isClose(uLng, uLat, endLng, endLat))
+                    {
+                        if (goal < 0 || workspace.g(u) < workspace.g(goal))
+                        {
+                            goal = u;
+                        }
+                        continue;
+                    }
+
+                    closed.put(uKey, u);
+                    stats.recordExpansion();
+
+                    int nextG = workspace.g(u) + 1;
+                    for (int direction = 0; direction < Lattice.directions; direction++)
+                    {
+                        double nextLng = Lattice.stepLng(direction) + uLng;
+                        double nextLat = Lattice.stepLat(direction) + uLat;
+                        long nextKey = Lattice.key(nextLng, nextLat);
+
+                        int holder = best.get(nextKey);
+                        double nextH = heuristic.estimate(nextLng, nextLat);
+                        if (isBetter(workspace, holder, nextG, nextH, closed, nextKey, heuristic) && validator.isLegal(uLng, uLat, nextLng, nextLat))
+                        {
+                            int next = workspace.addNode(nextLng, nextLat, u, nextG, nextG + weight * nextH);
+                            best.put(nextKey, next);
+                            stats.recordGenerated();
+                            if (closed.containsKey(nextKey))
+                            {
+                                inconsistent.add(next); // waits for the next pass
+                            }
+                            else
+                            {
+                                workspace.push(next);
+                            }
+                        }
+                    }
+                    stats.recordOpenSize(workspace.heapSize());
+                }
+
+                if (goal < 0)
+                {
+                    return new ArrayList<>();
+                }
+                double bound = bound(workspace, best, inconsistent, heuristic, goal, weight);
+                if (weight <= 1 || bound <= 1 || (deadline != 0 && System.nanoTime() - deadline > 0))
+                {
+                    return finish(workspace, goal, bound, stats);
+                }
+
+                // Next pass: lower weight, open and inconsistent nodes keyed again, nothing closed
+                weight = Math.max(1, weight - weightStep);
+                IntList open = new IntList();
+                for (int i = 0; i < workspace.heapSize(); i++)
+                {
+                    open.add(workspace.heapNode(i));
+                }
+                workspace.clearHeap();
+                closed.clear();
+                reopen(workspace, best, open, heuristic, weight);
+                reopen(workspace, best, inconsistent, heuristic, weight);
+                inconsistent.clear();
+            }
+        }
+    }
+
+    // Fewer moves, or as many from a position closer to the end while the cell is still open (what popping by f does in LatticeAStar)
+    private static boolean isBetter(SearchWorkspace workspace, int holder, int g, double h, LongIntHashMap closed, long key, Heuristic heuristic)
+    {
+        if (holder == LongIntHashMap.missing || workspace.g(holder) > g)
+        {
+            return true;
+        }
+        return workspace.g(holder) == g && !closed.containsKey(key) && h < heuristic.estimate(workspace.lng(holder), workspace.lat(holder));
+    }
+
+    // Push a copy of every node still holding its cell with the key of the new weight
+    private static void reopen(SearchWorkspace workspace, LongIntHashMap best, IntList nodes, Heuristic heuristic, double weight)
+    {
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            int node = nodes.get(i);
+            double lng = workspace.lng(node);
+            double lat = workspace.lat(node);
+            long key = Lattice.key(lng, lat);
+            if (best.get(key) != node)
+            {
+                continue;
+            }
+            int copy = workspace.addNode(lng, lat, workspace.parent(node), workspace.g(node), workspace.g(node) + weight * heuristic.estimate(lng, lat));
+            best.put(key, copy);
+            workspace.push(copy);
+        }
+    }
+
+    // How many times longer than the shortest path the found one can be: the weight, or better when every node left to expand is far enough
+    private static double bound(SearchWorkspace workspace, LongIntHashMap best, IntList inconsistent, Heuristic heuristic, int goal, double weight)
+    {
+        double lowest = workspace.g(goal);
+        for (int i = 0; i < workspace.heapSize(); i++)
+        {
+            lowest = Math.min(lowest, unweighted(workspace, best, workspace.heapNode(i), heuristic));
+        }
+        for (int i = 0; i < inconsistent.size(); i++)
+        {
+            lowest = Math.min(lowest, unweighted(workspace, best, inconsistent.get(i), heuristic));
+        }
+        return (lowest <= 0) ? weight : Math.max(1, Math.min(weight, workspace.g(goal) / lowest));
+    }
+
+    private static double unweighted(SearchWorkspace workspace, LongIntHashMap best, int node, Heuristic heuristic)
+    {
+        if (best.get(Lattice.key(workspace.lng(node), workspace.lat(node))) != node)
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        return workspace.g(node) + heuristic.estimate(workspace.lng(node), workspace.lat(node));
+    }
+
+    private static ArrayList<Position> finish(SearchWorkspace workspace, int goal, double bound, SearchStats stats)
+    {
+        stats.recordSuboptimalityBound(bound);
+        return workspace.pathTo(goal);
+    }
+
+    // Growable list of node indices
+    private static class IntList
+    {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index)
+        {
+            return values[index];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        void clear()
+        {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+
+/**
+ * Bidirectional A* over the 16 direction lattice (front to end, each side aiming at the root of the other).
+ * The forward search grows from the start, the backward search grows from the goal over reversed moves,
+ * whose legality is still checked in the flying direction.
+ *
+ * The two sides meet when a node closed on one side is within 0.00015 of a node closed on the other.
+ * The backward moves are then replayed from the forward node, which shifts them by less than 0.00015,
+ * so the replayed path ends within 0.00015 of the goal, the same stop rule as the forward search.
+ * A meeting whose shifted moves aren't all legal is ignored. The search stops once the cheapest open
+ * node of either side can't beat the best meeting found.
+ */
+public final class BidirectionalAStar
+{
+    private BidirectionalAStar()
+    {
+    }
+
+    public static ArrayList<Position> search(double startLng, double startLat, double endLng, double endLat, MoveValidator validator, int maxExpansions, SearchStats stats)
+    {
+        try (SearchWorkspace forward = SearchWorkspace.acquire(); SearchWorkspace backward = SearchWorkspace.acquire())
+        {
+            forward.push(forward.addNode(startLng, startLat, -1, 0, Lattice.fewestMovesBetween(startLng, startLat, endLng, endLat)));
+            backward.push(backward.addNode(endLng, endLat, -1, 0, Lattice.fewestMovesBetween(endLng, endLat, startLng, startLat)));
+
+            Meeting best = new Meeting();
+            int expansions = 0;
+
+            while (!forward.isHeapEmpty() && !backward.isHeapEmpty())
+            {
+                // Path lengths are whole moves, so a path through an open node costs at least the ceiling of its f
+                if (best.cost <= Math.ceil(Math.max(forward.f(forward.peek()), backward.f(backward.peek())) - 1e-9))
+                {
+                    break;
+                }
+
+                // Expand the side with the smaller open list
+                boolean isForward = forward.heapSize() <= backward.heapSize();
+                SearchWorkspace side = isForward ? forward : backward;
+                SearchWorkspace other = isForward ? backward : forward;
+                int u = side.pop();
+
+                if (expansions++ >= maxExpansions)
+                {
+                    return new ArrayList<>(); // treat as "no path", too many expansions
+                }
+
+                double uLng = side.lng(u);
+                double uLat = side.lat(u);
+                long uKey = Lattice.key(uLng, uLat);
+                if (side.closed().containsKey(uKey))
+                {
+                    continue;
+                }
+                side.closed().put(uKey, u);
+
+                if (isForward)
+                {
+                    stats.recordExpansion();
+                    meet(forward, u, backward, endLng, endLat, validator, best);
+                }
+                else
+                {
+                    stats.recordBackwardExpansion();
+                    int closeForward = nearestClosed(forward, uLng, uLat);
+                    if (closeForward != -1)
+                    {
+                        meet(forward, closeForward, backward, endLng, endLat, validator, best);
+                    }
+                }
+
+                double targetLng = isForward ? endLng : startLng;
+                double targetLat = isForward ? endLat : startLat;
+                int nextG = side.g(u) + 1;
+                for (int direction = 0; direction < Lattice.directions; direction++)
+                {
+                    double nextLng = Lattice.stepLng(direction) + uLng;
+                    double nextLat = Lattice.stepLat(direction) + uLat;
+                    if (side.closed().containsKey(Lattice.key(nextLng, nextLat)))
+                    {
+                        continue;
+                    }
+
+                    // Backward nodes are predecessors, the drone flies from next to u
+                    boolean legal = isForward
+                            ? validator.isLegal(uLng, uLat, nextLng, nextLat)
+                            : validator.isLegal(nextLng, nextLat, uLng, uLat);
+                    if (legal)
+                    {
+                        double nextF = nextG + Lattice.fewestMovesBetween(nextLng, nextLat, targetLng, targetLat);
+                        side.push(side.addNode(nextLng, nextLat, u, nextG, nextF));
+                        stats.recordGenerated();
+                    }
+                }
+                stats.recordOpenSize(side.heapSize() + other.heapSize());
+            }
+
+            return (best.forwardNode == -1) ? new ArrayList<>() : join(forward, best.forwardNode, backward, best.backwardNode);
+        }
+    }
+
+    // Closed node of the workspace within 0.00015 of the position, looking at the 3 x 3 cells around it
+    private static int nearestClosed(SearchWorkspace workspace, double lng, double lat)
+    {
+        int cellX = Lattice.cellX(lng);
+        int cellY = Lattice.cellY(lat);
+        for (int x = cellX - 1; x <= cellX + 1; x++)
+        {
+            for (int y = cellY - 1; y <= cellY + 1; y++)
+            {
+                int node = workspace.closed().get(Lattice.key(x, y));
+                if (node != LongIntHashMap.missing && Lattice.isClose(lng, lat, workspace.lng(node), workspace.lat(node)))
+                {
+                    return node;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Record the meeting of a closed forward node with the closed backward nodes around it, if it improves the best one
+    private static void meet(SearchWorkspace forward, int forwardNode, SearchWorkspace backward, double endLng, double endLat, MoveValidator validator, Meeting best)
+    {
+        double fLng = forward.lng(forwardNode);
+        double fLat = forward.lat(forwardNode);
+        int backwardNode = nearestClosed(backward, fLng, fLat);
+        if (backwardNode == -1)
+        {
+            return;
+        }
+
+        int cost = forward.g(forwardNode) + backward.g(backwardNode);
+        if (cost >= best.cost || !isReplayLegal(fLng, fLat, backward, backwardNode, endLng, endLat, validator))
+        {
+            return;
+        }
+        best.cost = cost;
+        best.forwardNode = forwardNode;
+        best.backwardNode = backwardNode;
+    }
+
+    // Replay the backward moves from the forward node and check every shifted move and the stop rule
+    private static boolean isReplayLegal(double fLng, double fLat, SearchWorkspace backward, int backwardNode, double endLng, double endLat, MoveValidator validator)
+    {
+        double shiftLng = fLng - backward.lng(backwardNode);
+        double shiftLat = fLat - backward.lat(backwardNode);
+        double lng = fLng;
+        double lat = fLat;
+
+        for (int node = backward.parent(backwardNode); node != -1; node = backward.parent(node))
+        {
+            double nextLng = backward.lng(node) + shiftLng;
+            double nextLat = backward.lat(node) + shiftLat;
+            if (!validator.isLegal(lng, lat, nextLng, nextLat))
+            {
+                return false;
+            }
+            lng = nextLng;
+            lat = nextLat;
+        }
+        return Lattice.isClose(lng, lat, endLng, endLat);
+    }
+
+    private static ArrayList<Position> join(SearchWorkspace forward, int forwardNode, SearchWorkspace backward, int backwardNode)
+    {
+        ArrayList<Position> path = forward.pathTo(forwardNode);
+        double shiftLng = forward.lng(forwardNode) - backward.lng(backwardNode);
+        double shiftLat = forward.lat(forwardNode) - backward.lat(backwardNode);
+
+        for (int node = backward.parent(backwardNode); node != -1; node = backward.parent(node))
+        {
+            path.add(new Position(backward.lng(node) + shiftLng, backward.lat(node) + shiftLat));
+        }
+        return path;
+    }
+
+    /**
+     * Best meeting found so far, cost being the number of moves of the joined path.
+     */
+    private static class Meeting
+    {
+        int cost = Integer.MAX_VALUE;
+        int forwardNode = -1;
+        int backwardNode = -1;
+    }
+}
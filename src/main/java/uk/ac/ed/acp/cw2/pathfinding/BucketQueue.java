@@ -0,0 +1,194 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Monotone bucket queue of search nodes, the open list of searches whose f never goes down
+ * (every move costs one and the heuristic is consistent, so a node pushed while expanding another
+ * has an f between that of the expanded node and two moves more). f is cut into slices of
+ * 1 / resolution moves kept in a ring of buckets, each bucket being a doubly linked list threaded
+ * through per node arrays, so push, pop and decrease are constant time apart from stepping over
+ * empty buckets, and nothing is compared.
+ *
+ * Nodes of one slice come out newest first. Popping a node up to one slice above the lowest f
+ * doesn't change the length of the path found: moves are whole numbers, a slice is less than one.
+ * A node pushed below the lowest slice (rounding, or a heuristic that isn't quite consistent) is
+ * put in the lowest slice, and the ring grows when a node is pushed beyond its end.
+ */
+final class BucketQueue
+{
+    // Slices per move
+    static final int resolution = 64;
+
+    private static final int initialBuckets = 4 * resolution;
+    private static final int initialCapacity = 1 << 12;
+
+    // First node of every bucket of the ring, -1 when empty
+    private int[] head = filled(initialBuckets);
+
+    // Links of the bucket list of every node and its slice (-1 when not queued)
+    private int[] next = new int[initialCapacity];
+    private int[] previous = new int[initialCapacity];
+    private long[] slice = filledSlices(initialCapacity);
+
+    // Slice of the last node popped, the lowest one that may hold a node (none before the first push)
+    private long cursor = Long.MAX_VALUE;
+    private int size;
+    // One above the highest node ever queued since the last clear
+    private int touched;
+
+    void clear()
+    {
+        Arrays.fill(head, -1);
+        Arrays.fill(slice, 0, touched, -1);
+        cursor = Long.MAX_VALUE;
+        size = 0;
+        touched = 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    boolean isQueued(int node)
+    {
+        return node < touched && slice[node] >= 0;
+    }
+
+    void push(int node, double f)
+    {
+        ensureCapacity(node);
+        long nodeSlice = sliceOf(f);
+        if (size == 0 && nodeSlice < cursor)
+        {
+            cursor = nodeSlice;
+        }
+        nodeSlice = Math.max(cursor, nodeSlice);
+        if (nodeSlice - cursor >= head.length)
+        {
+            grow(nodeSlice - cursor);
+        }
+        link(node, nodeSlice);
+        size++;
+    }
+
+    // Move a queued node to the slice of its lower f
+    void decrease(int node, double f)
+    {
+        unlink(node);
+        link(node, Math.max(cursor, sliceOf(f)));
+    }
+
+    int peek()
+    {
+        while (head[ring(cursor)] < 0)
+        {
+            cursor++;
+        }
+        return head[ring(cursor)];
+    }
+
+    int pop()
+    {
+        int node = peek();
+        unlink(node);
+        slice[node] = -1;
+        size--;
+        return node;
+    }
+
+    private static long sliceOf(double f)
+    {
+        return (long) (f * resolution);
+    }
+
+    private int ring(long nodeSlice)
+    {
+        return (int) (nodeSlice & (head.length - 1));
+    }
+
+    private void link(int node, long nodeSlice)
+    {
+        int bucket = ring(nodeSlice);
+        int first = head[bucket];
+        slice[node] = nodeSlice;
+        previous[node] = -1;
+        next[node] = first;
+        if (first >= 0)
+        {
+            previous[first] = node;
+        }
+        head[bucket] = node;
+    }
+
+    private void unlink(int node)
+    {
+        if (previous[node] >= 0)
+        {
+            next[previous[node]] = next[node];
+        }
+        else
+        {
+            head[ring(slice[node])] = next[node];
+        }
+        if (next[node] >= 0)
+        {
+            previous[next[node]] = previous[node];
+        }
+    }
+
+    private void ensureCapacity(int node)
+    {
+        if (node >= slice.length)
+        {
+            int capacity = Math.max(slice.length * 2, node + 1);
+            int length = slice.length;
+            next = Arrays.copyOf(next, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+            slice = Arrays.copyOf(slice, capacity);
+            Arrays.fill(slice, length, capacity, -1);
+        }
+        touched = Math.max(touched, node + 1);
+    }
+
+    // Ring large enough for slices up to span above the cursor, every queued node linked again
+    private void grow(long span)
+    {
+        int[] old = head;
+        int buckets = old.length;
+        while (buckets <= span)
+        {
+            buckets *= 2;
+        }
+        head = filled(buckets);
+        for (int first : old)
+        {
+            for (int node = first; node >= 0; )
+            {
+                int following = next[node];
+                link(node, slice[node]);
+                node = following;
+            }
+        }
+    }
+
+    private static int[] filled(int length)
+    {
+        int[] values = new int[length];
+        Arrays.fill(values, -1);
+        return values;
+    }
+
+    private static long[] filledSlices(int length)
+    {
+        long[] values = new long[length];
+        Arrays.fill(values, -1);
+        return values;
+    }
+}
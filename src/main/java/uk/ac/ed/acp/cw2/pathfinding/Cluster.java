@@ -0,0 +1,196 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One square block of lattice cells of the hierarchical planner, with its entrances and the
+ * number of moves between every two of them without leaving the block.
+ *
+ * An entrance is a cell on the border of the block that can be crossed straight into the
+ * neighbouring block in both directions. Every run of such cells along a border gets entrances
+ * spread evenly over it, the same ones whichever of the two blocks looks at the border.
+ * Corner cells are never entrances, so every entrance crosses exactly one border.
+ *
+ * Entrances are stored relative to the lower left cell of the block, so every block without any
+ * restricted area near it can share one instance.
+ */
+class Cluster
+{
+    // Side of a block in cells
+    static final int size = 32;
+
+    // Longest stretch of a border run one entrance stands for
+    static final int entranceSpacing = 11;
+
+    static final int unreachable = -1;
+
+    // Border the entrance crosses: the offset of the cell on the other side
+    private static final int[] crossX = {-1, 1, 0, 0};
+    private static final int[] crossY = {0, 0, -1, 1};
+
+    private final int[] entranceX;
+    private final int[] entranceY;
+    private final int[] entranceBorder;
+    private final int[][] moves;
+
+    private Cluster(int[] entranceX, int[] entranceY, int[] entranceBorder, int[][] moves)
+    {
+        this.entranceX = entranceX;
+        this.entranceY = entranceY;
+        this.entranceBorder = entranceBorder;
+        this.moves = moves;
+    }
+
+    static int clusterOf(int cell)
+    {
+        return Math.floorDiv(cell, size);
+    }
+
+    /**
+     * Find the entrances of the block whose lower left cell is (originX, originY) and plan between them.
+     */
+    static Cluster build(int originX, int originY, MoveValidator validator)
+    {
+        List<int[]> entrances = new ArrayList<>();
+        for (int border = 0; border < crossX.length; border++)
+        {
+            addEntrances(originX, originY, border, validator, entrances);
+        }
+
+        int count = entrances.size();
+        int[] entranceX = new int[count];
+        int[] entranceY = new int[count];
+        int[] entranceBorder = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            entranceX[i] = entrances.get(i)[0];
+            entranceY[i] = entrances.get(i)[1];
+            entranceBorder[i] = entrances.get(i)[2];
+        }
+
+        List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            positions.add(new Position((originX + entranceX[i]) * Lattice.unitLength, (originY + entranceY[i]) * Lattice.unitLength));
+        }
+        int[][] moves = new int[count][];
+        MoveValidator inside = within(originX, originY, originX + size - 1, originY + size - 1, validator);
+        for (int i = 0; i < count; i++)
+        {
+            moves[i] = movesTo(positions.get(i), positions, inside);
+        }
+        return new Cluster(entranceX, entranceY, entranceBorder, moves);
+    }
+
+    // Moves from the position to every target without leaving the block (unreachable when it can't be done)
+    static int[] movesTo(Position from, List<Position> targets, MoveValidator inside)
+    {
+        int[] moves = new int[targets.size()];
+        ArrayList<ArrayList<Position>> paths = MultiGoalSearch.search(from, targets, inside, size * size * 4, new SearchStats());
+        for (int i = 0; i < targets.size(); i++)
+        {
+            moves[i] = paths.get(i).isEmpty() ? unreachable : paths.get(i).size() - 1;
+        }
+        return moves;
+    }
+
+    // Runs of crossable cells along one border, corners left out, each split into pieces of at most entranceSpacing cells
+    private static void addEntrances(int originX, int originY, int border, MoveValidator validator, List<int[]> entrances)
+    {
+        int runStart = -1;
+        for (int along = 1; along <= size - 1; along++)
+        {
+            boolean open = along < size - 1 && isCrossable(originX, originY, border, along, validator);
+            if (open && runStart < 0)
+            {
+                runStart = along;
+            }
+            else if (!open && runStart >= 0)
+            {
+                int length = along - runStart;
+                int pieces = (length + entranceSpacing - 1) / entranceSpacing;
+                for (int piece = 0; piece < pieces; piece++)
+                {
+                    int middle = runStart + (2 * piece + 1) * length / (2 * pieces);
+                    entrances.add(new int[]{borderX(border, middle), borderY(border, middle), border});
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private static boolean isCrossable(int originX, int originY, int border, int along, MoveValidator validator)
+    {
+        double lng = (originX + borderX(border, along)) * Lattice.unitLength;
+        double lat = (originY + borderY(border, along)) * Lattice.unitLength;
+        double otherLng = lng + crossX[border] * Lattice.unitLength;
+        double otherLat = lat + crossY[border] * Lattice.unitLength;
+        return validator.isLegal(lng, lat, otherLng, otherLat) && validator.isLegal(otherLng, otherLat, lng, lat);
+    }
+
+    // Cell of the border (west, east, south, north) at the given distance along it
+    private static int borderX(int border, int along)
+    {
+        return switch (border)
+        {
+            case 0 -> 0;
+            case 1 -> size - 1;
+            default -> along;
+        };
+    }
+
+    private static int borderY(int border, int along)
+    {
+        return switch (border)
+        {
+            case 2 -> 0;
+            case 3 -> size - 1;
+            default -> along;
+        };
+    }
+
+    // Moves whose end stays in the given range of cells and that the validator allows
+    static MoveValidator within(int minX, int minY, int maxX, int maxY, MoveValidator validator)
+    {
+        return (fromLng, fromLat, toLng, toLat) ->
+        {
+            int x = Lattice.cellX(toLng);
+            int y = Lattice.cellY(toLat);
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && validator.isLegal(fromLng, fromLat, toLng, toLat);
+        };
+    }
+
+    int entranceCount()
+    {
+        return entranceX.length;
+    }
+
+    int entranceX(int entrance)
+    {
+        return entranceX[entrance];
+    }
+
+    int entranceY(int entrance)
+    {
+        return entranceY[entrance];
+    }
+
+    // Offset of the cell the entrance leads to, in the neighbouring block
+    int crossX(int entrance)
+    {
+        return entranceX[entrance] + crossX[entranceBorder[entrance]];
+    }
+
+    int crossY(int entrance)
+    {
+        return entranceY[entrance] + crossY[entranceBorder[entrance]];
+    }
+
+    int moves(int from, int to)
+    {
+        return moves[from][to];
+    }
+}
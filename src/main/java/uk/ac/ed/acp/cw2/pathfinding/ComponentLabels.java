@@ -0,0 +1,184 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import lombok.Getter;
+
+/**
+ * ComponentLabels class splits the free space of one snapshot into connected components, so a leg
+ * whose goal can't be reached from its start is rejected without searching. Cells of the 0.00015
+ * degree grid are blocked when they lie wholly inside an area (the interior cells of the occupancy
+ * bitmaps), the other cells are labelled by 8-connected flood fill over the box around the areas,
+ * everything outside the box being one component with the cells along its border.
+ *
+ * A legal move never touches a blocked cell, so a path goes from cell to neighbouring cell and stays
+ * in the component of its start. The labels only over-approximate the free space (cells cut by an
+ * edge count as free), so a leg is only rejected when it really can't be flown. When the box holds
+ * more than maxCells cells, blocks of scale by scale cells are labelled instead, blocked when all of
+ * their cells are.
+ */
+public class ComponentLabels
+{
+    static final long maxCells = 1L << 22;
+
+    // Free cells all around the areas, so the border of the box is one component
+    private static final int border = 2;
+
+    private static final int blocked = 0;
+    private static final int unlabelled = -1;
+
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private final int height;
+    @Getter
+    private final int scale;
+    // Component of every block, blocked or a label from 1
+    private final int[] labels;
+    private final int outsideLabel;
+    @Getter
+    private int componentCount;
+
+    public ComponentLabels(RestrictedAreaSnapshot snapshot)
+    {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (double[] box : snapshot.areaBoxes())
+        {
+            minX = Math.min(minX, OccupancyBitmap.cell(box[0]) - border);
+            minY = Math.min(minY, OccupancyBitmap.cell(box[1]) - border);
+            maxX = Math.max(maxX, OccupancyBitmap.cell(box[2]) + border);
+            maxY = Math.max(maxY, OccupancyBitmap.cell(box[3]) + border);
+        }
+        if (minX > maxX)
+        {
+            minX = maxX = minY = maxY = 0;
+        }
+
+        int blockScale = 1;
+        while ((long) ceilDiv(maxX - minX + 1, blockScale) * ceilDiv(maxY - minY + 1, blockScale) > maxCells)
+        {
+            blockScale *= 2;
+        }
+        this.scale = blockScale;
+        this.originX = minX;
+        this.originY = minY;
+        this.width = ceilDiv(maxX - minX + 1, scale);
+        this.height = ceilDiv(maxY - minY + 1, scale);
+        this.labels = new int[width * height];
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                labels[y * width + x] = isBlocked(x, y, snapshot) ? blocked : unlabelled;
+            }
+        }
+        label();
+        this.outsideLabel = labels[0];
+    }
+
+    private static int ceilDiv(int value, int divisor)
+    {
+        return (value + divisor - 1) / divisor;
+    }
+
+    // Blocked when every cell of the block is inside an area, stops at the first one that isn't
+    private boolean isBlocked(int x, int y, RestrictedAreaSnapshot snapshot)
+    {
+        for (int row = originY + y * scale; row < originY + (y + 1) * scale; row++)
+        {
+            for (int column = originX + x * scale; column < originX + (x + 1) * scale; column++)
+            {
+                if (!snapshot.isInteriorCell(column, row))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Flood fill every free block not labelled yet, the queue is reused across components
+    private void label()
+    {
+        int[] queue = new int[labels.length];
+        for (int seed = 0; seed < labels.length; seed++)
+        {
+            if (labels[seed] != unlabelled)
+            {
+                continue;
+            }
+            componentCount++;
+            int tail = 0;
+            queue[tail++] = seed;
+            labels[seed] = componentCount;
+            for (int head = 0; head < tail; head++)
+            {
+                int index = queue[head];
+                int x = index % width;
+                int y = index / width;
+                for (int dy = -1; dy <= 1; dy++)
+                {
+                    for (int dx = -1; dx <= 1; dx++)
+                    {
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                        {
+                            continue;
+                        }
+                        int neighbour = ny * width + nx;
+                        if (labels[neighbour] == unlabelled)
+                        {
+                            labels[neighbour] = componentCount;
+                            queue[tail++] = neighbour;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Component of the block holding the cell, the outside of the box being one with its border
+    private int labelOf(int column, int row)
+    {
+        int x = Math.floorDiv(column - originX, scale);
+        int y = Math.floorDiv(row - originY, scale);
+        if (x < 0 || y < 0 || x >= width || y >= height)
+        {
+            return outsideLabel;
+        }
+        return labels[y * width + x];
+    }
+
+    /**
+     * False when no path from the start can end within Lattice.closeRadius of the goal, true when one may.
+     * A start inside an area is left to the search.
+     */
+    public boolean mayReach(double startLng, double startLat, double goalLng, double goalLat)
+    {
+        int start = labelOf(OccupancyBitmap.cell(startLng), OccupancyBitmap.cell(startLat));
+        if (start == blocked)
+        {
+            return true;
+        }
+
+        // Every cell the stopping disc around the goal meets
+        int firstColumn = OccupancyBitmap.cell(goalLng - Lattice.closeRadius);
+        int lastColumn = OccupancyBitmap.cell(goalLng + Lattice.closeRadius);
+        int firstRow = OccupancyBitmap.cell(goalLat - Lattice.closeRadius);
+        int lastRow = OccupancyBitmap.cell(goalLat + Lattice.closeRadius);
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                if (labelOf(column, row) == start)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,335 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import lombok.Getter;
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * DistanceField class stores, for every lattice cell within radius moves of a service point,
+ * the number of moves from that cell back to the service point and the first move to make.
+ * It is built with a breadth first search growing backwards from the service point (every move
+ * costs one), the legality of every move being checked in the flying direction.
+ *
+ * A cell is represented by one of the positions the search reached it at with the fewest moves.
+ * Following the stored moves from any other position of the cell replays them shifted by less
+ * than one cell, which usually needs one extra move to end within 0.00015 of the service point,
+ * which is why homeMoves adds one. Every replayed move is checked again and pathHome gives up
+ * rather than exceed homeMoves, so the count can be trusted for planning.
+ *
+ * Everything lives in one ByteBuffer with the layout below, so the field can be written to and
+ * mapped back from a file as is.
+ * header: magic, format, radius (int), base lng, base lat (double), fingerprint (long)
+ * then side * side shorts holding moves + 1 (0 for cells not reached),
+ * then side * side bytes holding the direction of the first move.
+ */
+public class DistanceField
+{
+    public static final int unknown = -1;
+
+    static final int magic = 0x494c5044;
+    static final int format = 1;
+    static final int headerSize = 40;
+
+    // The moves are stored in shorts
+    public static final int maxRadius = Short.MAX_VALUE - 1;
+
+    private final ByteBuffer data;
+    @Getter
+    private final double baseLng;
+    @Getter
+    private final double baseLat;
+    @Getter
+    private final int radius;
+    @Getter
+    private final long fingerprint;
+    private final int side;
+    private final int originX;
+    private final int originY;
+    private final int directionsOffset;
+
+    DistanceField(ByteBuffer data)
+    {
+        this.data = data;
+        if (data.getInt(0) != magic || data.getInt(4) != format)
+        {
+            throw new IllegalArgumentException("Not a distance field");
+        }
+        this.radius = data.getInt(8);
+        this.baseLng = data.getDouble(12);
+        this.baseLat = data.getDouble(20);
+        this.fingerprint = data.getLong(28);
+        this.side = 2 * radius + 1;
+        this.originX = Lattice.cellX(baseLng) - radius;
+        this.originY = Lattice.cellY(baseLat) - radius;
+        this.directionsOffset = headerSize + 2 * side * side;
+
+        if (data.capacity() != sizeFor(radius))
+        {
+            throw new IllegalArgumentException("Truncated distance field");
+        }
+    }
+
+    static int sizeFor(int radius)
+    {
+        long side = 2L * radius + 1;
+        return Math.toIntExact(headerSize + 3 * side * side);
+    }
+
+    /**
+     * Build the field of the service point, covering the positions at most radius moves away from it.
+     */
+    public static DistanceField build(Position base, int radius, long fingerprint, MoveValidator validator)
+    {
+        if (radius < 0 || radius > maxRadius)
+        {
+            throw new IllegalArgumentException("Radius out of range: " + radius);
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(sizeFor(radius));
+        data.putInt(0, magic);
+        data.putInt(4, format);
+        data.putInt(8, radius);
+        data.putDouble(12, base.getLng());
+        data.putDouble(20, base.getLat());
+        data.putLong(28, fingerprint);
+
+        DistanceField field = new DistanceField(data);
+        field.search(validator);
+        return field;
+    }
+
+    ByteBuffer getData()
+    {
+        return data.duplicate();
+    }
+
+    // Breadth first search backwards from the service point, one level of moves at a time
+    private void search(MoveValidator validator)
+    {
+        Frontier frontier = new Frontier();
+        Frontier next = new Frontier();
+        int base = index(Lattice.cellX(baseLng), Lattice.cellY(baseLat));
+        setCell(base, 0, 0);
+        frontier.offer(base, baseLng, baseLat, 0);
+
+        for (int moves = 0; moves < radius && frontier.size() > 0; moves++)
+        {
+            for (int i = 0; i < frontier.size(); i++)
+            {
+                double uLng = frontier.lng(i);
+                double uLat = frontier.lat(i);
+
+                for (int direction = 0; direction < Lattice.directions; direction++)
+                {
+                    // The drone would fly from previous to u in this direction
+                    double previousLng = Lattice.stepLng(Lattice.opposite(direction)) + uLng;
+                    double previousLat = Lattice.stepLat(Lattice.opposite(direction)) + uLat;
+                    int previous = index(Lattice.cellX(previousLng), Lattice.cellY(previousLat));
+
+                    if (previous < 0 || (storedMoves(previous) != unknown && storedMoves(previous) != moves + 1))
+                    {
+                        continue;
+                    }
+                    double distance = Lattice.movesBetween(previousLng, previousLat, baseLng, baseLat);
+                    if (next.isFartherThanHeld(previous, distance) && validator.isLegal(previousLng, previousLat, uLng, uLat))
+                    {
+                        setCell(previous, moves + 1, direction);
+                        next.offer(previous, previousLng, previousLat, distance);
+                    }
+                }
+            }
+
+            Frontier done = frontier;
+            frontier = next;
+            next = done;
+            next.clear();
+        }
+    }
+
+    private int index(int cellX, int cellY)
+    {
+        int x = cellX - originX;
+        int y = cellY - originY;
+        if (x < 0 || y < 0 || x >= side || y >= side)
+        {
+            return -1;
+        }
+        return y * side + x;
+    }
+
+    private void setCell(int index, int moves, int direction)
+    {
+        data.putShort(headerSize + 2 * index, (short) (moves + 1));
+        data.put(directionsOffset + index, (byte) direction);
+    }
+
+    private int storedMoves(int index)
+    {
+        return data.getShort(headerSize + 2 * index) - 1;
+    }
+
+    public boolean isFor(Position base, int radius, long fingerprint)
+    {
+        return baseLng == base.getLng() && baseLat == base.getLat() && this.radius == radius && this.fingerprint == fingerprint;
+    }
+
+    /**
+     * Moves home from the cell of the position, or unknown when the field doesn't cover it.
+     * pathHome never takes more, but may still fail for a position the cell representative doesn't stand for.
+     */
+    public int homeMoves(double lng, double lat)
+    {
+        if (Lattice.isClose(lng, lat, baseLng, baseLat))
+        {
+            return 0;
+        }
+        int index = index(Lattice.cellX(lng), Lattice.cellY(lat));
+        if (index < 0 || storedMoves(index) == unknown)
+        {
+            return unknown;
+        }
+        return storedMoves(index) + 1;
+    }
+
+    /**
+     * Follow the stored moves from the position back to the service point. Where a stored move is
+     * illegal from this exact position, the legal move into the neighbouring cell with the fewest
+     * moves home is taken instead. Returns null when the position isn't covered or the path would
+     * need more than homeMoves moves, so callers can rely on the bound.
+     */
+    public ArrayList<Position> pathHome(Position from, MoveValidator validator)
+    {
+        ArrayList<Position> path = new ArrayList<>(Arrays.asList(from));
+        int budget = homeMoves(from.getLng(), from.getLat());
+        if (budget == unknown)
+        {
+            return null;
+        }
+
+        double lng = from.getLng();
+        double lat = from.getLat();
+        int index = index(Lattice.cellX(lng), Lattice.cellY(lat));
+        while (storedMoves(index) > 0 && !Lattice.isClose(lng, lat, baseLng, baseLat))
+        {
+            int direction = data.get(directionsOffset + index) & 0xF;
+            double nextLng = Lattice.stepLng(direction) + lng;
+            double nextLat = Lattice.stepLat(direction) + lat;
+            if (!validator.isLegal(lng, lat, nextLng, nextLat))
+            {
+                direction = steepestLegalDirection(lng, lat, validator);
+                if (direction < 0)
+                {
+                    return null;
+                }
+                nextLng = Lattice.stepLng(direction) + lng;
+                nextLat = Lattice.stepLat(direction) + lat;
+            }
+            if (path.size() > budget)
+            {
+                return null;
+            }
+            path.add(new Position(nextLng, nextLat));
+            lng = nextLng;
+            lat = nextLat;
+            index = index(Lattice.cellX(lng), Lattice.cellY(lat));
+            if (index < 0 || storedMoves(index) == unknown)
+            {
+                return null;
+            }
+        }
+
+        // The replayed moves end where the cell representative would, shifted by less than one cell
+        if (!PathRealizer.walkStraight(path, baseLng, baseLat, Lattice.closeRadius, validator) || path.size() - 1 > budget)
+        {
+            return null;
+        }
+        return path;
+    }
+
+    // Legal move leading to the covered cell with the fewest moves home, -1 when there is none
+    private int steepestLegalDirection(double lng, double lat, MoveValidator validator)
+    {
+        int best = -1;
+        int bestMoves = Integer.MAX_VALUE;
+        for (int direction = 0; direction < Lattice.directions; direction++)
+        {
+            double nextLng = Lattice.stepLng(direction) + lng;
+            double nextLat = Lattice.stepLat(direction) + lat;
+            int next = index(Lattice.cellX(nextLng), Lattice.cellY(nextLat));
+            if (next < 0 || storedMoves(next) == unknown || storedMoves(next) >= bestMoves)
+            {
+                continue;
+            }
+            if (validator.isLegal(lng, lat, nextLng, nextLat))
+            {
+                best = direction;
+                bestMoves = storedMoves(next);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Positions reached with the same number of moves, one per cell. A cell reached again at the
+     * same level keeps the position farthest from the service point: keeping the nearest (or the
+     * first) one loses a little progress at every level and the moves counted far away from the
+     * service point end up a third higher than the moves actually needed.
+     */
+    private static class Frontier
+    {
+        private final LongIntHashMap slots = new LongIntHashMap(1024);
+        private double[] lngs = new double[1024];
+        private double[] lats = new double[1024];
+        private double[] distances = new double[1024];
+        private int size;
+
+        boolean isFartherThanHeld(int index, double distance)
+        {
+            int slot = slots.get(index);
+            return slot == LongIntHashMap.missing || distance > distances[slot];
+        }
+
+        void offer(int index, double lng, double lat, double distance)
+        {
+            int slot = slots.get(index);
+            if (slot == LongIntHashMap.missing)
+            {
+                if (size == lngs.length)
+                {
+                    lngs = Arrays.copyOf(lngs, size * 2);
+                    lats = Arrays.copyOf(lats, size * 2);
+                    distances = Arrays.copyOf(distances, size * 2);
+                }
+                slot = size++;
+                slots.put(index, slot);
+            }
+            lngs[slot] = lng;
+            lats[slot] = lat;
+            distances[slot] = distance;
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        double lng(int slot)
+        {
+            return lngs[slot];
+        }
+
+        double lat(int slot)
+        {
+            return lats[slot];
+        }
+
+        void clear()
+        {
+            slots.clear();
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * DistanceFieldRegistry class keeps the return to base distance fields of the service points
+ * for the restricted areas seen lately. Missing fields are built one at a time on a background thread,
+ * callers that can't wait get null until the field is ready and search instead. Fields are written to
+ * files in the given directory and memory mapped back, so a restarted instance picks them up without
+ * searching again. At most capacity fields are kept, the least recently used one is dropped together
+ * with its file when another is needed.
+ */
+public class DistanceFieldRegistry
+{
+    private static final Logger logger = LoggerFactory.getLogger(DistanceFieldRegistry.class);
+
+    // A field of the default radius takes about 12 MB
+    public static final int defaultCapacity = 8;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int radius;
+    private final int capacity;
+    private final ExecutorService executor;
+    // In access order, so the first entry is the least recently used one
+    private final Map<Key, CompletableFuture<DistanceField>> fields = new LinkedHashMap<>(16, 0.75f, true);
+
+    record Key(double baseLng, double baseLat, int radius, long fingerprint)
+    {
+    }
+
+    public DistanceFieldRegistry(Path directory, int radius)
+    {
+        this(directory, radius, defaultCapacity);
+    }
+
+    /**
+     * Registry of at most capacity fields covering radius moves around a service point, persisted into
+     * directory or only kept in memory when directory is null.
+     */
+    public DistanceFieldRegistry(Path directory, int radius, int capacity)
+    {
+        this(true, directory, radius, capacity);
+    }
+
+    private DistanceFieldRegistry(boolean enabled, Path directory, int radius, int capacity)
+    {
+        if (radius < 0 || radius > DistanceField.maxRadius)
+        {
+            throw new IllegalArgumentException("Radius out of range: " + radius);
+        }
+        if (enabled && capacity < 1)
+        {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        this.enabled = enabled;
+        this.directory = directory;
+        this.radius = radius;
+        this.capacity = capacity;
+        this.executor = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "distance-fields");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Registry that never builds anything, every lookup gives null
+    public static DistanceFieldRegistry disabled()
+    {
+        return new DistanceFieldRegistry(false, null, 0, 0);
+    }
+
+    // The field of the service point when it is ready, otherwise null and its build is started
+    public DistanceField get(Position base, RestrictedAreaSnapshot snapshot)
+    {
+        return enabled ? schedule(base, snapshot).getNow(null) : null;
+    }
+
+    // The field of the service point, waiting for it when it isn't ready yet, null when it couldn't be built
+    public DistanceField await(Position base, RestrictedAreaSnapshot snapshot)
+    {
+        return enabled ? schedule(base, snapshot).join() : null;
+    }
+
+    private synchronized CompletableFuture<DistanceField> schedule(Position base, RestrictedAreaSnapshot snapshot)
+    {
+        Key key = new Key(base.getLng(), base.getLat(), radius, snapshot.getFingerprint());
+        CompletableFuture<DistanceField> field = fields.get(key);
+        if (field != null)
+        {
+            return field;
+        }
+
+        if (fields.size() >= capacity)
+        {
+            evict(fields.keySet().iterator().next());
+        }
+        field = CompletableFuture.supplyAsync(() -> loadOrBuild(key, base, snapshot), executor).exceptionally(e ->
+        {
+            logger.warn("No distance field around ({}, {}): {}", base.getLng(), base.getLat(), e.getMessage());
+            return null;
+        });
+        fields.put(key, field);
+        return field;
+    }
+
+    // Queued on the build thread, so the file goes after the field's own build and before any later build of it
+    private void evict(Key key)
+    {
+        fields.remove(key);
+        if (directory != null)
+        {
+            Path file = directory.resolve(fileName(key));
+            executor.execute(() ->
+            {
+                try
+                {
+                    Files.deleteIfExists(file);
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Could not delete distance field {}: {}", file, e.getMessage());
+                }
+            });
+        }
+    }
+
+    private DistanceField loadOrBuild(Key key, Position base, RestrictedAreaSnapshot snapshot)
+    {
+        Path file = (directory == null) ? null : directory.resolve(fileName(key));
+        if (file != null && Files.exists(file))
+        {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                DistanceField field = new DistanceField(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                if (field.isFor(base, key.radius(), key.fingerprint()))
+                {
+                    return field;
+                }
+            }
+            catch (IOException | IllegalArgumentException e)
+            {
+                logger.warn("Ignoring unreadable distance field {}: {}", file, e.getMessage());
+            }
+        }
+
+        long started = System.nanoTime();
+        DistanceField field = DistanceField.build(base, key.radius(), key.fingerprint(), snapshot);
+        logger.info("Built distance field around ({}, {}) in {} ms", key.baseLng(), key.baseLat(), (System.nanoTime() - started) / 1000000);
+
+        if (file != null)
+        {
+            write(field, file);
+        }
+        return field;
+    }
+
+    // Write through a mapped buffer into a temporary file, then move it in place so readers never see half a field
+    private void write(DistanceField field, Path file)
+    {
+        try
+        {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "field", ".tmp");
+            ByteBuffer data = field.getData();
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE))
+            {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, data.capacity());
+                mapped.put(data.rewind());
+                mapped.force();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not persist distance field {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static String fileName(Key key)
+    {
+        return String.format("field-%016x-%016x-%016x-%d.bin", key.fingerprint(),
+                Double.doubleToLongBits(key.baseLng()), Double.doubleToLongBits(key.baseLat()), key.radius());
+    }
+}
@@ -0,0 +1,185 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * DistanceMatrix class holds the number of moves of every leg a day of deliveries can use:
+ * service point to delivery point, delivery point to delivery point and delivery point to service point.
+ * Every point is the start of one row, planned with a single one to many search.
+ * The rows are planned in parallel on a fork join pool, only the move counts are kept.
+ * Legs whose moves are already known (like the legs home read from a distance field) aren't planned.
+ * The paths of the legs from service points are kept too, the first leg of a flight is flown along the one it was measured on.
+ * Points are looked up by identity, like the positions handed out for service points and queries.
+ */
+public class DistanceMatrix
+{
+    public static final int unreachable = -1;
+
+    // Rows planned by one task before it stops splitting, every row is a full search
+    private static final int rowsPerTask = 1;
+
+    private final IdentityHashMap<Position, Integer> indices = new IdentityHashMap<>();
+    private final ArrayList<Position> points = new ArrayList<>();
+    private final int servicePointCount;
+    private final int size;
+    private final int[] moves;
+    private final ArrayList<ArrayList<Position>> servicePointLegs;
+
+    private DistanceMatrix(List<Position> servicePoints, List<Position> deliveryPoints)
+    {
+        servicePoints.forEach(this::addPoint);
+        servicePointCount = points.size();
+        deliveryPoints.forEach(this::addPoint);
+
+        size = points.size();
+        moves = new int[size * size];
+        Arrays.fill(moves, unreachable);
+        servicePointLegs = new ArrayList<>(Collections.nCopies(servicePointCount * size, null));
+    }
+
+    private void addPoint(Position point)
+    {
+        if (!indices.containsKey(point))
+        {
+            indices.put(point, points.size());
+            points.add(point);
+        }
+    }
+
+    /**
+     * Plan every leg between the given points, except service point to service point.
+     * The planner is given one start and all its ends, and returns one path per end (empty when unreachable).
+     */
+    public static DistanceMatrix build(List<Position> servicePoints, List<Position> deliveryPoints, BiFunction<Position, List<Position>, ArrayList<ArrayList<Position>>> planner, ForkJoinPool pool)
+    {
+        return build(servicePoints, deliveryPoints, (from, to) -> unreachable, planner, pool);
+    }
+
+    /**
+     * Same as build, knownMoves gives the moves of a leg without planning it, or unreachable when it has to be planned.
+     */
+    public static DistanceMatrix build(List<Position> servicePoints, List<Position> deliveryPoints, ToIntBiFunction<Position, Position> knownMoves,
+                                       BiFunction<Position, List<Position>, ArrayList<ArrayList<Position>>> planner, ForkJoinPool pool)
+    {
+        DistanceMatrix matrix = new DistanceMatrix(servicePoints, deliveryPoints);
+        for (int point = 0; point < matrix.size; point++)
+        {
+            matrix.moves[point * matrix.size + point] = 0;
+        }
+
+        pool.invoke(new RowTask(matrix, 0, matrix.size, knownMoves, planner));
+        return matrix;
+    }
+
+    private void planRow(int from, ToIntBiFunction<Position, Position> knownMoves, BiFunction<Position, List<Position>, ArrayList<ArrayList<Position>>> planner)
+    {
+        // Service points only need the delivery points, delivery points need every other point
+        ArrayList<Integer> targets = new ArrayList<>();
+        for (int to = (from < servicePointCount) ? servicePointCount : 0; to < size; to++)
+        {
+            if (to == from)
+            {
+                continue;
+            }
+            int known = knownMoves.applyAsInt(points.get(from), points.get(to));
+            if (known == unreachable)
+            {
+                targets.add(to);
+            }
+            else
+            {
+                moves[from * size + to] = known;
+            }
+        }
+        if (targets.isEmpty())
+        {
+            return;
+        }
+
+        ArrayList<Position> ends = new ArrayList<>(targets.size());
+        for (int to : targets)
+        {
+            ends.add(points.get(to));
+        }
+        ArrayList<ArrayList<Position>> paths = planner.apply(points.get(from), ends);
+        for (int i = 0; i < targets.size(); i++)
+        {
+            ArrayList<Position> path = paths.get(i);
+            moves[from * size + targets.get(i)] = path.isEmpty() ? unreachable : path.size() - 1;
+            if (from < servicePointCount)
+            {
+                servicePointLegs.set(from * size + targets.get(i), path);
+            }
+        }
+    }
+
+    public boolean contains(Position point)
+    {
+        return indices.containsKey(point);
+    }
+
+    // Number of moves from one point to the other, or unreachable when no path was found
+    public int moves(Position from, Position to)
+    {
+        return moves[indices.get(from) * size + indices.get(to)];
+    }
+
+    // Path the moves of a leg from a service point were counted on, a copy the caller may extend (empty when unreachable)
+    public ArrayList<Position> path(Position from, Position to)
+    {
+        ArrayList<Position> path = servicePointLegs.get(indices.get(from) * size + indices.get(to));
+        return (path == null) ? null : new ArrayList<>(path);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Plans the rows [first, last), splitting the range in two until it is small enough.
+     */
+    private static class RowTask extends RecursiveAction
+    {
+        private final DistanceMatrix matrix;
+        private final int first;
+        private final int last;
+        private final ToIntBiFunction<Position, Position> knownMoves;
+        private final BiFunction<Position, List<Position>, ArrayList<ArrayList<Position>>> planner;
+
+        RowTask(DistanceMatrix matrix, int first, int last, ToIntBiFunction<Position, Position> knownMoves, BiFunction<Position, List<Position>, ArrayList<ArrayList<Position>>> planner)
+        {
+            this.matrix = matrix;
+            this.first = first;
+            this.last = last;
+            this.knownMoves = knownMoves;
+            this.planner = planner;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (last - first > rowsPerTask)
+            {
+                int middle = (first + last) >>> 1;
+                invokeAll(new RowTask(matrix, first, middle, knownMoves, planner), new RowTask(matrix, middle, last, knownMoves, planner));
+                return;
+            }
+
+            for (int row = first; row < last; row++)
+            {
+                matrix.planRow(row, knownMoves, planner);
+            }
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.utility.GeometryKernel;
+
+import java.util.Arrays;
+
+/**
+ * EdgeIndex class is a spatial index over the edges of all restricted areas.
+ * Edges are bucketed into a uniform grid (hashed, so far apart areas don't blow up memory)
+ * for the segment checks, and into horizontal bands per area for the ray casting check,
+ * so the cost of a check depends on the edges near the move rather than on the total edge count.
+ * The slope of every edge is computed once here, and a move is tested against the edges of an
+ * area only when it meets the bounding box of that area.
+ * The predicates themselves are the same ones Utility uses, so the answers are unchanged.
+ */
+public class EdgeIndex
+{
+    private static final double bucketSize = Lattice.unitLength * 4;
+
+    // Covers the 1e-9 tolerance of the touching cases around the move itself
+    private static final double queryMargin = 1e-8;
+
+    // Edge storage, the edges of area a are [areaEdgeStart[a], areaEdgeStart[a + 1])
+    private final int[] areaEdgeStart;
+    private final int[] edgeArea;
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+    // (y2 - y1) / (x2 - x1), for the ray casting check
+    private final double[] slope;
+
+    // Grid buckets in compressed row form, bucketEdges[bucketStart[b]..bucketStart[b + 1]) are the edges of bucket b
+    private final LongIntHashMap bucketIds;
+    private final int[] bucketStart;
+    private final int[] bucketEdges;
+
+    // Per area bounding box and horizontal bands, in the same compressed form
+    private final double[] areaMinX;
+    private final double[] areaMaxX;
+    private final double[] areaMinY;
+    private final double[] areaMaxY;
+    private final double[] bandHeight;
+    private final int[] bandCount;
+    private final int[][] bandStart;
+    private final int[][] bandEdges;
+
+    /**
+     * Build the index, lngs[a] and lats[a] being the vertices of area a.
+     * Every vertex is joined to the next one and the last vertex to the first, like getRegionEdges.
+     */
+    public EdgeIndex(double[][] lngs, double[][] lats)
+    {
+        int areaCount = lngs.length;
+        areaEdgeStart = new int[areaCount + 1];
+        for (int area = 0; area < areaCount; area++)
+        {
+            areaEdgeStart[area + 1] = areaEdgeStart[area] + lngs[area].length;
+        }
+
+        int edgeCount = areaEdgeStart[areaCount];
+        edgeArea = new int[edgeCount];
+        x1 = new double[edgeCount];
+        y1 = new double[edgeCount];
+        x2 = new double[edgeCount];
+        y2 = new double[edgeCount];
+        slope = new double[edgeCount];
+
+        areaMinX = new double[areaCount];
+        areaMaxX = new double[areaCount];
+        areaMinY = new double[areaCount];
+        areaMaxY = new double[areaCount];
+        bandHeight = new double[areaCount];
+        bandCount = new int[areaCount];
+        bandStart = new int[areaCount][];
+        bandEdges = new int[areaCount][];
+
+        for (int area = 0; area < areaCount; area++)
+        {
+            int count = lngs[area].length;
+            areaMinX[area] = Double.POSITIVE_INFINITY;
+            areaMaxX[area] = Double.NEGATIVE_INFINITY;
+            areaMinY[area] = Double.POSITIVE_INFINITY;
+            areaMaxY[area] = Double.NEGATIVE_INFINITY;
+
+            for (int i = 0; i < count; i++)
+            {
+                int edge = areaEdgeStart[area] + i;
+                edgeArea[edge] = area;
+                x1[edge] = lngs[area][i];
+                y1[edge] = lats[area][i];
+                x2[edge] = lngs[area][(i + 1) % count];
+                y2[edge] = lats[area][(i + 1) % count];
+                slope[edge] = (y2[edge] - y1[edge]) / (x2[edge] - x1[edge]);
+
+                areaMinX[area] = Math.min(areaMinX[area], x1[edge]);
+                areaMaxX[area] = Math.max(areaMaxX[area], x1[edge]);
+                areaMinY[area] = Math.min(areaMinY[area], y1[edge]);
+                areaMaxY[area] = Math.max(areaMaxY[area], y1[edge]);
+            }
+            buildBands(area);
+        }
+
+        // Collect (bucket, edge) pairs, then lay them out bucket by bucket
+        bucketIds = new LongIntHashMap(Math.max(16, edgeCount * 4));
+        IntList pairBuckets = new IntList();
+        IntList pairEdges = new IntList();
+        for (int edge = 0; edge < edgeCount; edge++)
+        {
+            final int current = edge;
+            double edgeMargin = OccupancyBitmap.edgeMargin(x1[edge], y1[edge], x2[edge], y2[edge]);
+            Raster.forEachCell(x1[edge], y1[edge], x2[edge], y2[edge], edgeMargin, bucketSize, (column, row) ->
+            {
+                long key = Lattice.key(column, row);
+                int bucket = bucketIds.get(key);
+                if (bucket == LongIntHashMap.missing)
+                {
+                    bucket = bucketIds.size();
+                    bucketIds.put(key, bucket);
+                }
+                pairBuckets.add(bucket);
+                pairEdges.add(current);
+            });
+        }
+
+        int bucketCount = bucketIds.size();
+        bucketStart = new int[bucketCount + 1];
+        bucketEdges = new int[pairEdges.size()];
+        for (int i = 0; i < pairBuckets.size(); i++)
+        {
+            bucketStart[pairBuckets.get(i) + 1]++;
+        }
+        for (int bucket = 0; bucket < bucketCount; bucket++)
+        {
+            bucketStart[bucket + 1] += bucketStart[bucket];
+        }
+        int[] fill = Arrays.copyOf(bucketStart, bucketCount);
+        for (int i = 0; i < pairBuckets.size(); i++)
+        {
+            bucketEdges[fill[pairBuckets.get(i)]++] = pairEdges.get(i);
+        }
+    }
+
+    // Bands only need the y range of every edge, an edge is stored in every band it overlaps
+    private void buildBands(int area)
+    {
+        int first = areaEdgeStart[area];
+        int last = areaEdgeStart[area + 1];
+        int edgeCount = last - first;
+        double span = (edgeCount == 0) ? 0 : areaMaxY[area] - areaMinY[area];
+        double height = Math.max(Lattice.unitLength, span / Math.max(1, edgeCount));
+        int bands = (int) (span / height) + 1;
+        bandHeight[area] = height;
+        bandCount[area] = bands;
+
+        int[] starts = new int[bands + 1];
+        for (int edge = first; edge < last; edge++)
+        {
+            for (int band = band(area, Math.min(y1[edge], y2[edge])); band <= band(area, Math.max(y1[edge], y2[edge])); band++)
+            {
+                starts[band + 1]++;
+            }
+        }
+        for (int band = 0; band < bands; band++)
+        {
+            starts[band + 1] += starts[band];
+        }
+
+        int[] edges = new int[starts[bands]];
+        int[] fill = Arrays.copyOf(starts, bands);
+        for (int edge = first; edge < last; edge++)
+        {
+            for (int band = band(area, Math.min(y1[edge], y2[edge])); band <= band(area, Math.max(y1[edge], y2[edge])); band++)
+            {
+                edges[fill[band]++] = edge;
+            }
+        }
+
+        bandStart[area] = starts;
+        bandEdges[area] = edges;
+    }
+
+    private int band(int area, double y)
+    {
+        int band = (int) ((y - areaMinY[area]) / bandHeight[area]);
+        return Math.min(Math.max(band, 0), bandCount[area] - 1);
+    }
+
+    public int areaCount()
+    {
+        return areaMinX.length;
+    }
+
+    public int edgeCount()
+    {
+        return x1.length;
+    }
+
+    /**
+     * Ray casting point in polygon test for one area, with the same semantics as Utility.isInRegion
+     * (points on an edge count as inside), but only looking at the edges of the band containing the point.
+     */
+    public boolean containsPoint(int area, double x, double y)
+    {
+        if (y < areaMinY[area] || y > areaMaxY[area] || x > areaMaxX[area])
+        {
+            return false;
+        }
+
+        int[] starts = bandStart[area];
+        int[] edges = bandEdges[area];
+        int band = band(area, y);
+
+        int count = 0;
+        for (int i = starts[band]; i < starts[band + 1]; i++)
+        {
+            int edge = edges[i];
+            if (GeometryKernel.isPointOnEdge(x, y, x1[edge], y1[edge], x2[edge], y2[edge]))
+            {
+                return true;
+            }
+            else if (GeometryKernel.isEdgeIntersectWithRay(x, y, x1[edge], y1[edge], x2[edge], y2[edge], slope[edge]))
+            {
+                count++;
+            }
+        }
+        return count % 2 != 0;
+    }
+
+    // Segment against the edges of one area, or of every area when area is negative
+    public boolean isSegmentIntersecting(int area, double px1, double py1, double px2, double py2)
+    {
+        if (area >= 0 && !isNearBox(area, px1, py1, px2, py2))
+        {
+            return false;
+        }
+
+        int firstColumn = Raster.cell(Math.min(px1, px2) - queryMargin, bucketSize);
+        int lastColumn = Raster.cell(Math.max(px1, px2) + queryMargin, bucketSize);
+        int firstRow = Raster.cell(Math.min(py1, py2) - queryMargin, bucketSize);
+        int lastRow = Raster.cell(Math.max(py1, py2) + queryMargin, bucketSize);
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int bucket = bucketIds.get(Lattice.key(column, row));
+                if (bucket == LongIntHashMap.missing)
+                {
+                    continue;
+                }
+                for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++)
+                {
+                    int edge = bucketEdges[i];
+                    if (area >= 0 && edgeArea[edge] != area)
+                    {
+                        continue;
+                    }
+                    if (GeometryKernel.segmentsIntersect(px1, py1, px2, py2, x1[edge], y1[edge], x2[edge], y2[edge]))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Whether the bounding box of the segment, widened by the query margin, meets the bounding box of the area
+    private boolean isNearBox(int area, double px1, double py1, double px2, double py2)
+    {
+        return Math.min(px1, px2) - queryMargin <= areaMaxX[area] && Math.max(px1, px2) + queryMargin >= areaMinX[area]
+                && Math.min(py1, py2) - queryMargin <= areaMaxY[area] && Math.max(py1, py2) + queryMargin >= areaMinY[area];
+    }
+
+    // Same rule as Utility.isPathCrossingRestrictionArea, restricted to one area
+    public boolean isPathCrossingArea(int area, double fromLng, double fromLat, double toLng, double toLat)
+    {
+        return containsPoint(area, toLng, toLat) || isSegmentIntersecting(area, fromLng, fromLat, toLng, toLat);
+    }
+
+    public boolean isPathCrossing(double fromLng, double fromLat, double toLng, double toLat)
+    {
+        for (int area = 0; area < areaCount(); area++)
+        {
+            if (containsPoint(area, toLng, toLat))
+            {
+                return true;
+            }
+        }
+        return isSegmentIntersecting(-1, fromLng, fromLat, toLng, toLat);
+    }
+
+    // Segment of any length, walking only the buckets along the segment instead of its whole bounding box.
+    // Used for the long legs of the visibility graph
+    public boolean isLongSegmentIntersecting(double px1, double py1, double px2, double py2)
+    {
+        int firstRow = Raster.cell(Math.min(py1, py2) - queryMargin, bucketSize);
+        int lastRow = Raster.cell(Math.max(py1, py2) + queryMargin, bucketSize);
+        double[] span = new double[2];
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            if (!Raster.rowSpan(px1, py1, px2, py2, queryMargin, bucketSize, row, span))
+            {
+                continue;
+            }
+
+            int firstColumn = Raster.cell(span[0] - queryMargin, bucketSize);
+            int lastColumn = Raster.cell(span[1] + queryMargin, bucketSize);
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int bucket = bucketIds.get(Lattice.key(column, row));
+                if (bucket == LongIntHashMap.missing)
+                {
+                    continue;
+                }
+                for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++)
+                {
+                    int edge = bucketEdges[i];
+                    if (GeometryKernel.segmentsIntersect(px1, py1, px2, py2, x1[edge], y1[edge], x2[edge], y2[edge]))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Whether any edge comes within distance of the segment, walking only the buckets along the segment widened by distance
+    public boolean isEdgeWithin(double px1, double py1, double px2, double py2, double distance)
+    {
+        double margin = distance + queryMargin;
+        int firstRow = Raster.cell(Math.min(py1, py2) - margin, bucketSize);
+        int lastRow = Raster.cell(Math.max(py1, py2) + margin, bucketSize);
+        double[] span = new double[2];
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            if (!Raster.rowSpan(px1, py1, px2, py2, margin, bucketSize, row, span))
+            {
+                continue;
+            }
+
+            int firstColumn = Raster.cell(span[0] - margin, bucketSize);
+            int lastColumn = Raster.cell(span[1] + margin, bucketSize);
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int bucket = bucketIds.get(Lattice.key(column, row));
+                if (bucket == LongIntHashMap.missing)
+                {
+                    continue;
+                }
+                for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++)
+                {
+                    int edge = bucketEdges[i];
+                    if (GeometryKernel.segmentsWithin(px1, py1, px2, py2, x1[edge], y1[edge], x2[edge], y2[edge], distance))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Minimal growable int array used while building the index.
+     */
+    private static class IntList
+    {
+        private int[] values = new int[64];
+        private int size;
+
+        void add(int value)
+        {
+            if (size == values.length)
+            {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index)
+        {
+            return values[index];
+        }
+
+        int size()
+        {
+            return size;
+        }
+    }
+}
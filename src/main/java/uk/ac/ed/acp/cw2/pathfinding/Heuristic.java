@@ -0,0 +1,59 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+/**
+ * Estimate of the moves left from a position to the goal of a search, the goal being fixed
+ * when the heuristic is created.
+ */
+@FunctionalInterface
+public interface Heuristic
+{
+    double estimate(double lng, double lat);
+
+    /**
+     * Whether the estimate never drops by more than one from a position to the next one a move away,
+     * so f never goes down along a search and the search can use the bucket queue.
+     */
+    default boolean isConsistent()
+    {
+        return false;
+    }
+
+    // Fewest moves the 16 directions need without obstacles, what the searches use by default
+    static Heuristic lattice(double goalLng, double goalLat)
+    {
+        return new Heuristic()
+        {
+            @Override
+            public double estimate(double lng, double lat)
+            {
+                return Lattice.fewestMovesBetween(lng, lat, goalLng, goalLat);
+            }
+
+            @Override
+            public boolean isConsistent()
+            {
+                return true;
+            }
+        };
+    }
+
+    // Straight line distance in moves, what LatticeAStar used before the lattice heuristic
+    static Heuristic euclidean(double goalLng, double goalLat)
+    {
+        return new Heuristic()
+        {
+            @Override
+            public double estimate(double lng, double lat)
+            {
+                return Lattice.movesBetween(lng, lat, goalLng, goalLat);
+            }
+
+            // A move is one unit long, the straight line can't get shorter by more than that
+            @Override
+            public boolean isConsistent()
+            {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,282 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HierarchicalPlanner class plans long legs in two steps (HPA*): first over the graph of block
+ * entrances (see Cluster), then with lattice searches from one entrance of the route to the next,
+ * each confined to the one or two blocks it crosses. Short legs are searched directly.
+ *
+ * Blocks are only built when the route search reaches them, and only inside the box around the
+ * leg and the restricted areas (beyond it nothing can be in the way). They are cached by their
+ * position and the areas near them, so a change of restricted areas only rebuilds the blocks it
+ * touches, and all blocks without areas near them share one. When the route can't be found or
+ * refined the planner falls back to the full lattice search.
+ */
+public final class HierarchicalPlanner
+{
+    // Legs shorter than this many moves are searched directly
+    static final int directMoves = 2 * Cluster.size;
+
+    static final int cacheCapacity = 1 << 14;
+
+    private static final Map<ClusterKey, Cluster> clusters = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ClusterKey, Cluster> eldest)
+        {
+            return size() > cacheCapacity;
+        }
+    };
+
+    // The block at (clusterX, clusterY) with the given areas near it, (0, 0, 0) for the shared block without areas
+    record ClusterKey(int clusterX, int clusterY, long areas)
+    {
+    }
+
+    private HierarchicalPlanner()
+    {
+    }
+
+    public static ArrayList<Position> findPath(Position start, Position end, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats)
+    {
+        if (Lattice.movesBetween(start.getLng(), start.getLat(), end.getLng(), end.getLat()) < directMoves)
+        {
+            return LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, options.getMaxExpansions(), stats);
+        }
+
+        List<Position> waypoints = route(start, end, snapshot, options.getMaxExpansions(), stats);
+        ArrayList<Position> path = (waypoints == null) ? null : refine(start, waypoints, snapshot, options.getMaxExpansions(), stats);
+        if (path == null)
+        {
+            return LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, options.getMaxExpansions(), stats);
+        }
+        return path;
+    }
+
+    /**
+     * Entrances the leg goes through followed by the end, or null when the entrance graph has no route.
+     */
+    static List<Position> route(Position start, Position end, RestrictedAreaSnapshot snapshot, int maxExpansions, SearchStats stats)
+    {
+        int[] region = region(start, end, snapshot);
+        int startClusterX = Cluster.clusterOf(Lattice.cellX(start.getLng()));
+        int startClusterY = Cluster.clusterOf(Lattice.cellY(start.getLat()));
+        int endClusterX = Cluster.clusterOf(Lattice.cellX(end.getLng()));
+        int endClusterY = Cluster.clusterOf(Lattice.cellY(end.getLat()));
+        int[] startMoves = movesWithin(start, startClusterX, startClusterY, snapshot);
+        int[] endMoves = movesWithin(end, endClusterX, endClusterY, snapshot);
+
+        try (SearchWorkspace workspace = SearchWorkspace.acquire())
+        {
+            LongIntHashMap closed = workspace.closed();
+            int expansions = 0;
+            workspace.push(workspace.addNode(start.getLng(), start.getLat(), -1, 0, estimate(start.getLng(), start.getLat(), end)));
+
+            while (!workspace.isHeapEmpty())
+            {
+                int u = workspace.pop();
+                double uLng = workspace.lng(u);
+                double uLat = workspace.lat(u);
+                if (u != 0 && uLng == end.getLng() && uLat == end.getLat())
+                {
+                    return waypoints(workspace, u);
+                }
+                if (expansions++ >= maxExpansions)
+                {
+                    return null;
+                }
+
+                // The start isn't an entrance, it is never closed
+                long uKey = Lattice.key(uLng, uLat);
+                if (u != 0)
+                {
+                    if (closed.containsKey(uKey))
+                    {
+                        continue;
+                    }
+                    closed.put(uKey, u);
+                }
+                stats.recordExpansion();
+
+                int cellX = Lattice.cellX(uLng);
+                int cellY = Lattice.cellY(uLat);
+                int clusterX = (u == 0) ? startClusterX : Cluster.clusterOf(cellX);
+                int clusterY = (u == 0) ? startClusterY : Cluster.clusterOf(cellY);
+                int originX = clusterX * Cluster.size;
+                int originY = clusterY * Cluster.size;
+                Cluster cluster = getCluster(clusterX, clusterY, snapshot);
+                int entrance = (u == 0) ? -1 : entranceAt(cluster, cellX - originX, cellY - originY);
+                if (u != 0 && entrance < 0)
+                {
+                    continue;
+                }
+
+                for (int other = 0; other < cluster.entranceCount(); other++)
+                {
+                    int moves = (u == 0) ? startMoves[other] : cluster.moves(entrance, other);
+                    if (other != entrance && moves != Cluster.unreachable)
+                    {
+                        push(workspace, closed, originX + cluster.entranceX(other), originY + cluster.entranceY(other), u, workspace.g(u) + moves, end);
+                    }
+                }
+                if (u != 0)
+                {
+                    int crossX = originX + cluster.crossX(entrance);
+                    int crossY = originY + cluster.crossY(entrance);
+                    if (isInside(region, Cluster.clusterOf(crossX), Cluster.clusterOf(crossY)))
+                    {
+                        push(workspace, closed, crossX, crossY, u, workspace.g(u) + 1, end);
+                    }
+                    if (clusterX == endClusterX && clusterY == endClusterY && endMoves[entrance] != Cluster.unreachable)
+                    {
+                        int g = workspace.g(u) + endMoves[entrance];
+                        workspace.push(workspace.addNode(end.getLng(), end.getLat(), u, g, g));
+                    }
+                }
+                stats.recordOpenSize(workspace.heapSize());
+            }
+            return null;
+        }
+    }
+
+    private static void push(SearchWorkspace workspace, LongIntHashMap closed, int cellX, int cellY, int parent, int g, Position end)
+    {
+        if (!closed.containsKey(Lattice.key(cellX, cellY)))
+        {
+            double lng = cellX * Lattice.unitLength;
+            double lat = cellY * Lattice.unitLength;
+            workspace.push(workspace.addNode(lng, lat, parent, g, g + estimate(lng, lat, end)));
+        }
+    }
+
+    private static List<Position> waypoints(SearchWorkspace workspace, int node)
+    {
+        ArrayList<Position> waypoints = workspace.pathTo(node);
+        return waypoints.subList(1, waypoints.size());
+    }
+
+    /**
+     * Walk from the start to every waypoint in turn, searching only the blocks of the two ends of each step.
+     */
+    static ArrayList<Position> refine(Position start, List<Position> waypoints, MoveValidator validator, int maxExpansions, SearchStats stats)
+    {
+        ArrayList<Position> path = new ArrayList<>();
+        path.add(start);
+        Position anchor = start;
+        for (Position waypoint : waypoints)
+        {
+            int minX = Cluster.clusterOf(Math.min(Lattice.cellX(anchor.getLng()), Lattice.cellX(waypoint.getLng()))) * Cluster.size;
+            int minY = Cluster.clusterOf(Math.min(Lattice.cellY(anchor.getLat()), Lattice.cellY(waypoint.getLat()))) * Cluster.size;
+            int maxX = (Cluster.clusterOf(Math.max(Lattice.cellX(anchor.getLng()), Lattice.cellX(waypoint.getLng()))) + 1) * Cluster.size - 1;
+            int maxY = (Cluster.clusterOf(Math.max(Lattice.cellY(anchor.getLat()), Lattice.cellY(waypoint.getLat()))) + 1) * Cluster.size - 1;
+
+            Position from = path.getLast();
+            ArrayList<Position> step = LatticeAStar.search(from.getLng(), from.getLat(), waypoint.getLng(), waypoint.getLat(),
+                    Cluster.within(minX, minY, maxX, maxY, validator), maxExpansions, stats);
+            if (step.isEmpty())
+            {
+                return null;
+            }
+            path.addAll(step.subList(1, step.size()));
+            anchor = waypoint;
+        }
+        return path;
+    }
+
+    // Moves from the position to every entrance of its block (the same both ways, moves being symmetric)
+    private static int[] movesWithin(Position position, int clusterX, int clusterY, RestrictedAreaSnapshot snapshot)
+    {
+        Cluster cluster = getCluster(clusterX, clusterY, snapshot);
+        int originX = clusterX * Cluster.size;
+        int originY = clusterY * Cluster.size;
+        List<Position> entrances = new ArrayList<>();
+        for (int i = 0; i < cluster.entranceCount(); i++)
+        {
+            entrances.add(new Position((originX + cluster.entranceX(i)) * Lattice.unitLength, (originY + cluster.entranceY(i)) * Lattice.unitLength));
+        }
+        return Cluster.movesTo(position, entrances, Cluster.within(originX, originY, originX + Cluster.size - 1, originY + Cluster.size - 1, snapshot));
+    }
+
+    private static int entranceAt(Cluster cluster, int x, int y)
+    {
+        for (int i = 0; i < cluster.entranceCount(); i++)
+        {
+            if (cluster.entranceX(i) == x && cluster.entranceY(i) == y)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The cached block, built when missing. Built outside the lock, so two threads may both build the same block.
+     */
+    static Cluster getCluster(int clusterX, int clusterY, RestrictedAreaSnapshot snapshot)
+    {
+        int originX = clusterX * Cluster.size;
+        int originY = clusterY * Cluster.size;
+        // Crossing moves reach one cell beyond the block, and a move may clip an area one more cell away
+        long areas = snapshot.fingerprintWithin((originX - 2) * Lattice.unitLength, (originY - 2) * Lattice.unitLength,
+                (originX + Cluster.size + 1) * Lattice.unitLength, (originY + Cluster.size + 1) * Lattice.unitLength);
+        ClusterKey key = (areas == 0) ? new ClusterKey(0, 0, 0) : new ClusterKey(clusterX, clusterY, areas);
+
+        Cluster cluster;
+        synchronized (clusters)
+        {
+            cluster = clusters.get(key);
+        }
+        if (cluster == null)
+        {
+            cluster = (areas == 0) ? Cluster.build(0, 0, (fromLng, fromLat, toLng, toLat) -> true) : Cluster.build(originX, originY, snapshot);
+            synchronized (clusters)
+            {
+                clusters.putIfAbsent(key, cluster);
+            }
+        }
+        return cluster;
+    }
+
+    // Blocks (min x, min y, max x, max y) around the leg and every restricted area, one block of margin all around
+    private static int[] region(Position start, Position end, RestrictedAreaSnapshot snapshot)
+    {
+        double minLng = Math.min(start.getLng(), end.getLng());
+        double minLat = Math.min(start.getLat(), end.getLat());
+        double maxLng = Math.max(start.getLng(), end.getLng());
+        double maxLat = Math.max(start.getLat(), end.getLat());
+        for (double[] box : snapshot.areaBoxes())
+        {
+            minLng = Math.min(minLng, box[0]);
+            minLat = Math.min(minLat, box[1]);
+            maxLng = Math.max(maxLng, box[2]);
+            maxLat = Math.max(maxLat, box[3]);
+        }
+        return new int[]{Cluster.clusterOf(Lattice.cellX(minLng)) - 1, Cluster.clusterOf(Lattice.cellY(minLat)) - 1,
+                Cluster.clusterOf(Lattice.cellX(maxLng)) + 1, Cluster.clusterOf(Lattice.cellY(maxLat)) + 1};
+    }
+
+    private static boolean isInside(int[] region, int clusterX, int clusterY)
+    {
+        return clusterX >= region[0] && clusterY >= region[1] && clusterX <= region[2] && clusterY <= region[3];
+    }
+
+    private static double estimate(double lng, double lat, Position end)
+    {
+        return Lattice.fewestMovesBetween(lng, lat, end.getLng(), end.getLat());
+    }
+
+    // Number of blocks in the cache, shared by every snapshot
+    public static int cachedClusters()
+    {
+        synchronized (clusters)
+        {
+            return clusters.size();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lattice A* that keeps its whole search state after answering, so the leg can be repaired when
+ * the restricted areas change instead of being searched again (Lifelong Planning A* in spirit).
+ *
+ * Most changes don't matter to a given leg: when its path is still legal and no removed area lies
+ * where a shorter path could go (inside the ellipse of the current length around start and goal),
+ * the path is kept and the repair is postponed until a change does matter.
+ *
+ * The lattice has no fixed vertices (a cell is whatever position first reached it), so the repair
+ * works on the search tree: nodes whose move became illegal are dropped with everything below them,
+ * the expanded nodes next to a changed area or to a dropped cell are opened again, and the search
+ * resumes from the kept tree. A cell reached again with fewer moves than the node holding it is
+ * taken over (closed or not), which is how shorter routes through a removed area spread, like the
+ * over-consistent vertices of LPA*. Everything else follows LatticeAStar.
+ */
+public class IncrementalAStar
+{
+    private final double startLng;
+    private final double startLat;
+    private final double goalLng;
+    private final double goalLat;
+    private final int maxExpansions;
+
+    // A tree that grew past this many nodes over its repairs is searched again from scratch instead
+    static final int maxRetainedNodes = 1 << 18;
+
+    // Owned, not pooled: it lives as long as the leg may be repaired
+    private SearchWorkspace workspace = new SearchWorkspace();
+    private boolean[] expanded = new boolean[1024];
+    private int goalNode = -1;
+    private RestrictedAreaSnapshot snapshot;
+    private ArrayList<Position> path = new ArrayList<>();
+    // Areas removed and added since the tree was last repaired (a reshaped area is both)
+    private final List<double[]> pendingRemoved = new ArrayList<>();
+    private final List<double[]> pendingAdded = new ArrayList<>();
+
+    private IncrementalAStar(Position start, Position goal, int maxExpansions)
+    {
+        this.startLng = start.getLng();
+        this.startLat = start.getLat();
+        this.goalLng = goal.getLng();
+        this.goalLat = goal.getLat();
+        this.maxExpansions = maxExpansions;
+    }
+
+    /**
+     * Search the leg from scratch and keep the state for later repairs.
+     */
+    public static IncrementalAStar plan(Position start, Position goal, RestrictedAreaSnapshot snapshot, int maxExpansions, SearchStats stats)
+    {
+        IncrementalAStar search = new IncrementalAStar(start, goal, maxExpansions);
+        search.snapshot = snapshot;
+        search.restart(stats);
+        return search;
+    }
+
+    private void restart(SearchStats stats)
+    {
+        workspace.clear();
+        Arrays.fill(expanded, false);
+        pendingRemoved.clear();
+        pendingAdded.clear();
+        workspace.push(workspace.addNode(startLng, startLat, -1, 0, estimate(startLng, startLat)));
+        path = resume(stats);
+    }
+
+    // Copy of the path found against the latest snapshot, empty when there is none
+    public ArrayList<Position> getPath()
+    {
+        return new ArrayList<>(path);
+    }
+
+    // False when the latest search failed or ran out of expansions
+    public boolean hasPath()
+    {
+        return !path.isEmpty();
+    }
+
+    public RestrictedAreaSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    public int nodeCount()
+    {
+        return workspace.nodeCount();
+    }
+
+    /**
+     * Repair the leg for the changed restricted areas and return the new path.
+     */
+    public ArrayList<Position> replan(RestrictedAreaSnapshot changed, SearchStats stats)
+    {
+        List<double[]> removed = snapshot.unmatchedAreaBoxes(changed);
+        List<double[]> added = changed.unmatchedAreaBoxes(snapshot);
+        snapshot = changed;
+        pendingRemoved.addAll(removed);
+        pendingAdded.addAll(added);
+        if ((pendingRemoved.isEmpty() && pendingAdded.isEmpty()) || (!path.isEmpty() && isPathStillLegal() && !couldShortenPath(removed)))
+        {
+            return getPath();
+        }
+
+        if (workspace.nodeCount() > maxRetainedNodes)
+        {
+            restart(stats);
+            return getPath();
+        }
+
+        List<double[]> removedBoxes = new ArrayList<>(pendingRemoved);
+        List<double[]> addedBoxes = new ArrayList<>(pendingAdded);
+        pendingRemoved.clear();
+        pendingAdded.clear();
+        int nodeCount = workspace.nodeCount();
+        expanded = Arrays.copyOf(expanded, Math.max(expanded.length, nodeCount));
+        LongIntHashMap closed = workspace.closed();
+
+        // Only an added area can make a move illegal. Parents always come before their children, so one pass drops whole subtrees
+        boolean[] valid = new boolean[nodeCount];
+        valid[0] = true;
+        for (int node = 1; node < nodeCount; node++)
+        {
+            int parent = workspace.parent(node);
+            valid[node] = valid[parent] && (!isNear(addedBoxes, parent, node)
+                    || changed.isLegal(workspace.lng(parent), workspace.lat(parent), workspace.lng(node), workspace.lat(node)));
+        }
+
+        // Cells that were held by a dropped node, and the expanded nodes that now hold their cell
+        LongIntHashMap lostCells = new LongIntHashMap(64);
+        LongIntHashMap keptCells = new LongIntHashMap(nodeCount);
+        for (int node = 0; node < nodeCount; node++)
+        {
+            if (!expanded[node])
+            {
+                continue;
+            }
+            long key = Lattice.key(workspace.lng(node), workspace.lat(node));
+            if (closed.get(key) != node)
+            {
+                continue; // taken over by a node with fewer moves
+            }
+            if (valid[node])
+            {
+                keptCells.put(key, node);
+            }
+            else
+            {
+                lostCells.put(key, node);
+            }
+        }
+
+        // Open nodes that could still win their cell
+        boolean[] keep = new boolean[nodeCount];
+        boolean[] open = new boolean[nodeCount];
+        for (int i = 0; i < workspace.heapSize(); i++)
+        {
+            int node = workspace.heapNode(i);
+            int holder = keptCells.get(Lattice.key(workspace.lng(node), workspace.lat(node)));
+            if (valid[node] && (holder == LongIntHashMap.missing || workspace.g(holder) > workspace.g(node)))
+            {
+                open[node] = true;
+            }
+        }
+        if (goalNode >= 0 && valid[goalNode])
+        {
+            open[goalNode] = true;
+        }
+
+        // Expanded nodes whose moves may now be legal (next to a removed area), or that could reach a lost cell another way, are opened again
+        for (int node = 0; node < nodeCount; node++)
+        {
+            boolean holding = expanded[node] && valid[node] && keptCells.get(Lattice.key(workspace.lng(node), workspace.lat(node))) == node;
+            expanded[node] = false;
+            if (!holding)
+            {
+                continue;
+            }
+            if (isNear(removedBoxes, node, node) || (lostCells.size() > 0 && isNextToLostCell(node, lostCells)))
+            {
+                open[node] = true;
+            }
+            else
+            {
+                expanded[node] = true;
+            }
+        }
+
+        // Keep only the live tree: expanded and open nodes and everything on their way back to the start
+        for (int node = nodeCount - 1; node >= 0; node--)
+        {
+            keep[node] |= expanded[node] || open[node];
+            if (keep[node] && node > 0)
+            {
+                keep[workspace.parent(node)] = true;
+            }
+        }
+        compact(keep, open);
+
+        path = resume(stats);
+        return getPath();
+    }
+
+    // Copy the kept nodes into a new workspace (parents still before children) and rebuild the closed set and open list
+    private void compact(boolean[] keep, boolean[] open)
+    {
+        SearchWorkspace compacted = new SearchWorkspace();
+        boolean[] compactedExpanded = new boolean[Math.max(1024, workspace.nodeCount())];
+        int[] index = new int[workspace.nodeCount()];
+        for (int node = 0; node < workspace.nodeCount(); node++)
+        {
+            if (!keep[node])
+            {
+                continue;
+            }
+            int parent = workspace.parent(node);
+            index[node] = compacted.addNode(workspace.lng(node), workspace.lat(node), (parent < 0) ? -1 : index[parent], workspace.g(node), workspace.f(node));
+            if (expanded[node])
+            {
+                compactedExpanded[index[node]] = true;
+                compacted.closed().put(Lattice.key(workspace.lng(node), workspace.lat(node)), index[node]);
+            }
+            if (open[node])
+            {
+                compacted.push(index[node]);
+            }
+        }
+        workspace = compacted;
+        expanded = compactedExpanded;
+        goalNode = -1;
+    }
+
+    // Main A* loop, from whatever open list and closed set the workspace holds
+    private ArrayList<Position> resume(SearchStats stats)
+    {
+        LongIntHashMap closed = workspace.closed();
+        int expansions = 0;
+        goalNode = -1;
+
+        while (!workspace.isHeapEmpty())
+        {
+            int u = workspace.pop();
+
+            if (expansions++ >= maxExpansions)
+            {
+                return new ArrayList<>(); // treat as "no path", too many expansions
+            }
+
+            double uLng = workspace.lng(u);
+            double uLat = workspace.lat(u);
+
+            if (Lattice.isClose(uLng, uLat, goalLng, goalLat))
+            {
+                goalNode = u;
+                return workspace.pathTo(u);
+            }
+
+            long uKey = Lattice.key(uLng, uLat);
+            int holder = closed.get(uKey);
+            if (holder != LongIntHashMap.missing && workspace.g(holder) <= workspace.g(u))
+            {
+                continue;
+            }
+            closed.put(uKey, u);
+            markExpanded(u);
+            stats.recordExpansion();
+
+            int nextG = workspace.g(u) + 1;
+            for (int direction = 0; direction < Lattice.directions; direction++)
+            {
+                double nextLng = Lattice.stepLng(direction) + uLng;
+                double nextLat = Lattice.stepLat(direction) + uLat;
+
+                int nextHolder = closed.get(Lattice.key(nextLng, nextLat));
+                if ((nextHolder == LongIntHashMap.missing || workspace.g(nextHolder) > nextG) && snapshot.isLegal(uLng, uLat, nextLng, nextLat))
+                {
+                    workspace.push(workspace.addNode(nextLng, nextLat, u, nextG, nextG + estimate(nextLng, nextLat)));
+                    stats.recordGenerated();
+                }
+            }
+            stats.recordOpenSize(workspace.heapSize());
+        }
+        return new ArrayList<>();
+    }
+
+    private boolean isPathStillLegal()
+    {
+        for (int i = 1; i < path.size(); i++)
+        {
+            Position from = path.get(i - 1);
+            Position to = path.get(i);
+            if (!snapshot.isLegal(from.getLng(), from.getLat(), to.getLng(), to.getLat()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A shorter path through a removed area would have to pass inside the ellipse of the current length
+    private boolean couldShortenPath(List<double[]> removed)
+    {
+        for (double[] box : removed)
+        {
+            double throughBox = distanceToBox(startLng, startLat, box) + distanceToBox(goalLng, goalLat, box);
+            if (throughBox / Lattice.unitLength < path.size() - 1)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double distanceToBox(double lng, double lat, double[] box)
+    {
+        double dLng = Math.max(Math.max(box[0] - lng, lng - box[2]), 0);
+        double dLat = Math.max(Math.max(box[1] - lat, lat - box[3]), 0);
+        return Math.sqrt(dLng * dLng + dLat * dLat);
+    }
+
+    private double estimate(double lng, double lat)
+    {
+        return Lattice.fewestMovesBetween(lng, lat, goalLng, goalLat);
+    }
+
+    private void markExpanded(int node)
+    {
+        if (node >= expanded.length)
+        {
+            expanded = Arrays.copyOf(expanded, Math.max(node + 1, expanded.length * 2));
+        }
+        expanded[node] = true;
+    }
+
+    private boolean isNextToLostCell(int node, LongIntHashMap lostCells)
+    {
+        for (int direction = 0; direction < Lattice.directions; direction++)
+        {
+            if (lostCells.containsKey(Lattice.key(Lattice.stepLng(direction) + workspace.lng(node), Lattice.stepLat(direction) + workspace.lat(node))))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True when the move between the two nodes comes within one step of a changed area
+    private boolean isNear(List<double[]> boxes, int from, int to)
+    {
+        double minLng = Math.min(workspace.lng(from), workspace.lng(to)) - Lattice.unitLength;
+        double maxLng = Math.max(workspace.lng(from), workspace.lng(to)) + Lattice.unitLength;
+        double minLat = Math.min(workspace.lat(from), workspace.lat(to)) - Lattice.unitLength;
+        double maxLat = Math.max(workspace.lat(from), workspace.lat(to)) + Lattice.unitLength;
+        for (double[] box : boxes)
+        {
+            if (minLng <= box[2] && maxLng >= box[0] && minLat <= box[3] && maxLat >= box[1])
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,138 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * IncrementalLegs class keeps the search state of the most recently planned legs, so that a leg
+ * asked for again after the restricted areas changed is repaired instead of searched from scratch.
+ * Legs are keyed by their exact end points and expansion budget. The kept trees hold at most
+ * maxNodes search nodes between them (about 64 bytes each), the least recently used legs are dropped
+ * to make room. Only legs that found a path are kept, a search that failed or ran out of expansions
+ * would only be repeated. A leg is repaired by one thread at a time.
+ */
+public class IncrementalLegs
+{
+    // About 64 MB of search trees
+    public static final long defaultMaxNodes = 1 << 20;
+
+    private final long maxNodes;
+    private final LinkedHashMap<Key, Leg> legs = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedNodes;
+
+    public IncrementalLegs(long maxNodes)
+    {
+        this.maxNodes = maxNodes;
+    }
+
+    record Key(double startLng, double startLat, double goalLng, double goalLat, int maxExpansions)
+    {
+    }
+
+    // A kept search with the nodes it was counted with, recounted after every repair
+    private static final class Leg
+    {
+        private final IncrementalAStar search;
+        private int nodes;
+
+        private Leg(IncrementalAStar search)
+        {
+            this.search = search;
+        }
+    }
+
+    /**
+     * Path of the leg against the snapshot, repairing the kept search of the leg when there is one.
+     */
+    public ArrayList<Position> findPath(Position start, Position goal, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats)
+    {
+        if (maxNodes <= 0)
+        {
+            return IncrementalAStar.plan(start, goal, snapshot, options.getMaxExpansions(), stats).getPath();
+        }
+
+        Key key = new Key(start.getLng(), start.getLat(), goal.getLng(), goal.getLat(), options.getMaxExpansions());
+        Leg leg;
+        synchronized (legs)
+        {
+            leg = legs.get(key);
+        }
+
+        if (leg == null)
+        {
+            leg = new Leg(IncrementalAStar.plan(start, goal, snapshot, options.getMaxExpansions(), stats));
+            synchronized (legs)
+            {
+                if (!legs.containsKey(key))
+                {
+                    keep(key, leg);
+                }
+            }
+            return leg.search.getPath();
+        }
+
+        ArrayList<Position> path;
+        synchronized (leg.search)
+        {
+            if (leg.search.getSnapshot() == snapshot)
+            {
+                return leg.search.getPath();
+            }
+            path = leg.search.replan(snapshot, stats);
+        }
+        synchronized (legs)
+        {
+            if (legs.get(key) == leg)
+            {
+                release(key, leg);
+                keep(key, leg);
+            }
+        }
+        return path;
+    }
+
+    // Count the leg in if it found a path and fits, dropping the least recently used legs to make room
+    private void keep(Key key, Leg leg)
+    {
+        leg.nodes = leg.search.nodeCount();
+        if (!leg.search.hasPath() || leg.nodes > maxNodes)
+        {
+            return;
+        }
+
+        Iterator<Leg> eldest = legs.values().iterator();
+        while (retainedNodes + leg.nodes > maxNodes)
+        {
+            retainedNodes -= eldest.next().nodes;
+            eldest.remove();
+        }
+        legs.put(key, leg);
+        retainedNodes += leg.nodes;
+    }
+
+    private void release(Key key, Leg leg)
+    {
+        legs.remove(key);
+        retainedNodes -= leg.nodes;
+    }
+
+    public int size()
+    {
+        synchronized (legs)
+        {
+            return legs.size();
+        }
+    }
+
+    // Search nodes held by the kept legs
+    public long retainedNodes()
+    {
+        synchronized (legs)
+        {
+            return retainedNodes;
+        }
+    }
+}
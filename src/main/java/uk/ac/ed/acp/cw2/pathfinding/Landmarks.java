@@ -0,0 +1,158 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Landmarks class holds the lattice distances to eight landmarks placed around the box of the
+ * restricted areas (corners and middle of the sides), for the ALT heuristic. By the triangle
+ * inequality the moves from u to the goal are at least the moves from u to a landmark minus the
+ * moves from the goal to it, which is much tighter than the straight line behind a restricted area.
+ * The distances are distance fields, so they are counted on cell representatives and slightly high:
+ * the bound is loosened to make up for most of it, but it can't be proven admissible, so the legs
+ * found with it report the bound their length proves against the straight line instead of 1.
+ * The fields take seconds to build, so they are built in the background once per snapshot, on
+ * threads of their own, and the searches fall back to the fewest moves without obstacles until they
+ * are ready. Those legs are marked provisional. No landmark at all is used when there is no
+ * restricted area.
+ */
+public class Landmarks
+{
+    // Landmarks sit at least this many moves outside the box, so they are never inside an area
+    static final int margin = 20;
+    // The field counts run a few percent and a move or so above the true moves, the bounds are loosened
+    // by as much so the paths found are hardly ever longer than with the straight line
+    static final double boundScale = 0.97;
+    static final double boundSlack = 1;
+    // Largest field built for a landmark, positions further away just don't get the bound
+    static final int maxRadius = 600;
+
+    // Half the cores at most, the landmarks of a new snapshot shouldn't hold up the searches of the running requests
+    private static final ExecutorService builders = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable ->
+    {
+        Thread thread = new Thread(runnable, "landmarks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CompletableFuture<List<DistanceField>> fields;
+
+    public Landmarks(RestrictedAreaSnapshot snapshot)
+    {
+        this.fields = (snapshot.areaCount() == 0) ? CompletableFuture.completedFuture(List.of()) : build(snapshot);
+    }
+
+    /**
+     * A* with the landmark heuristic. The length of the path is only proven against the fewest moves without obstacles,
+     * which is the bound recorded, and legs searched before the landmarks were ready are recorded as provisional.
+     */
+    public static ArrayList<Position> findPath(Position start, Position end, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats)
+    {
+        Landmarks landmarks = snapshot.getDerived(Landmarks.class, Landmarks::new);
+        boolean ready = landmarks.isReady();
+        ArrayList<Position> path = LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(),
+                landmarks.heuristicTo(end.getLng(), end.getLat()), snapshot, options.getMaxExpansions(), stats);
+        if (!ready)
+        {
+            stats.recordProvisional();
+        }
+        else if (!path.isEmpty() && landmarks.await() > 0)
+        {
+            double fewestMoves = Lattice.fewestMovesBetween(start.getLng(), start.getLat(), end.getLng(), end.getLat());
+            stats.recordSuboptimalityBound(Math.max(1, (path.size() - 1) / Math.max(1, fewestMoves)));
+        }
+        return path;
+    }
+
+    private static CompletableFuture<List<DistanceField>> build(RestrictedAreaSnapshot snapshot)
+    {
+
+        double minLng = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int area = 0; area < snapshot.areaCount(); area++)
+        {
+            for (double lng : snapshot.getVertexLngs(area))
+            {
+                minLng = Math.min(minLng, lng);
+                maxLng = Math.max(maxLng, lng);
+            }
+            for (double lat : snapshot.getVertexLats(area))
+            {
+                minLat = Math.min(minLat, lat);
+                maxLat = Math.max(maxLat, lat);
+            }
+        }
+
+        // Landmarks work best behind the goal seen from the start, so they are put well away from the areas
+        double diagonal = Math.ceil(Lattice.movesBetween(minLng, minLat, maxLng, maxLat));
+        double padding = Math.max(margin, diagonal / 2) * Lattice.unitLength;
+        double midLng = (minLng + maxLng) / 2;
+        double midLat = (minLat + maxLat) / 2;
+        List<Position> corners = List.of(new Position(minLng - padding, minLat - padding), new Position(midLng, minLat - padding),
+                new Position(maxLng + padding, minLat - padding), new Position(maxLng + padding, midLat),
+                new Position(maxLng + padding, maxLat + padding), new Position(midLng, maxLat + padding),
+                new Position(minLng - padding, maxLat + padding), new Position(minLng - padding, midLat));
+
+        // Reach the far side of the box and about as far beyond it as the landmark is on its own side
+        int radius = (int) Math.min(maxRadius, 2 * diagonal + 2 * margin);
+        List<CompletableFuture<DistanceField>> built = corners.stream()
+                .map(corner -> CompletableFuture.supplyAsync(() -> DistanceField.build(corner, radius, snapshot.getFingerprint(), snapshot), builders))
+                .toList();
+        return CompletableFuture.allOf(built.toArray(new CompletableFuture[0]))
+                .thenApply(done -> built.stream().map(CompletableFuture::join).toList())
+                .exceptionally(e -> List.of()); // searched with the straight line alone then
+    }
+
+    public boolean isReady()
+    {
+        return fields.isDone();
+    }
+
+    // Wait for the landmarks and return how many there are
+    public int await()
+    {
+        return fields.join().size();
+    }
+
+    /**
+     * Largest of the fewest moves without obstacles and the landmark bounds on the moves from a position to the goal,
+     * only the former while the landmarks are being built.
+     */
+    public Heuristic heuristicTo(double goalLng, double goalLat)
+    {
+        ArrayList<DistanceField> usable = new ArrayList<>();
+        ArrayList<Integer> goalMoves = new ArrayList<>();
+        for (DistanceField field : fields.getNow(List.of()))
+        {
+            int moves = field.homeMoves(goalLng, goalLat);
+            if (moves != DistanceField.unknown)
+            {
+                usable.add(field);
+                goalMoves.add(moves);
+            }
+        }
+
+        DistanceField[] landmarkFields = usable.toArray(new DistanceField[0]);
+        int[] landmarkGoalMoves = goalMoves.stream().mapToInt(Integer::intValue).toArray();
+        return (lng, lat) ->
+        {
+            double estimate = Lattice.fewestMovesBetween(lng, lat, goalLng, goalLat);
+            for (int i = 0; i < landmarkFields.length; i++)
+            {
+                int moves = landmarkFields[i].homeMoves(lng, lat);
+                if (moves != DistanceField.unknown)
+                {
+                    estimate = Math.max(estimate, (moves - landmarkGoalMoves[i]) * boundScale - boundSlack);
+                }
+            }
+            return estimate;
+        };
+    }
+}
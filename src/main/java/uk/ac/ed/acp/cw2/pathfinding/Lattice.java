@@ -0,0 +1,131 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.utility.GeometryKernel;
+
+/**
+ * Lattice class holds the constants and primitive helpers shared by the search engines.
+ * Drones move in 16 directions (multiples of 22.5 degrees) with a fixed step of 0.00015,
+ * and positions are bucketed into square cells of the same size for the visited checks.
+ */
+public final class Lattice
+{
+    public static final double unitLength = 0.00015;
+    public static final int directions = 16;
+
+    // Largest distance that still rounds (five decimal places) to less than one step,
+    // this is the "close to" stop rule used by every search
+    public static final double closeRadius = 0.000145;
+
+    // Normals of the two sides of the 16-gon of unit moves within the first eighth of the circle (at 11.25 and 33.75 degrees),
+    // divided by the distance of the sides from the centre and by the step, so a dot product with an offset gives moves
+    private static final double sideDistance = Math.cos(Math.toRadians(11.25)) * unitLength;
+    private static final double nearSideAlong = Math.cos(Math.toRadians(11.25)) / sideDistance;
+    private static final double nearSideAcross = Math.sin(Math.toRadians(11.25)) / sideDistance;
+    private static final double farSideAlong = Math.cos(Math.toRadians(33.75)) / sideDistance;
+    private static final double farSideAcross = Math.sin(Math.toRadians(33.75)) / sideDistance;
+
+    // The same two dot products rewritten over the sum and the difference of the two offsets (see fewestMovesBetween)
+    private static final double sumWeight = (nearSideAlong + nearSideAcross + farSideAlong + farSideAcross) / 4;
+    private static final double differenceWeight = (nearSideAlong - nearSideAcross + farSideAlong - farSideAcross) / 4;
+    private static final double gapSumWeight = (nearSideAlong + nearSideAcross - farSideAlong - farSideAcross) / 4;
+    private static final double gapDifferenceWeight = (nearSideAlong - nearSideAcross - farSideAlong + farSideAcross) / 4;
+
+    // Step offsets for every direction, computed the same way the original loop did
+    private static final double[] stepLng = new double[directions];
+    private static final double[] stepLat = new double[directions];
+
+    static
+    {
+        for (int i = 0; i < directions; i++)
+        {
+            double angleRad = Math.toRadians(i * 22.5);
+            stepLng[i] = unitLength * Math.cos(angleRad);
+            stepLat[i] = unitLength * Math.sin(angleRad);
+        }
+    }
+
+    private Lattice()
+    {
+    }
+
+    public static double stepLng(int direction)
+    {
+        return stepLng[direction];
+    }
+
+    public static double stepLat(int direction)
+    {
+        return stepLat[direction];
+    }
+
+    // The direction pointing the other way round, used when searching backwards
+    public static int opposite(int direction)
+    {
+        return (direction + directions / 2) % directions;
+    }
+
+    public static int cellX(double lng)
+    {
+        return (int) Math.round(lng / unitLength);
+    }
+
+    public static int cellY(double lat)
+    {
+        return (int) Math.round(lat / unitLength);
+    }
+
+    // Pack the two cell indices into one long so no String or object is needed per cell
+    public static long key(int cellX, int cellY)
+    {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    public static long key(double lng, double lat)
+    {
+        return key(cellX(lng), cellY(lat));
+    }
+
+    public static int keyX(long key)
+    {
+        return (int) (key >> 32);
+    }
+
+    public static int keyY(long key)
+    {
+        return (int) key;
+    }
+
+    public static boolean isClose(double lng1, double lat1, double lng2, double lat2)
+    {
+        return GeometryKernel.distanceSquared(lng1, lat1, lng2, lat2) < closeRadius * closeRadius;
+    }
+
+    // Straight line distance expressed in number of moves
+    public static double movesBetween(double lng1, double lat1, double lng2, double lat2)
+    {
+        double lngDiff = lng2 - lng1;
+        double latDiff = lat2 - lat1;
+        return Math.sqrt(lngDiff * lngDiff + latDiff * latDiff) / unitLength;
+    }
+
+    /**
+     * Fewest moves that can cover the offset between the two positions, not counting obstacles.
+     * n moves can only reach as far as n times the regular 16-gon whose corners are the unit moves,
+     * so this is the offset measured in that polygon: folded into the first eighth of the circle the
+     * offset points at one of two sides, and the answer is the larger of its dot products with their
+     * normals. Never below movesBetween and up to 2% above it halfway between two directions.
+     * A move changes it by at most one, so it is a consistent heuristic.
+     *
+     * The fold (larger and smaller offset) and the larger dot product are both max(a, b) = (a + b + |a - b|) / 2,
+     * which multiplied out leaves two absolute values and no branch, since the order of the offsets
+     * is as good as random and a mispredicted branch costs more than the whole estimate.
+     */
+    public static double fewestMovesBetween(double lng1, double lat1, double lng2, double lat2)
+    {
+        double lngDiff = Math.abs(lng2 - lng1);
+        double latDiff = Math.abs(lat2 - lat1);
+        double sum = lngDiff + latDiff;
+        double difference = Math.abs(lngDiff - latDiff);
+        return sum * sumWeight + difference * differenceWeight + Math.abs(sum * gapSumWeight + difference * gapDifferenceWeight);
+    }
+}
@@ -0,0 +1,120 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+
+/**
+ * A* search over the 16 direction lattice, guided by the fewest moves without obstacles unless another heuristic is given.
+ * Cells are identified by packed long keys and all node data lives in a pooled
+ * SearchWorkspace, so the only objects created are the Positions of the returned path.
+ *
+ * Every cell reached has exactly one node: queued while the cell is open, expanded once it is closed.
+ * A cell reached again with a lower f takes the new position and parent through decreaseKey, which
+ * is the node that would have been popped first had it been pushed again, so the open list never
+ * holds more entries than there are open cells.
+ *
+ * With a consistent heuristic (the lattice or straight line one) the open list is the bucket queue of the
+ * workspace rather than its binary heap: moves all cost one, so f only ever grows by a little.
+ */
+public final class LatticeAStar
+{
+    public static final int defaultMaxExpansions = 1000000;
+
+    private LatticeAStar()
+    {
+    }
+
+    // Planner of the lattice mode: legs of at least the parallel threshold are searched by ParallelAStar when it has more than one worker
+    public static ArrayList<Position> findPath(Position start, Position end, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats)
+    {
+        if (options.getParallelWorkers() > 1
+                && Lattice.movesBetween(start.getLng(), start.getLat(), end.getLng(), end.getLat()) >= options.getParallelThresholdMoves())
+        {
+            return ParallelAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot,
+                    options.getParallelWorkers(), options.getMaxExpansions(), stats);
+        }
+        return search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, options.getMaxExpansions(), stats);
+    }
+
+    public static ArrayList<Position> search(Position start, Position end, MoveValidator validator)
+    {
+        return search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), validator, defaultMaxExpansions, new SearchStats());
+    }
+
+    public static ArrayList<Position> search(double startLng, double startLat, double endLng, double endLat, MoveValidator validator, int maxExpansions, SearchStats stats)
+    {
+        return search(startLng, startLat, endLng, endLat, Heuristic.lattice(endLng, endLat), validator, maxExpansions, stats);
+    }
+
+    public static ArrayList<Position> search(double startLng, double startLat, double endLng, double endLat, Heuristic heuristic, MoveValidator validator, int maxExpansions, SearchStats stats)
+    {
+        try (SearchWorkspace workspace = SearchWorkspace.acquire())
+        {
+            // Node of every cell reached, the cell is closed once its node left the open list
+            LongIntHashMap cells = workspace.closed();
+            int expansions = 0;
+            if (heuristic.isConsistent())
+            {
+                workspace.useBuckets();
+            }
+
+            int root = workspace.addNode(startLng, startLat, -1, 0, heuristic.estimate(startLng, startLat));
+            cells.put(Lattice.key(startLng, startLat), root);
+            workspace.push(root);
+
+            //main loop
+            while (!workspace.isHeapEmpty())
+            {
+                int u = workspace.pop();
+
+                if (expansions++ >= maxExpansions)
+                {
+                    return new ArrayList<>(); // treat as "no path", too many expansions
+                }
+
+                double uLng = workspace.lng(u);
+                double uLat = workspace.lat(u);
+
+                if (Lattice.isClose(uLng, uLat, endLng, endLat))
+                {
+                    return workspace.pathTo(u);
+                }
+                stats.recordExpansion();
+
+                int nextG = workspace.g(u) + 1;
+                for (int direction = 0; direction < Lattice.directions; direction++)
+                {
+                    double nextLng = Lattice.stepLng(direction) + uLng;
+                    double nextLat = Lattice.stepLat(direction) + uLat;
+                    long nextKey = Lattice.key(nextLng, nextLat);
+
+                    int held = cells.get(nextKey);
+                    if (held != LongIntHashMap.missing && !workspace.isQueued(held))
+                    {
+                        continue; // closed
+                    }
+                    double nextF = nextG + heuristic.estimate(nextLng, nextLat);
+                    if ((held != LongIntHashMap.missing && nextF >= workspace.f(held)) || !validator.isLegal(uLng, uLat, nextLng, nextLat))
+                    {
+                        continue;
+                    }
+
+                    if (held == LongIntHashMap.missing)
+                    {
+                        int next = workspace.addNode(nextLng, nextLat, u, nextG, nextF);
+                        cells.put(nextKey, next);
+                        workspace.push(next);
+                    }
+                    else
+                    {
+                        workspace.decreaseKey(held, nextLng, nextLat, u, nextG, nextF);
+                    }
+                    stats.recordGenerated();
+                }
+                stats.recordOpenSize(workspace.heapSize());
+            }
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from packed lattice keys to int values.
+ * Keeps everything in two primitive arrays so lookups never box or allocate,
+ * and the arrays are kept between searches when the map is cleared.
+ */
+public class LongIntHashMap
+{
+    public static final int missing = -1;
+
+    private static final long emptyKey = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public LongIntHashMap(int expectedSize)
+    {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, emptyKey);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int capacity()
+    {
+        return keys.length;
+    }
+
+    public void clear()
+    {
+        if (size > 0)
+        {
+            Arrays.fill(keys, emptyKey);
+            size = 0;
+        }
+    }
+
+    public boolean containsKey(long key)
+    {
+        return get(key) != missing;
+    }
+
+    public int get(long key)
+    {
+        int slot = slot(key);
+        while (true)
+        {
+            long current = keys[slot];
+            if (current == key)
+            {
+                return values[slot];
+            }
+            if (current == emptyKey)
+            {
+                return missing;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public void put(long key, int value)
+    {
+        int slot = slot(key);
+        while (true)
+        {
+            long current = keys[slot];
+            if (current == key)
+            {
+                values[slot] = value;
+                return;
+            }
+            if (current == emptyKey)
+            {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size * 2 > keys.length)
+                {
+                    grow();
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int slot(long key)
+    {
+        // Mix the bits so neighbouring cells don't end up in neighbouring slots
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        Arrays.fill(keys, emptyKey);
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != emptyKey)
+            {
+                int slot = slot(oldKeys[i]);
+                while (keys[slot] != emptyKey)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
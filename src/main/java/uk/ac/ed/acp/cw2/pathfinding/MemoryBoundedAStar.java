@@ -0,0 +1,283 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Iterative deepening A* (IDA*) over the 16 direction lattice for deployments where a search must
+ * stay within a fixed amount of memory. Every pass is a depth first search that only follows moves
+ * whose f stays below the bound of the pass. A pass that finds no path raises the bound so that the
+ * next one does about twice the work (the f of the moves it cut off tell how many it will follow),
+ * rather than by one move at a time. A pass that finds a path carries on below its length, so the
+ * path returned is a shortest one: a path of n moves has f below n + 1 at every cell.
+ *
+ * Memory is the stack of the current path (the candidate moves of every level) and a
+ * TranspositionTable of the lowest f each cell was reached with, which keeps the depth first search
+ * from exploring a cell again from a worse position. Half the budget goes to each. A full table
+ * forgets cells instead of growing, which costs time but no memory, and a path too long for the
+ * stack ends the search like running out of expansions. The memory used is recorded in the stats,
+ * and so is the bound on the path found when the search had to stop before proving it the shortest.
+ */
+public final class MemoryBoundedAStar
+{
+    public static final long defaultMemoryBudgetKb = 16384;
+
+    // Candidate moves of one level (lng, lat and f of each, their order) and the next one to try
+    static final int levelBytes = Lattice.directions * (3 * Double.BYTES + Integer.BYTES) + 2 * Integer.BYTES;
+
+    private static final int initialLevels = 256;
+
+    private MemoryBoundedAStar()
+    {
+    }
+
+    public static ArrayList<Position> findPath(Position start, Position end, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats)
+    {
+        return search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot,
+                options.getMemoryBudgetKb() * 1024, options.getMaxExpansions(), stats);
+    }
+
+    /**
+     * Shortest path within the memory budget (in bytes) and the expansion limit, empty when none was found.
+     */
+    public static ArrayList<Position> search(double startLng, double startLat, double endLng, double endLat, MoveValidator validator,
+                                             long memoryBudget, int maxExpansions, SearchStats stats)
+    {
+        return new Search(startLng, startLat, endLng, endLat, validator, memoryBudget, maxExpansions, stats).run();
+    }
+
+    // State shared by the passes of one search
+    private static final class Search
+    {
+        private final double endLng;
+        private final double endLat;
+        private final Heuristic heuristic;
+        private final MoveValidator validator;
+        private final int maxExpansions;
+        private final SearchStats stats;
+        private final TranspositionTable table;
+        private final int maxLevels;
+
+        // Level d holds the candidate moves out of the cell reached after d moves
+        private double[] lng;
+        private double[] lat;
+        private double[] childLng;
+        private double[] childLat;
+        private double[] childF;
+        private int[] order;
+        private int[] count;
+        private int[] next;
+
+        private int expansions;
+        // Moves with an f below the bound are followed, it drops to the length of every path found
+        private int bound;
+        // Lowest f of the moves cut off by the pass, and how far the bound went up after the last pass
+        private double cutOff;
+        private int step;
+        private int lastPassExpansions;
+        private ArrayList<Position> best;
+
+        Search(double startLng, double startLat, double endLng, double endLat, MoveValidator validator,
+               long memoryBudget, int maxExpansions, SearchStats stats)
+        {
+            this.endLng = endLng;
+            this.endLat = endLat;
+            this.heuristic = Heuristic.lattice(endLng, endLat);
+            this.validator = validator;
+            this.maxExpansions = maxExpansions;
+            this.stats = stats;
+            this.table = new TranspositionTable(memoryBudget / 2);
+            this.maxLevels = (int) Math.min(Integer.MAX_VALUE / Lattice.directions, Math.max(1, memoryBudget / 2 / levelBytes));
+            allocate(Math.min(initialLevels, maxLevels));
+            lng[0] = startLng;
+            lat[0] = startLat;
+        }
+
+        private void allocate(int levels)
+        {
+            int children = levels * Lattice.directions;
+            lng = (lng == null) ? new double[levels] : Arrays.copyOf(lng, levels);
+            lat = (lat == null) ? new double[levels] : Arrays.copyOf(lat, levels);
+            childLng = (childLng == null) ? new double[children] : Arrays.copyOf(childLng, children);
+            childLat = (childLat == null) ? new double[children] : Arrays.copyOf(childLat, children);
+            childF = (childF == null) ? new double[children] : Arrays.copyOf(childF, children);
+            order = (order == null) ? new int[children] : Arrays.copyOf(order, children);
+            count = (count == null) ? new int[levels] : Arrays.copyOf(count, levels);
+            next = (next == null) ? new int[levels] : Arrays.copyOf(next, levels);
+        }
+
+        ArrayList<Position> run()
+        {
+            bound = (int) Math.floor(heuristic.estimate(lng[0], lat[0])) + 1;
+            step = 1;
+            // Fewest moves a path can have: the bound of the last pass that found none (h is less than a move above the moves left)
+            int fewestMoves = bound - 1;
+            try
+            {
+                for (int pass = 1; ; pass++)
+                {
+                    int passStart = expansions;
+                    cutOff = Double.POSITIVE_INFINITY;
+                    boolean complete = runPass(pass);
+                    if (best != null)
+                    {
+                        if (!complete)
+                        {
+                            stats.recordSuboptimalityBound((double) (best.size() - 1) / Math.max(1, fewestMoves));
+                        }
+                        return best;
+                    }
+                    if (!complete)
+                    {
+                        return new ArrayList<>();
+                    }
+                    fewestMoves = bound;
+                    if (!raiseBound(expansions - passStart))
+                    {
+                        return new ArrayList<>();
+                    }
+                }
+            }
+            finally
+            {
+                stats.recordMemory(table.bytes() + (long) lng.length * levelBytes);
+            }
+        }
+
+        // The step doubles while the passes less than double their work and halves once they do, false when nothing was cut off
+        private boolean raiseBound(int passExpansions)
+        {
+            if (cutOff == Double.POSITIVE_INFINITY)
+            {
+                return false;
+            }
+            step = (passExpansions < 2 * lastPassExpansions) ? 2 * step : Math.max(1, step / 2);
+            lastPassExpansions = passExpansions;
+            bound = Math.max(bound + step, (int) Math.floor(cutOff) + 1);
+            return true;
+        }
+
+        // Depth first search below the bound, false when it ran out of expansions or memory
+        private boolean runPass(int pass)
+        {
+            if (!expand(0))
+            {
+                return false;
+            }
+            if (count[0] < 0)
+            {
+                best = pathTo(0);
+                return true;
+            }
+            table.visit(Lattice.key(lng[0], lat[0]), heuristic.estimate(lng[0], lat[0]), pass);
+
+            int depth = 0;
+            while (depth >= 0)
+            {
+                int base = depth * Lattice.directions;
+                if (next[depth] == count[depth])
+                {
+                    depth--;
+                    continue;
+                }
+                int child = base + order[base + next[depth]++];
+                // The bound may have dropped since the moves were sorted
+                if (childF[child] >= bound)
+                {
+                    next[depth] = count[depth];
+                    continue;
+                }
+                if (!table.visit(Lattice.key(childLng[child], childLat[child]), childF[child], pass))
+                {
+                    continue;
+                }
+                if (depth + 1 == lng.length)
+                {
+                    if (lng.length == maxLevels)
+                    {
+                        return false;
+                    }
+                    allocate((int) Math.min(maxLevels, 2L * lng.length));
+                }
+                depth++;
+                lng[depth] = childLng[child];
+                lat[depth] = childLat[child];
+                if (!expand(depth))
+                {
+                    return false;
+                }
+                if (count[depth] < 0)
+                {
+                    // Only shorter paths are searched from now on
+                    best = pathTo(depth);
+                    bound = depth;
+                    depth--;
+                }
+            }
+            return true;
+        }
+
+        // Candidate moves out of the cell at the given depth, lowest f first. A count of -1 marks the end, false the expansion limit.
+        private boolean expand(int depth)
+        {
+            if (expansions++ >= maxExpansions)
+            {
+                return false;
+            }
+            double uLng = lng[depth];
+            double uLat = lat[depth];
+            if (Lattice.isClose(uLng, uLat, endLng, endLat))
+            {
+                count[depth] = -1;
+                return true;
+            }
+            stats.recordExpansion();
+
+            int base = depth * Lattice.directions;
+            int children = 0;
+            for (int direction = 0; direction < Lattice.directions; direction++)
+            {
+                double nextLng = Lattice.stepLng(direction) + uLng;
+                double nextLat = Lattice.stepLat(direction) + uLat;
+                double nextF = depth + 1 + heuristic.estimate(nextLng, nextLat);
+                if (nextF >= bound)
+                {
+                    cutOff = Math.min(cutOff, nextF);
+                    continue;
+                }
+                if (!validator.isLegal(uLng, uLat, nextLng, nextLat))
+                {
+                    continue;
+                }
+                childLng[base + direction] = nextLng;
+                childLat[base + direction] = nextLat;
+                childF[base + direction] = nextF;
+
+                // Insertion sort on f, there are at most 16 of them
+                int at = children++;
+                while (at > 0 && childF[base + order[base + at - 1]] > nextF)
+                {
+                    order[base + at] = order[base + at - 1];
+                    at--;
+                }
+                order[base + at] = direction;
+                stats.recordGenerated();
+            }
+            count[depth] = children;
+            next[depth] = 0;
+            return true;
+        }
+
+        private ArrayList<Position> pathTo(int depth)
+        {
+            ArrayList<Position> path = new ArrayList<>(depth + 1);
+            for (int level = 0; level <= depth; level++)
+            {
+                path.add(new Position(lng[level], lat[level]));
+            }
+            return path;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+/**
+ * Decides whether a single move between two positions is allowed,
+ * taking raw coordinates so the search doesn't need to build Position objects.
+ */
+@FunctionalInterface
+public interface MoveValidator
+{
+    boolean isLegal(double fromLng, double fromLat, double toLng, double toLat);
+}
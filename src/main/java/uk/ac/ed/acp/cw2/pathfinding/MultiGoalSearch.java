@@ -0,0 +1,126 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One to many search over the 16 direction lattice: a single expansion from the start that
+ * keeps going until every goal has been reached (same 0.00015 stop rule as LatticeAStar),
+ * the open list runs dry or the expansion budget is spent.
+ * Nodes are ordered by g plus the distance to the nearest goal not reached yet. Reaching a goal
+ * can only make that estimate larger, so a popped node whose estimate grew is pushed again with
+ * the new one instead of being expanded (with no goals left to guide it this is plain Dijkstra).
+ * The closed cells are shared by all goals, so the neighbourhood of the start is explored once.
+ */
+public final class MultiGoalSearch
+{
+    private MultiGoalSearch()
+    {
+    }
+
+    /**
+     * Returns one path per goal, in the order of the goals, empty for the goals that couldn't be reached.
+     */
+    public static ArrayList<ArrayList<Position>> search(Position start, List<Position> goals, MoveValidator validator, int maxExpansions, SearchStats stats)
+    {
+        int goalCount = goals.size();
+        double[] goalLng = new double[goalCount];
+        double[] goalLat = new double[goalCount];
+        boolean[] reached = new boolean[goalCount];
+        int remaining = goalCount;
+
+        ArrayList<ArrayList<Position>> paths = new ArrayList<>(goalCount);
+        for (int i = 0; i < goalCount; i++)
+        {
+            goalLng[i] = goals.get(i).getLng();
+            goalLat[i] = goals.get(i).getLat();
+            paths.add(new ArrayList<>());
+        }
+        if (goalCount == 0)
+        {
+            return paths;
+        }
+
+        try (SearchWorkspace workspace = SearchWorkspace.acquire())
+        {
+            LongIntHashMap closed = workspace.closed();
+            int expansions = 0;
+
+            double startLng = start.getLng();
+            double startLat = start.getLat();
+            workspace.push(workspace.addNode(startLng, startLat, -1, 0, nearestGoal(startLng, startLat, goalLng, goalLat, reached)));
+
+            while (!workspace.isHeapEmpty() && remaining > 0)
+            {
+                int u = workspace.pop();
+
+                if (expansions++ >= maxExpansions)
+                {
+                    break; // goals not reached yet are treated as unreachable
+                }
+
+                double uLng = workspace.lng(u);
+                double uLat = workspace.lat(u);
+
+                for (int i = 0; i < goalCount; i++)
+                {
+                    if (!reached[i] && Lattice.isClose(uLng, uLat, goalLng[i], goalLat[i]))
+                    {
+                        paths.set(i, workspace.pathTo(u));
+                        reached[i] = true;
+                        remaining--;
+                    }
+                }
+
+                long uKey = Lattice.key(uLng, uLat);
+                if (remaining == 0 || closed.containsKey(uKey))
+                {
+                    continue;
+                }
+
+                // The nearest goal may have been reached since this node was pushed
+                double f = workspace.g(u) + nearestGoal(uLng, uLat, goalLng, goalLat, reached);
+                if (f > workspace.f(u))
+                {
+                    workspace.push(workspace.addNode(uLng, uLat, workspace.parent(u), workspace.g(u), f));
+                    continue;
+                }
+
+                closed.put(uKey, u);
+                stats.recordExpansion();
+
+                int nextG = workspace.g(u) + 1;
+                for (int direction = 0; direction < Lattice.directions; direction++)
+                {
+                    double nextLng = Lattice.stepLng(direction) + uLng;
+                    double nextLat = Lattice.stepLat(direction) + uLat;
+
+                    if (!closed.containsKey(Lattice.key(nextLng, nextLat)) && validator.isLegal(uLng, uLat, nextLng, nextLat))
+                    {
+                        double nextF = nextG + nearestGoal(nextLng, nextLat, goalLng, goalLat, reached);
+                        workspace.push(workspace.addNode(nextLng, nextLat, u, nextG, nextF));
+                        stats.recordGenerated();
+                    }
+                }
+                stats.recordOpenSize(workspace.heapSize());
+            }
+            return paths;
+        }
+    }
+
+    // Distance in moves to the closest goal that hasn't been reached
+    private static double nearestGoal(double lng, double lat, double[] goalLng, double[] goalLat, boolean[] reached)
+    {
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < goalLng.length; i++)
+        {
+            if (!reached[i])
+            {
+                nearest = Math.min(nearest, Lattice.fewestMovesBetween(lng, lat, goalLng[i], goalLat[i]));
+            }
+        }
+        return (nearest == Double.POSITIVE_INFINITY) ? 0 : nearest;
+    }
+}
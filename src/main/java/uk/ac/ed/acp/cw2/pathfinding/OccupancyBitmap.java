@@ -0,0 +1,216 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * OccupancyBitmap class rasterizes one restricted area onto the 0.00015 degree grid.
+ * Every cell that any edge (inflated by a small margin) passes through is flagged as boundary,
+ * and every other cell is flagged as interior when it lies inside the polygon.
+ * A move that only touches free cells is legal and a move ending in an interior cell is not,
+ * so the exact geometry is only needed when a move touches a boundary cell.
+ */
+public class OccupancyBitmap
+{
+    public static final int free = 0;
+    public static final int blocked = 1;
+    public static final int boundary = 2;
+
+    // Covers the 1e-9 tolerances used by the exact edge and touching checks
+    private static final double margin = 1e-8;
+
+    // Areas bigger than this many cells are not rasterized, they always use the exact check
+    private static final long maxCells = 1L << 26;
+
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private final int height;
+    private final long[] boundaryBits;
+    private final long[] interiorBits;
+
+    private OccupancyBitmap(int originX, int originY, int width, int height)
+    {
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+
+        int words = (int) (((long) width * height + 63) >>> 6);
+        this.boundaryBits = new long[words];
+        this.interiorBits = new long[words];
+    }
+
+    public static int cell(double coordinate)
+    {
+        return Raster.cell(coordinate, Lattice.unitLength);
+    }
+
+    // Build the bitmap for a polygon given by its vertices, the closing edge is added automatically
+    public static OccupancyBitmap build(double[] lngs, double[] lats)
+    {
+        int count = lngs.length;
+        if (count == 0)
+        {
+            return null;
+        }
+
+        double minLng = Double.POSITIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLng = Double.NEGATIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        double maxMargin = margin;
+
+        for (int i = 0; i < count; i++)
+        {
+            minLng = Math.min(minLng, lngs[i]);
+            minLat = Math.min(minLat, lats[i]);
+            maxLng = Math.max(maxLng, lngs[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            maxMargin = Math.max(maxMargin, edgeMargin(lngs[i], lats[i], lngs[(i + 1) % count], lats[(i + 1) % count]));
+        }
+
+        int originX = cell(minLng - maxMargin) - 1;
+        int originY = cell(minLat - maxMargin) - 1;
+        int width = cell(maxLng + maxMargin) + 2 - originX;
+        int height = cell(maxLat + maxMargin) + 2 - originY;
+
+        if ((long) width * height > maxCells)
+        {
+            return null;
+        }
+
+        OccupancyBitmap bitmap = new OccupancyBitmap(originX, originY, width, height);
+        for (int i = 0; i < count; i++)
+        {
+            bitmap.markEdge(lngs[i], lats[i], lngs[(i + 1) % count], lats[(i + 1) % count]);
+        }
+        bitmap.fillInterior(lngs, lats);
+        return bitmap;
+    }
+
+    // The on edge check accepts points whose cross product is below 1e-9,
+    // which for short edges is a wider band than the fixed margin
+    static double edgeMargin(double x1, double y1, double x2, double y2)
+    {
+        double length = Math.hypot(x2 - x1, y2 - y1);
+        if (length == 0)
+        {
+            return margin;
+        }
+        return Math.max(margin, Math.min(length, 1e-9 / length));
+    }
+
+    // Flag every cell within the edge margin of the segment
+    private void markEdge(double x1, double y1, double x2, double y2)
+    {
+        Raster.forEachCell(x1, y1, x2, y2, edgeMargin(x1, y1, x2, y2), Lattice.unitLength,
+                (column, row) -> set(boundaryBits, column, row));
+    }
+
+    // Even odd fill at the cell centres, boundary cells are left to the exact check
+    private void fillInterior(double[] lngs, double[] lats)
+    {
+        int count = lngs.length;
+        double[] crossings = new double[count];
+
+        for (int row = originY; row < originY + height; row++)
+        {
+            double y = (row + 0.5) * Lattice.unitLength;
+            int crossingCount = 0;
+
+            for (int i = 0; i < count; i++)
+            {
+                double x1 = lngs[i];
+                double y1 = lats[i];
+                double x2 = lngs[(i + 1) % count];
+                double y2 = lats[(i + 1) % count];
+
+                if ((y1 > y) != (y2 > y))
+                {
+                    crossings[crossingCount++] = x1 + (y - y1) / (y2 - y1) * (x2 - x1);
+                }
+            }
+
+            if (crossingCount < 2)
+            {
+                continue;
+            }
+            Arrays.sort(crossings, 0, crossingCount);
+
+            for (int i = 0; i + 1 < crossingCount; i += 2)
+            {
+                int firstColumn = Math.max(originX, (int) Math.ceil(crossings[i] / Lattice.unitLength - 0.5));
+                int lastColumn = Math.min(originX + width - 1, (int) Math.floor(crossings[i + 1] / Lattice.unitLength - 0.5));
+                for (int column = firstColumn; column <= lastColumn; column++)
+                {
+                    if (!get(boundaryBits, column, row))
+                    {
+                        set(interiorBits, column, row);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Classify a move against this area.
+     * Returns free when the move can't touch the area, blocked when it ends strictly inside,
+     * and boundary when only the exact geometry can decide.
+     */
+    public int classify(double fromLng, double fromLat, double toLng, double toLat)
+    {
+        int firstColumn = cell(Math.min(fromLng, toLng) - margin);
+        int lastColumn = cell(Math.max(fromLng, toLng) + margin);
+        int firstRow = cell(Math.min(fromLat, toLat) - margin);
+        int lastRow = cell(Math.max(fromLat, toLat) + margin);
+
+        // Bounding box rejection
+        if (lastColumn < originX || firstColumn >= originX + width || lastRow < originY || firstRow >= originY + height)
+        {
+            return free;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                if (get(boundaryBits, column, row))
+                {
+                    return boundary;
+                }
+            }
+        }
+
+        return get(interiorBits, cell(toLng), cell(toLat)) ? blocked : free;
+    }
+
+    // True when the cell lies wholly inside the area
+    public boolean isInterior(int column, int row)
+    {
+        return get(interiorBits, column, row);
+    }
+
+    private void set(long[] bits, int column, int row)
+    {
+        int x = column - originX;
+        int y = row - originY;
+        if (x < 0 || y < 0 || x >= width || y >= height)
+        {
+            return;
+        }
+        int index = y * width + x;
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private boolean get(long[] bits, int column, int row)
+    {
+        int x = column - originX;
+        int y = row - originY;
+        if (x < 0 || y < 0 || x >= width || y >= height)
+        {
+            return false;
+        }
+        int index = y * width + x;
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+}
@@ -0,0 +1,494 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash distributed A* (HDA*) over the 16 direction lattice for long legs. Every cell belongs to one
+ * worker, chosen by hashing its packed key, and only that worker keeps its node: a worker expands the
+ * nodes of its own open list and sends every cell reached to the worker it belongs to through that
+ * worker's lock-free inbox. A cell may be expanded before the shortest route to it arrived; it is
+ * opened again when it comes in with fewer moves.
+ *
+ * Left alone, workers run far ahead of each other and expand many nodes a serial search never
+ * would. So each worker publishes the lowest f of its open list, every sender lowers the lowest f
+ * waiting in the inbox it sends to, and a worker only expands nodes within slack of the lowest of
+ * all of them: the workers move through f together, much like one search does.
+ *
+ * The shortest path found so far (the incumbent) is shared, and nodes with an f not below its
+ * length are dropped: with f below n + 1 at every cell of a path of n moves, any shorter path still
+ * gets through. The search ends when no worker has a node left below the incumbent and no cell is on
+ * its way to another worker. Both are counted together in one number (busy workers plus messages
+ * sent and not yet received), which can only reach zero once there is nothing left to do.
+ *
+ * The workers of every search run on one pool of a thread per core. A search first takes a thread
+ * for each of its workers, so they all run at once and searches beyond the cores wait their turn.
+ * A worker with nothing to do parks until a cell is sent to it or the search is over.
+ */
+public final class ParallelAStar
+{
+    // Legs at least this many moves long are searched in parallel when there is more than one worker
+    public static final int defaultThresholdMoves = 1000;
+
+    // Nodes expanded between two looks at the inbox, and expansions counted together
+    private static final int batch = 64;
+
+    // A worker only expands nodes with an f at most this far above the lowest one open or on its way at any worker
+    private static final double slack = 0.015625;
+
+    // The worker of a node is packed into 8 bits
+    static final int maxWorkers = 255;
+
+    // Pause of a worker whose nodes are all above the gate, until the others caught up or a cell is sent to it
+    private static final long gatedPauseNanos = 20000;
+
+    private static final long noPath = Long.MAX_VALUE;
+    private static final long infinity = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+
+    // Threads shared by the searches of all requests, a search holds one permit per worker while it runs.
+    // Two at least, so a search can still be split on a single core
+    private static final int poolSize = Math.clamp(Runtime.getRuntime().availableProcessors(), 2, maxWorkers);
+    private static final Semaphore threads = new Semaphore(poolSize, true);
+    private static final ExecutorService pool = Executors.newFixedThreadPool(poolSize, runnable ->
+    {
+        Thread thread = new Thread(runnable, "parallel-astar");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ParallelAStar()
+    {
+    }
+
+    // Cell reached by a worker that belongs to another one
+    private record Message(double lng, double lat, int g, int parentWorker, int parentNode)
+    {
+    }
+
+    /**
+     * Shortest path found by the given number of workers (at most one per core) within the expansion limit (shared by all of them),
+     * empty when none was found. Waits while other searches hold the threads it needs.
+     * An interrupted search throws a CancellationException (with the interrupt flag set again) rather than returning
+     * an empty path, which would read as a leg that can't be flown.
+     */
+    public static ArrayList<Position> search(double startLng, double startLat, double endLng, double endLat, MoveValidator validator,
+                                             int workerCount, int maxExpansions, SearchStats stats)
+    {
+        int workers = Math.clamp(workerCount, 1, poolSize);
+        try
+        {
+            threads.acquire(workers);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for search threads");
+        }
+
+        Search search = new Search(endLng, endLat, validator, workers, maxExpansions);
+        search.send(0, new Message(startLng, startLat, 0, -1, -1), 0);
+
+        List<Future<?>> running = new ArrayList<>();
+        try
+        {
+            for (Worker worker : search.workers)
+            {
+                running.add(pool.submit(() ->
+                {
+                    try
+                    {
+                        worker.run();
+                    }
+                    finally
+                    {
+                        search.exited.countDown();
+                    }
+                }));
+            }
+            for (Future<?> future : running)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            search.abort();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Parallel search interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            search.abort();
+            throw new IllegalStateException("Parallel search failed", e.getCause());
+        }
+        finally
+        {
+            // The threads only go back once every worker returned. Workers of an aborted search (queued ones included,
+            // they start with the threads held for them) stop at their next look at the flag
+            search.awaitExit();
+            threads.release(workers);
+        }
+
+        for (Worker worker : search.workers)
+        {
+            stats.merge(worker.stats);
+        }
+        return search.aborted.get() ? new ArrayList<>() : search.path();
+    }
+
+    // State shared by the workers of one search
+    private static final class Search
+    {
+        private final double endLng;
+        private final double endLat;
+        private final Heuristic heuristic;
+        private final MoveValidator validator;
+        private final int maxExpansions;
+        private final Worker[] workers;
+
+        // Busy workers plus messages sent and not yet received, zero once the search is over
+        private final AtomicInteger work;
+        private final AtomicLong expansions = new AtomicLong();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        // Workers that haven't returned yet
+        private final CountDownLatch exited;
+        // Moves, worker and node of the shortest path found, packed so the lowest number is the shortest path
+        private final AtomicLong incumbent = new AtomicLong(noPath);
+
+        Search(double endLng, double endLat, MoveValidator validator, int workerCount, int maxExpansions)
+        {
+            this.endLng = endLng;
+            this.endLat = endLat;
+            this.heuristic = Heuristic.lattice(endLng, endLat);
+            this.validator = validator;
+            this.maxExpansions = maxExpansions;
+            this.workers = new Worker[workerCount];
+            for (int i = 0; i < workerCount; i++)
+            {
+                workers[i] = new Worker(this, i);
+            }
+            this.work = new AtomicInteger(workerCount);
+            this.exited = new CountDownLatch(workerCount);
+        }
+
+        int owner(long key)
+        {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) Long.remainderUnsigned(hash ^ (hash >>> 29), workers.length);
+        }
+
+        void send(int worker, Message message, double f)
+        {
+            work.incrementAndGet();
+            workers[worker].inboxLowest.accumulateAndGet(Double.doubleToRawLongBits(f), Math::min);
+            workers[worker].inbox.add(message);
+            workers[worker].wake();
+        }
+
+        // Wait for every worker to return, keeping an interrupt for the caller
+        void awaitExit()
+        {
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    exited.await();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                    abort();
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void abort()
+        {
+            aborted.set(true);
+            wakeAll();
+        }
+
+        // Let every parked worker look again, once the search is over
+        void wakeAll()
+        {
+            for (Worker worker : workers)
+            {
+                worker.wake();
+            }
+        }
+
+        // Lowest f open or waiting in an inbox at any worker, as last published
+        double frontier()
+        {
+            double lowest = Double.POSITIVE_INFINITY;
+            for (Worker worker : workers)
+            {
+                lowest = Math.min(lowest, Math.min(worker.frontier, Double.longBitsToDouble(worker.inboxLowest.get())));
+            }
+            return lowest;
+        }
+
+        // Moves of the shortest path found so far, infinity before the first one
+        double incumbentMoves()
+        {
+            long packed = incumbent.get();
+            return (packed == noPath) ? Double.POSITIVE_INFINITY : packed >>> 40;
+        }
+
+        void offer(int moves, int worker, int node)
+        {
+            long packed = ((long) moves << 40) | ((long) worker << 32) | node;
+            incumbent.accumulateAndGet(packed, Math::min);
+        }
+
+        ArrayList<Position> path()
+        {
+            long packed = incumbent.get();
+            if (packed == noPath)
+            {
+                return new ArrayList<>();
+            }
+            ArrayList<Position> path = new ArrayList<>();
+            int worker = (int) (packed >>> 32) & 0xFF;
+            int node = (int) packed;
+            while (node != -1)
+            {
+                SearchWorkspace workspace = workers[worker].workspace;
+                path.add(new Position(workspace.lng(node), workspace.lat(node)));
+                int parentWorker = workers[worker].parentWorker[node];
+                node = workspace.parent(node);
+                worker = parentWorker;
+            }
+            return new ArrayList<>(path.reversed());
+        }
+    }
+
+    private static final class Worker implements Runnable
+    {
+        private final Search search;
+        private final int id;
+        private final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+        private final SearchWorkspace workspace = new SearchWorkspace();
+        private final SearchStats stats = new SearchStats();
+        // Worker holding the parent of every node, the node itself being the parent of the workspace
+        private int[] parentWorker = new int[1024];
+        // Lowest f of the open list, infinity when there is nothing to expand
+        private volatile double frontier = Double.POSITIVE_INFINITY;
+        // Lowest f sent to this worker since it last emptied its inbox (f is positive, so its bits order like it)
+        private final AtomicLong inboxLowest = new AtomicLong(infinity);
+        // Thread running the worker, and whether it may be parked, for the senders to unpark it
+        private volatile Thread thread;
+        private volatile boolean parked;
+
+        Worker(Search search, int id)
+        {
+            this.search = search;
+            this.id = id;
+        }
+
+        @Override
+        public void run()
+        {
+            thread = Thread.currentThread();
+            int unreported = 0;
+            while (!search.aborted.get())
+            {
+                inboxLowest.set(infinity);
+                Message message;
+                while ((message = inbox.poll()) != null)
+                {
+                    insert(message.lng(), message.lat(), message.g(), message.parentWorker(), message.parentNode());
+                    search.work.decrementAndGet();
+                }
+
+                double lowest = lowestOpen();
+                frontier = lowest;
+                if (lowest >= search.incumbentMoves())
+                {
+                    if (!awaitWork())
+                    {
+                        return;
+                    }
+                    continue;
+                }
+
+                int expanded = 0;
+                double gate = search.frontier() + slack;
+                while (expanded < batch && lowest < search.incumbentMoves() && lowest <= gate)
+                {
+                    expand(workspace.pop());
+                    expanded++;
+                    lowest = lowestOpen();
+                }
+                frontier = lowest;
+                unreported += expanded;
+                if (unreported >= batch)
+                {
+                    if (search.expansions.addAndGet(unreported) >= search.maxExpansions)
+                    {
+                        search.abort();
+                    }
+                    unreported = 0;
+                }
+
+                if (expanded == 0)
+                {
+                    // Others hold lower nodes, let them catch up
+                    park(gatedPauseNanos);
+                }
+            }
+        }
+
+        void wake()
+        {
+            Thread parkedThread = thread;
+            if (parked && parkedThread != null)
+            {
+                LockSupport.unpark(parkedThread);
+            }
+        }
+
+        // Park until woken, or for at most the given time when it is positive. Flagged before the inbox and the count of work
+        // are looked at again, so a sender (or the worker ending the search) either sees the flag and unparks or is seen
+        private void park(long nanos)
+        {
+            parked = true;
+            if (inbox.isEmpty() && !search.aborted.get() && search.work.get() != 0)
+            {
+                if (nanos > 0)
+                {
+                    LockSupport.parkNanos(this, nanos);
+                }
+                else
+                {
+                    LockSupport.park(this);
+                }
+            }
+            parked = false;
+        }
+
+        private double lowestOpen()
+        {
+            return workspace.isHeapEmpty() ? Double.POSITIVE_INFINITY : workspace.f(workspace.peek());
+        }
+
+        // Parked until a message arrives (true) or the search is over (false)
+        private boolean awaitWork()
+        {
+            frontier = Double.POSITIVE_INFINITY;
+            if (search.work.decrementAndGet() == 0)
+            {
+                search.wakeAll();
+                return false;
+            }
+            while (!search.aborted.get())
+            {
+                if (!inbox.isEmpty())
+                {
+                    // Busy again before the message is received, so the count can't touch zero in between
+                    search.work.incrementAndGet();
+                    return true;
+                }
+                if (search.work.get() == 0)
+                {
+                    return false;
+                }
+                park(0);
+            }
+            return false;
+        }
+
+        private void expand(int node)
+        {
+            double uLng = workspace.lng(node);
+            double uLat = workspace.lat(node);
+            int uG = workspace.g(node);
+            if (Lattice.isClose(uLng, uLat, search.endLng, search.endLat))
+            {
+                search.offer(uG, id, node);
+                return;
+            }
+            stats.recordExpansion();
+
+            for (int direction = 0; direction < Lattice.directions; direction++)
+            {
+                double nextLng = Lattice.stepLng(direction) + uLng;
+                double nextLat = Lattice.stepLat(direction) + uLat;
+                if (!search.validator.isLegal(uLng, uLat, nextLng, nextLat))
+                {
+                    continue;
+                }
+                int owner = search.owner(Lattice.key(nextLng, nextLat));
+                if (owner == id)
+                {
+                    insert(nextLng, nextLat, uG + 1, id, node);
+                }
+                else
+                {
+                    search.send(owner, new Message(nextLng, nextLat, uG + 1, id, node), uG + 1 + search.heuristic.estimate(nextLng, nextLat));
+                }
+                stats.recordGenerated();
+            }
+            stats.recordOpenSize(workspace.heapSize());
+        }
+
+        // Open the cell unless it is open with an f as low or was closed with as few moves, a closed cell gets a new node
+        private void insert(double lng, double lat, int g, int fromWorker, int fromNode)
+        {
+            double f = g + search.heuristic.estimate(lng, lat);
+            if (f >= search.incumbentMoves())
+            {
+                return;
+            }
+            LongIntHashMap cells = workspace.closed();
+            long key = Lattice.key(lng, lat);
+            int held = cells.get(key);
+            if (held != LongIntHashMap.missing)
+            {
+                if (workspace.isQueued(held))
+                {
+                    if (f < workspace.f(held))
+                    {
+                        workspace.decreaseKey(held, lng, lat, fromNode, g, f);
+                        parentWorker[held] = fromWorker;
+                    }
+                    return;
+                }
+                // Like the serial search, a closed cell isn't opened again for another position at the same moves
+                if (g >= workspace.g(held))
+                {
+                    return;
+                }
+            }
+            int created = workspace.addNode(lng, lat, fromNode, g, f);
+            if (created == parentWorker.length)
+            {
+                parentWorker = Arrays.copyOf(parentWorker, created * 2);
+            }
+            parentWorker[created] = fromWorker;
+            cells.put(key, created);
+            workspace.push(created);
+        }
+    }
+}
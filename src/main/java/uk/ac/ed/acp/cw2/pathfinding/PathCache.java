@@ -0,0 +1,174 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * PathCache class is a bounded, least recently used cache of planned legs shared by all requests.
+ * Entries are keyed by the lattice cells of both ends, the restricted area snapshot version and every
+ * planner setting that can change the path planned, and hold the exact end points they were planned for,
+ * so a leg is only reused when it starts and ends at exactly the same positions. Whatever leg is put is
+ * kept, empty ones included: which legs are final is up to the caller.
+ * Entries of older snapshot versions are dropped as soon as a newer version is seen.
+ */
+public class PathCache
+{
+    public static final int defaultCapacity = 4096;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long currentVersion;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public PathCache(int capacity)
+    {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+            {
+                if (size() > PathCache.this.capacity)
+                {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // Straight legs are never cached, so whether they are walked isn't part of the key
+    record Key(long startCell, long goalCell, long version, PlannerMode mode, int maxExpansions, long timeBudgetMillis,
+               double initialWeight, long memoryBudgetKb, int parallelWorkers, int parallelThresholdMoves)
+    {
+    }
+
+    record Entry(double startLng, double startLat, double goalLng, double goalLat, List<Position> path)
+    {
+        boolean isFor(Position start, Position goal)
+        {
+            return startLng == start.getLng() && startLat == start.getLat() && goalLng == goal.getLng() && goalLat == goal.getLat();
+        }
+    }
+
+    /**
+     * Return a copy of the cached leg from start to goal, planning and caching it on a miss.
+     * The planner runs outside the lock, so two threads missing on the same leg may both plan it.
+     */
+    public ArrayList<Position> get(Position start, Position goal, RestrictedAreaSnapshot snapshot, PlannerOptions options, Supplier<ArrayList<Position>> planner)
+    {
+        ArrayList<Position> cached = find(start, goal, snapshot, options);
+        if (cached != null)
+        {
+            return cached;
+        }
+        ArrayList<Position> path = planner.get();
+        put(start, goal, snapshot, options, path);
+        return path;
+    }
+
+    // Copy of the cached leg, or null (counted as a miss) when it isn't cached
+    public ArrayList<Position> find(Position start, Position goal, RestrictedAreaSnapshot snapshot, PlannerOptions options)
+    {
+        if (capacity <= 0)
+        {
+            misses.increment();
+            return null;
+        }
+
+        Entry entry;
+        synchronized (entries)
+        {
+            invalidateOlderVersions(snapshot.getVersion());
+            entry = entries.get(key(start, goal, snapshot, options));
+        }
+        if (entry != null && entry.isFor(start, goal))
+        {
+            hits.increment();
+            return new ArrayList<>(entry.path());
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(Position start, Position goal, RestrictedAreaSnapshot snapshot, PlannerOptions options, ArrayList<Position> path)
+    {
+        if (capacity <= 0)
+        {
+            return;
+        }
+
+        synchronized (entries)
+        {
+            // Don't store a leg planned against a snapshot that has been replaced meanwhile
+            if (snapshot.getVersion() >= currentVersion)
+            {
+                invalidateOlderVersions(snapshot.getVersion());
+                entries.put(key(start, goal, snapshot, options), new Entry(start.getLng(), start.getLat(), goal.getLng(), goal.getLat(), List.copyOf(path)));
+            }
+        }
+    }
+
+    private Key key(Position start, Position goal, RestrictedAreaSnapshot snapshot, PlannerOptions options)
+    {
+        return new Key(Lattice.key(start.getLng(), start.getLat()), Lattice.key(goal.getLng(), goal.getLat()),
+                snapshot.getVersion(), options.getMode(), options.getMaxExpansions(), options.getTimeBudgetMillis(),
+                options.getInitialWeight(), options.getMemoryBudgetKb(), options.getParallelWorkers(), options.getParallelThresholdMoves());
+    }
+
+    private void invalidateOlderVersions(long version)
+    {
+        if (version > currentVersion)
+        {
+            entries.clear();
+            currentVersion = version;
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (entries)
+        {
+            return entries.size();
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PathCache(size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + ")";
+    }
+}
@@ -0,0 +1,15 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+
+/**
+ * Common contract of the search engines: return the flight path from start to a position
+ * close to end (both included), or an empty list when no path was found.
+ */
+@FunctionalInterface
+public interface PathPlanner
+{
+    ArrayList<Position> findPath(Position start, Position end, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats);
+}
@@ -0,0 +1,119 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+
+/**
+ * PathRealizer class turns a straight leg into legal 16 direction moves.
+ * Every step takes the direction closest to the bearing of the target. Each step brings
+ * the drone at least 0.98 of a move closer while it is further than one move away, and
+ * from within one move the next step ends within 0.2 of a move. So the walk always reaches
+ * the stop radius in about distance / 0.00015 steps.
+ */
+public final class PathRealizer
+{
+    private static final double directionAngle = 2 * Math.PI / Lattice.directions;
+
+    private PathRealizer()
+    {
+    }
+
+    public static int directionTowards(double fromLng, double fromLat, double toLng, double toLat)
+    {
+        double angle = Math.atan2(toLat - fromLat, toLng - fromLng);
+        int direction = (int) Math.round(angle / directionAngle);
+        return Math.floorMod(direction, Lattice.directions);
+    }
+
+    /**
+     * Walk from the last position of path towards the target until it is within stopRadius,
+     * appending every step. Returns false, leaving the path at the last legal position,
+     * when a step is rejected by the validator.
+     */
+    public static boolean walkStraight(ArrayList<Position> path, double targetLng, double targetLat, double stopRadius, MoveValidator validator)
+    {
+        Position current = path.getLast();
+        double lng = current.getLng();
+        double lat = current.getLat();
+        int maxSteps = (int) Math.ceil(Lattice.movesBetween(lng, lat, targetLng, targetLat) * 1.05) + 4;
+
+        for (int steps = 0; steps <= maxSteps; steps++)
+        {
+            double lngDiff = targetLng - lng;
+            double latDiff = targetLat - lat;
+            if (lngDiff * lngDiff + latDiff * latDiff < stopRadius * stopRadius)
+            {
+                return true;
+            }
+
+            int direction = directionTowards(lng, lat, targetLng, targetLat);
+            double nextLng = Lattice.stepLng(direction) + lng;
+            double nextLat = Lattice.stepLat(direction) + lat;
+            if (!validator.isLegal(lng, lat, nextLng, nextLat))
+            {
+                return false;
+            }
+
+            path.add(new Position(nextLng, nextLat));
+            lng = nextLng;
+            lat = nextLat;
+        }
+        return false;
+    }
+
+    /**
+     * Walk from the last position of path along the straight line to the target until it is within
+     * stopRadius, appending every step. Every step takes whichever of the two directions either side
+     * of the bearing of the line ends closer to the line, so the walk never strays more than
+     * sin(22.5 degrees), about 0.38 of a move, from it, and takes about as many moves as
+     * Lattice.fewestMovesBetween counts. Each step gets at least cos(22.5 degrees) of a move further
+     * along, and once less than a move is left the next step ends within 0.1 of a move of the target
+     * along the line, so stop radii above 0.4 of a move are always reached.
+     * Returns false, leaving the path at the last legal position, when a step is rejected by the validator.
+     */
+    public static boolean walkAlong(ArrayList<Position> path, double targetLng, double targetLat, double stopRadius, MoveValidator validator)
+    {
+        Position current = path.getLast();
+        double startLng = current.getLng();
+        double startLat = current.getLat();
+        double length = Math.sqrt((targetLng - startLng) * (targetLng - startLng) + (targetLat - startLat) * (targetLat - startLat));
+        if (length < stopRadius)
+        {
+            return true;
+        }
+
+        // Unit normal of the line, the offset of a position across the line is its dot product with it
+        double normalLng = -(targetLat - startLat) / length;
+        double normalLat = (targetLng - startLng) / length;
+        int first = Math.floorMod((int) Math.floor(Math.atan2(targetLat - startLat, targetLng - startLng) / directionAngle), Lattice.directions);
+        int second = (first + 1) % Lattice.directions;
+        int maxSteps = (int) Math.ceil(length / (Lattice.unitLength * Math.cos(directionAngle))) + 2;
+
+        double lng = startLng;
+        double lat = startLat;
+        for (int steps = 0; steps < maxSteps; steps++)
+        {
+            double acrossFirst = (lng + Lattice.stepLng(first) - startLng) * normalLng + (lat + Lattice.stepLat(first) - startLat) * normalLat;
+            double acrossSecond = (lng + Lattice.stepLng(second) - startLng) * normalLng + (lat + Lattice.stepLat(second) - startLat) * normalLat;
+            int direction = (Math.abs(acrossFirst) <= Math.abs(acrossSecond)) ? first : second;
+            double nextLng = Lattice.stepLng(direction) + lng;
+            double nextLat = Lattice.stepLat(direction) + lat;
+            if (!validator.isLegal(lng, lat, nextLng, nextLat))
+            {
+                return false;
+            }
+
+            path.add(new Position(nextLng, nextLat));
+            lng = nextLng;
+            lat = nextLat;
+            double lngDiff = targetLng - lng;
+            double latDiff = targetLat - lat;
+            if (lngDiff * lngDiff + latDiff * latDiff < stopRadius * stopRadius)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,43 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import lombok.Getter;
+
+/**
+ * The available search engines, selectable per request through the planner option.
+ */
+@Getter
+public enum PlannerMode
+{
+    // Plain A* over the 16 direction lattice, hash distributed over several workers (HDA*) on long legs
+    LATTICE(LatticeAStar::findPath),
+
+    // A* from both ends at once, meeting in the middle
+    BIDIRECTIONAL((start, end, snapshot, options, stats) ->
+            BidirectionalAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, options.getMaxExpansions(), stats)),
+
+    // Shortest route on the visibility graph of the restricted area corners, walked with lattice moves
+    VISIBILITY(VisibilityGraphPlanner::findPath),
+
+    // A* with the landmark (ALT) bound as heuristic, the landmarks being built once per snapshot
+    ALT(Landmarks::findPath),
+
+    // Plain A* keeping its search state, so the leg can be repaired when the restricted areas change (see IncrementalLegs)
+    INCREMENTAL((start, end, snapshot, options, stats) ->
+            IncrementalAStar.plan(start, end, snapshot, options.getMaxExpansions(), stats).getPath()),
+
+    // Weighted A* with a decreasing weight (ARA*), returning the best path found within the time and expansion budget
+    ANYTIME(AnytimeAStar::findPath),
+
+    // Route over the entrances of square blocks of cells first (HPA*), then lattice searches confined to the blocks of the route
+    HIERARCHICAL(HierarchicalPlanner::findPath),
+
+    // Iterative deepening A* (IDA*) with a transposition table, holding no more memory than the budget of the options
+    MEMORY_BOUNDED(MemoryBoundedAStar::findPath);
+
+    private final PathPlanner planner;
+
+    PlannerMode(PathPlanner planner)
+    {
+        this.planner = planner;
+    }
+}
@@ -0,0 +1,69 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+/**
+ * Options for one planning request. The defaults come from the ilp.planner properties
+ * and individual requests can override them.
+ * The deadline and the suboptimality bound belong to the request being planned, a copy starts without them.
+ */
+@Getter
+@Setter
+public class PlannerOptions
+{
+    private PlannerMode mode = PlannerMode.LATTICE;
+    private int maxExpansions = LatticeAStar.defaultMaxExpansions;
+    // Time the anytime planner may spend on a request, 0 for no limit
+    private long timeBudgetMillis;
+    // Weight of the first pass of the anytime planner
+    private double initialWeight = 2.5;
+    // Walk legs with nothing near the straight line between their ends instead of planning them (see StraightLegs)
+    private boolean straightLegs = true;
+    // Memory one search of the memory bounded planner may hold, in kilobytes
+    private long memoryBudgetKb = MemoryBoundedAStar.defaultMemoryBudgetKb;
+    // Workers of the lattice planner on legs of at least parallelThresholdMoves moves, 1 searches every leg on the calling thread
+    private int parallelWorkers = 1;
+    private int parallelThresholdMoves = ParallelAStar.defaultThresholdMoves;
+
+    @Setter(AccessLevel.NONE)
+    private long deadline;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final DoubleAccumulator suboptimalityBound = new DoubleAccumulator(Math::max, 1);
+
+    public PlannerOptions copy()
+    {
+        PlannerOptions copy = new PlannerOptions();
+        copy.setMode(mode);
+        copy.setMaxExpansions(maxExpansions);
+        copy.setTimeBudgetMillis(timeBudgetMillis);
+        copy.setInitialWeight(initialWeight);
+        copy.setStraightLegs(straightLegs);
+        copy.setMemoryBudgetKb(memoryBudgetKb);
+        copy.setParallelWorkers(parallelWorkers);
+        copy.setParallelThresholdMoves(parallelThresholdMoves);
+        return copy;
+    }
+
+    // Start the clock of the time budget, the planners stop improving paths once the deadline passed
+    public void startTimeBudget()
+    {
+        deadline = (timeBudgetMillis > 0) ? System.nanoTime() + timeBudgetMillis * 1000000 : 0;
+    }
+
+    // Record the bound of one planned leg, the request reports the worst one
+    public void recordSuboptimalityBound(double bound)
+    {
+        suboptimalityBound.accumulate(bound);
+    }
+
+    // How many times longer than the shortest ones the legs planned with these options can be, 1 when all are optimal
+    public double getSuboptimalityBound()
+    {
+        return suboptimalityBound.get();
+    }
+}
@@ -0,0 +1,81 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+/**
+ * Raster class enumerates the grid cells a segment passes through.
+ * Used when building the occupancy bitmaps and the edge index, never during a search.
+ */
+public final class Raster
+{
+    /**
+     * Called once per (column, row) cell visited.
+     */
+    @FunctionalInterface
+    public interface CellVisitor
+    {
+        void visit(int column, int row);
+    }
+
+    private Raster()
+    {
+    }
+
+    public static int cell(double coordinate, double cellSize)
+    {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * Range of x covered in the given row by the points within margin of the segment.
+     * Writes the range into span and returns false when the segment doesn't reach the row.
+     */
+    public static boolean rowSpan(double x1, double y1, double x2, double y2, double margin, double cellSize, int row, double[] span)
+    {
+        double rowLow = row * cellSize - margin;
+        double rowHigh = (row + 1) * cellSize + margin;
+
+        if (y1 == y2)
+        {
+            span[0] = Math.min(x1, x2);
+            span[1] = Math.max(x1, x2);
+            return true;
+        }
+
+        // Clip the segment to the rows y range
+        double ta = (rowLow - y1) / (y2 - y1);
+        double tb = (rowHigh - y1) / (y2 - y1);
+        double t0 = Math.max(0, Math.min(ta, tb));
+        double t1 = Math.min(1, Math.max(ta, tb));
+        if (t0 > t1)
+        {
+            return false;
+        }
+        double xa = x1 + t0 * (x2 - x1);
+        double xb = x1 + t1 * (x2 - x1);
+        span[0] = Math.min(xa, xb);
+        span[1] = Math.max(xa, xb);
+        return true;
+    }
+
+    // Visit every cell that contains a point within margin of the segment, one row at a time
+    public static void forEachCell(double x1, double y1, double x2, double y2, double margin, double cellSize, CellVisitor visitor)
+    {
+        int firstRow = cell(Math.min(y1, y2) - margin, cellSize);
+        int lastRow = cell(Math.max(y1, y2) + margin, cellSize);
+        double[] span = new double[2];
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            if (!rowSpan(x1, y1, x2, y2, margin, cellSize, row, span))
+            {
+                continue;
+            }
+
+            int firstColumn = cell(span[0] - margin, cellSize);
+            int lastColumn = cell(span[1] + margin, cellSize);
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                visitor.visit(column, row);
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import lombok.Getter;
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.RestrictedArea;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * RestrictedAreaSnapshot class is an immutable, versioned view of the restricted areas
+ * prepared for the search engines. It is built once per distinct set of areas and then
+ * answers move legality through the occupancy bitmaps, falling back to the exact check
+ * through the edge index only for moves that touch a boundary cell.
+ */
+public class RestrictedAreaSnapshot implements MoveValidator
+{
+    @Getter
+    private final long version;
+    @Getter
+    private final List<RestrictedArea> restrictedAreas;
+
+    private final double[][] lngs;
+    private final double[][] lats;
+    private final OccupancyBitmap[] bitmaps;
+    // Bounding box of every area: min lng, min lat, max lng, max lat
+    private final double[][] boxes;
+    @Getter
+    private final EdgeIndex edgeIndex;
+
+    // Hash of every vertex, the same areas give the same fingerprint in every run
+    @Getter
+    private final long fingerprint;
+
+    // Structures the engines derive from this snapshot (visibility graph, ...), built on first use
+    private final Map<Class<?>, Object> derived = new ConcurrentHashMap<>();
+
+    private RestrictedAreaSnapshot(long version, List<RestrictedArea> restrictedAreas)
+    {
+        int count = restrictedAreas.size();
+        this.version = version;
+        this.restrictedAreas = List.copyOf(restrictedAreas);
+        this.lngs = new double[count][];
+        this.lats = new double[count][];
+        this.bitmaps = new OccupancyBitmap[count];
+        this.boxes = new double[count][];
+
+        for (int i = 0; i < count; i++)
+        {
+            ArrayList<Position> vertices = restrictedAreas.get(i).getVertices();
+            lngs[i] = new double[vertices.size()];
+            lats[i] = new double[vertices.size()];
+            for (int j = 0; j < vertices.size(); j++)
+            {
+                lngs[i][j] = vertices.get(j).getLng();
+                lats[i][j] = vertices.get(j).getLat();
+            }
+            bitmaps[i] = OccupancyBitmap.build(lngs[i], lats[i]);
+            boxes[i] = new double[]{Arrays.stream(lngs[i]).min().orElse(0), Arrays.stream(lats[i]).min().orElse(0),
+                    Arrays.stream(lngs[i]).max().orElse(0), Arrays.stream(lats[i]).max().orElse(0)};
+        }
+        this.edgeIndex = new EdgeIndex(lngs, lats);
+        this.fingerprint = fingerprint(lngs, lats);
+    }
+
+    private static long fingerprint(double[][] lngs, double[][] lats)
+    {
+        long hash = lngs.length;
+        for (int i = 0; i < lngs.length; i++)
+        {
+            hash = mix(hash, lngs[i], lats[i]);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, double[] areaLngs, double[] areaLats)
+    {
+        hash = hash * 1000003 + areaLngs.length;
+        for (int j = 0; j < areaLngs.length; j++)
+        {
+            hash = hash * 1000003 + Double.doubleToLongBits(areaLngs[j]);
+            hash = hash * 1000003 + Double.doubleToLongBits(areaLats[j]);
+        }
+        return hash;
+    }
+
+    /**
+     * Fingerprint of the areas whose bounding box meets the given box, 0 when there is none.
+     * Structures covering only that box stay valid as long as it doesn't change.
+     */
+    public long fingerprintWithin(double minLng, double minLat, double maxLng, double maxLat)
+    {
+        long hash = 0;
+        for (int i = 0; i < boxes.length; i++)
+        {
+            if (boxes[i][0] <= maxLng && boxes[i][2] >= minLng && boxes[i][1] <= maxLat && boxes[i][3] >= minLat)
+            {
+                hash = mix(hash * 31 + 1, lngs[i], lats[i]);
+            }
+        }
+        return hash;
+    }
+
+    // Bounding box (min lng, min lat, max lng, max lat) of every area
+    public List<double[]> areaBoxes()
+    {
+        List<double[]> areaBoxes = new ArrayList<>();
+        for (double[] box : boxes)
+        {
+            areaBoxes.add(box.clone());
+        }
+        return areaBoxes;
+    }
+
+    public static RestrictedAreaSnapshot build(List<RestrictedArea> restrictedAreas, long version)
+    {
+        return new RestrictedAreaSnapshot(version, restrictedAreas);
+    }
+
+    public int areaCount()
+    {
+        return lngs.length;
+    }
+
+    public double[] getVertexLngs(int area)
+    {
+        return lngs[area];
+    }
+
+    public double[] getVertexLats(int area)
+    {
+        return lats[area];
+    }
+
+    /**
+     * Return the structure of the given type derived from this snapshot, building it on first use.
+     * Two threads may both build it, the first one stored wins and both are equivalent.
+     */
+    public <T> T getDerived(Class<T> type, Function<RestrictedAreaSnapshot, T> builder)
+    {
+        Object existing = derived.get(type);
+        if (existing == null)
+        {
+            T built = builder.apply(this);
+            existing = derived.putIfAbsent(type, built);
+            if (existing == null)
+            {
+                existing = built;
+            }
+        }
+        return type.cast(existing);
+    }
+
+    /**
+     * Bounding boxes (min lng, min lat, max lng, max lat) of the areas of this snapshot that the other
+     * one doesn't have with exactly the same vertices: the areas removed or reshaped when other is
+     * newer, the areas added or reshaped when it is older.
+     */
+    public List<double[]> unmatchedAreaBoxes(RestrictedAreaSnapshot other)
+    {
+        List<double[]> boxes = new ArrayList<>();
+        addUnmatchedBoxes(this, other, boxes);
+        return boxes;
+    }
+
+    private static void addUnmatchedBoxes(RestrictedAreaSnapshot from, RestrictedAreaSnapshot in, List<double[]> boxes)
+    {
+        boolean[] used = new boolean[in.lngs.length];
+        for (int i = 0; i < from.lngs.length; i++)
+        {
+            boolean found = false;
+            for (int j = 0; j < in.lngs.length && !found; j++)
+            {
+                if (!used[j] && Arrays.equals(from.lngs[i], in.lngs[j]) && Arrays.equals(from.lats[i], in.lats[j]))
+                {
+                    used[j] = true;
+                    found = true;
+                }
+            }
+            if (!found)
+            {
+                boxes.add(from.boxes[i].clone());
+            }
+        }
+    }
+
+    // True when the given areas have exactly the same vertices as the ones this snapshot was built from
+    public boolean matches(List<RestrictedArea> other)
+    {
+        if (other.size() != lngs.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < lngs.length; i++)
+        {
+            ArrayList<Position> vertices = other.get(i).getVertices();
+            if (vertices.size() != lngs[i].length)
+            {
+                return false;
+            }
+            for (int j = 0; j < vertices.size(); j++)
+            {
+                Position vertex = vertices.get(j);
+                if (vertex.getLng() != lngs[i][j] || vertex.getLat() != lats[i][j])
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // True when the grid cell lies wholly inside one of the areas (areas too big to rasterize are never counted)
+    public boolean isInteriorCell(int column, int row)
+    {
+        for (OccupancyBitmap bitmap : bitmaps)
+        {
+            if (bitmap != null && bitmap.isInterior(column, row))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Connected components of the free space, labelled on first use
+    public ComponentLabels getComponentLabels()
+    {
+        return getDerived(ComponentLabels.class, ComponentLabels::new);
+    }
+
+    @Override
+    public boolean isLegal(double fromLng, double fromLat, double toLng, double toLat)
+    {
+        for (int i = 0; i < bitmaps.length; i++)
+        {
+            OccupancyBitmap bitmap = bitmaps[i];
+            int state = (bitmap == null) ? OccupancyBitmap.boundary : bitmap.classify(fromLng, fromLat, toLng, toLat);
+
+            if (state == OccupancyBitmap.blocked)
+            {
+                return false;
+            }
+            if (state == OccupancyBitmap.boundary && edgeIndex.isPathCrossingArea(i, fromLng, fromLat, toLng, toLat))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
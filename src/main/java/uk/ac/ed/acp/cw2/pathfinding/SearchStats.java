@@ -0,0 +1,71 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Counters filled in by a search so callers can see how much work it did.
+ */
+@Getter
+@ToString
+public class SearchStats
+{
+    private long expansions;
+    private long backwardExpansions;
+    private long generated;
+    private int maxOpenSize;
+    // How many times longer than the shortest path the returned one can be, 1 for an optimal search
+    private double suboptimalityBound = 1;
+    // Bytes the search held at its peak, only recorded by the memory bounded search
+    private long memoryBytes;
+    // Set when the same search would be answered differently later, like ALT before its landmarks are built
+    private boolean provisional;
+
+    public void recordExpansion()
+    {
+        expansions++;
+    }
+
+    // Expansions of the backward side of a bidirectional search, also counted in expansions
+    public void recordBackwardExpansion()
+    {
+        expansions++;
+        backwardExpansions++;
+    }
+
+    public void recordGenerated()
+    {
+        generated++;
+    }
+
+    public void recordOpenSize(int openSize)
+    {
+        maxOpenSize = Math.max(maxOpenSize, openSize);
+    }
+
+    public void recordSuboptimalityBound(double bound)
+    {
+        suboptimalityBound = bound;
+    }
+
+    public void recordProvisional()
+    {
+        provisional = true;
+    }
+
+    public void recordMemory(long bytes)
+    {
+        memoryBytes = Math.max(memoryBytes, bytes);
+    }
+
+    // Add the counters of a search run alongside this one (the workers of a parallel search)
+    public void merge(SearchStats other)
+    {
+        expansions += other.expansions;
+        backwardExpansions += other.backwardExpansions;
+        generated += other.generated;
+        maxOpenSize = Math.max(maxOpenSize, other.maxOpenSize);
+        memoryBytes = Math.max(memoryBytes, other.memoryBytes);
+        provisional |= other.provisional;
+    }
+}
@@ -0,0 +1,301 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * SearchWorkspace class stores the search nodes as a struct of primitive arrays
+ * (position, scores, parent link) together with the open list and the closed set.
+ * The open list is an indexed binary heap: every node knows its position in it, so a queued
+ * node can be given a lower f in place (decreaseKey) instead of being pushed a second time.
+ * Searches whose f never goes down can switch the open list to a BucketQueue instead (useBuckets),
+ * the open list methods then work on it the same way, apart from heapNode and clearHeap.
+ * Workspaces are pooled per thread and only cleared between searches, so a search
+ * doesn't allocate anything per expanded node once the arrays are large enough.
+ */
+public class SearchWorkspace implements AutoCloseable
+{
+    private static final int initialCapacity = 1 << 12;
+
+    // Workspaces that grew beyond this many nodes (or a closed set of more slots than that many nodes fill) are dropped
+    // instead of being pooled, so one long search doesn't pin its memory to the thread forever. About 6MB once grown
+    public static final int retainedCapacity = 1 << 16;
+
+    private static final ThreadLocal<ArrayDeque<SearchWorkspace>> pool = ThreadLocal.withInitial(ArrayDeque::new);
+
+    // Node storage
+    private double[] lng = new double[initialCapacity];
+    private double[] lat = new double[initialCapacity];
+    private int[] g = new int[initialCapacity];
+    private double[] f = new double[initialCapacity];
+    private int[] parent = new int[initialCapacity];
+    private int nodeCount;
+
+    // Binary min heap of node indices ordered by f, and the position of every node in it (-1 when not queued)
+    private int[] heap = new int[initialCapacity];
+    private int[] heapIndex = new int[initialCapacity];
+    private int heapSize;
+
+    // Open list used instead of the heap after useBuckets, until the next clear
+    private final BucketQueue buckets = new BucketQueue();
+    private boolean bucketed;
+
+    // Closed set, packed cell key to expanded node index
+    private final LongIntHashMap closed = new LongIntHashMap(initialCapacity);
+
+    private boolean pooled;
+
+    // Take a workspace from the pool of the current thread, creating one if needed
+    public static SearchWorkspace acquire()
+    {
+        SearchWorkspace workspace = pool.get().poll();
+        if (workspace == null)
+        {
+            workspace = new SearchWorkspace();
+        }
+        workspace.pooled = false;
+        workspace.clear();
+        return workspace;
+    }
+
+    // Give the workspace back to the pool, called through try-with-resources
+    @Override
+    public void close()
+    {
+        // The closed set never shrinks, and stays at most four slots per key
+        if (pooled || lng.length > retainedCapacity || closed.capacity() > 4 * retainedCapacity)
+        {
+            return;
+        }
+        pooled = true;
+        pool.get().push(this);
+    }
+
+    public void clear()
+    {
+        nodeCount = 0;
+        heapSize = 0;
+        closed.clear();
+        if (bucketed)
+        {
+            buckets.clear();
+            bucketed = false;
+        }
+    }
+
+    /**
+     * Use the bucket queue as the open list for the rest of the search, which must never push a node
+     * with an f lower than that of the last node popped. Call it before the first push.
+     */
+    public void useBuckets()
+    {
+        bucketed = true;
+    }
+
+    public int addNode(double nodeLng, double nodeLat, int parentNode, int gScore, double fScore)
+    {
+        if (nodeCount == lng.length)
+        {
+            int capacity = lng.length * 2;
+            lng = Arrays.copyOf(lng, capacity);
+            lat = Arrays.copyOf(lat, capacity);
+            g = Arrays.copyOf(g, capacity);
+            f = Arrays.copyOf(f, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            heapIndex = Arrays.copyOf(heapIndex, capacity);
+        }
+        lng[nodeCount] = nodeLng;
+        lat[nodeCount] = nodeLat;
+        parent[nodeCount] = parentNode;
+        g[nodeCount] = gScore;
+        f[nodeCount] = fScore;
+        heapIndex[nodeCount] = -1;
+        return nodeCount++;
+    }
+
+    /**
+     * Move a queued node to a new position with a lower f (and its new parent), keeping its place in the open list valid.
+     */
+    public void decreaseKey(int node, double nodeLng, double nodeLat, int parentNode, int gScore, double fScore)
+    {
+        lng[node] = nodeLng;
+        lat[node] = nodeLat;
+        parent[node] = parentNode;
+        g[node] = gScore;
+        f[node] = fScore;
+        if (bucketed)
+        {
+            buckets.decrease(node, fScore);
+            return;
+        }
+        siftUp(node, heapIndex[node]);
+    }
+
+    public boolean isQueued(int node)
+    {
+        return bucketed ? buckets.isQueued(node) : heapIndex[node] >= 0;
+    }
+
+    public int nodeCount()
+    {
+        return nodeCount;
+    }
+
+    public double lng(int node)
+    {
+        return lng[node];
+    }
+
+    public double lat(int node)
+    {
+        return lat[node];
+    }
+
+    public int g(int node)
+    {
+        return g[node];
+    }
+
+    public double f(int node)
+    {
+        return f[node];
+    }
+
+    public int parent(int node)
+    {
+        return parent[node];
+    }
+
+    public LongIntHashMap closed()
+    {
+        return closed;
+    }
+
+    public boolean isHeapEmpty()
+    {
+        return bucketed ? buckets.isEmpty() : heapSize == 0;
+    }
+
+    public int heapSize()
+    {
+        return bucketed ? buckets.size() : heapSize;
+    }
+
+    public int peek()
+    {
+        return bucketed ? buckets.peek() : heap[0];
+    }
+
+    // Node held at the given position of the heap array, in no particular order (heap only)
+    public int heapNode(int index)
+    {
+        return heap[index];
+    }
+
+    // Heap only
+    public void clearHeap()
+    {
+        for (int i = 0; i < heapSize; i++)
+        {
+            heapIndex[heap[i]] = -1;
+        }
+        heapSize = 0;
+    }
+
+    public void push(int node)
+    {
+        if (bucketed)
+        {
+            buckets.push(node, f[node]);
+            return;
+        }
+        if (heapSize == heap.length)
+        {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        siftUp(node, heapSize++);
+    }
+
+    private void siftUp(int node, int index)
+    {
+        while (index > 0)
+        {
+            int parentIndex = (index - 1) >>> 1;
+            int parentNode = heap[parentIndex];
+            if (!before(node, parentNode))
+            {
+                break;
+            }
+            heap[index] = parentNode;
+            heapIndex[parentNode] = index;
+            index = parentIndex;
+        }
+        heap[index] = node;
+        heapIndex[node] = index;
+    }
+
+    public int pop()
+    {
+        if (bucketed)
+        {
+            return buckets.pop();
+        }
+        int top = heap[0];
+        heapIndex[top] = -1;
+        int last = heap[--heapSize];
+        int index = 0;
+        int half = heapSize >>> 1;
+        while (index < half)
+        {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < heapSize && before(heap[right], heap[child]))
+            {
+                child = right;
+            }
+            if (!before(heap[child], last))
+            {
+                break;
+            }
+            heap[index] = heap[child];
+            heapIndex[heap[index]] = index;
+            index = child;
+        }
+        if (heapSize > 0)
+        {
+            heap[index] = last;
+            heapIndex[last] = index;
+        }
+        return top;
+    }
+
+    // Lower f first, on ties prefer the deeper node since it is closer to the goal
+    private boolean before(int a, int b)
+    {
+        if (f[a] != f[b])
+        {
+            return f[a] < f[b];
+        }
+        return g[a] > g[b];
+    }
+
+    // Follow the parent links back to the root, only allocating the returned path
+    public ArrayList<Position> pathTo(int node)
+    {
+        int length = 0;
+        for (int current = node; current != -1; current = parent[current])
+        {
+            length++;
+        }
+
+        Position[] positions = new Position[length];
+        for (int current = node; current != -1; current = parent[current])
+        {
+            positions[--length] = new Position(lng[current], lat[current]);
+        }
+        return new ArrayList<>(Arrays.asList(positions));
+    }
+}
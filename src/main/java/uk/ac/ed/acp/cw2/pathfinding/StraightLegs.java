@@ -0,0 +1,96 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.utility.GeometryKernel;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StraightLegs class is the fast path for legs with no restricted area near the straight line
+ * between their ends, which is most of them. When no edge comes within halfWidth of the line and
+ * the start is outside every area, the whole corridor (the points within halfWidth of the line)
+ * is outside every area, and being convex it holds every move between two of its points. Such a
+ * leg is walked along the line (PathRealizer.walkAlong), whose steps never leave the corridor, and
+ * no search is run. Otherwise the leg is left to the planner. Counts how many legs took the fast path.
+ */
+public class StraightLegs
+{
+    // The walk stays within sin(22.5 degrees) of a move from the line
+    static final double halfWidth = Lattice.unitLength / 2;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The walk from start to end along the line when the corridor around it is clear, null otherwise.
+     */
+    public ArrayList<Position> find(Position start, Position end, RestrictedAreaSnapshot snapshot)
+    {
+        ArrayList<Position> path = walk(start, end, snapshot);
+        (path == null ? misses : hits).increment();
+        return path;
+    }
+
+    public static ArrayList<Position> walk(Position start, Position end, RestrictedAreaSnapshot snapshot)
+    {
+        double startLng = start.getLng();
+        double startLat = start.getLat();
+        double endLng = end.getLng();
+        double endLat = end.getLat();
+        if (!isCorridorClear(startLng, startLat, endLng, endLat, snapshot))
+        {
+            return null;
+        }
+
+        ArrayList<Position> path = new ArrayList<>();
+        path.add(start);
+        // Checked anyway, so a rounding surprise falls back to the planner instead of returning an illegal leg
+        double limit = halfWidth * halfWidth;
+        MoveValidator inCorridor = (fromLng, fromLat, toLng, toLat) ->
+                GeometryKernel.pointSegmentDistanceSquared(toLng, toLat, startLng, startLat, endLng, endLat) < limit;
+        return PathRealizer.walkAlong(path, endLng, endLat, Lattice.closeRadius, inCorridor) ? path : null;
+    }
+
+    // No edge within halfWidth of the line and the start outside every area
+    static boolean isCorridorClear(double startLng, double startLat, double endLng, double endLat, RestrictedAreaSnapshot snapshot)
+    {
+        EdgeIndex edgeIndex = snapshot.getEdgeIndex();
+        if (edgeIndex.isEdgeWithin(startLng, startLat, endLng, endLat, halfWidth))
+        {
+            return false;
+        }
+        for (int area = 0; area < edgeIndex.areaCount(); area++)
+        {
+            if (edgeIndex.containsPoint(area, startLng, startLat))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    // Share of the legs that took the fast path, 0 before the first one
+    public double getHitRate()
+    {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return (total == 0) ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("StraightLegs(hits=%d, misses=%d, hitRate=%.3f)", getHits(), getMisses(), getHitRate());
+    }
+}
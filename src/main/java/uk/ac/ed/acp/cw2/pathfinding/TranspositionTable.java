@@ -0,0 +1,143 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Table of the lowest f a depth first search reached each cell with, and the pass (iteration) it
+ * was reached in, within a budget of bytes. Like the open list of A*, it compares the positions of
+ * one cell by f, since positions of one cell reached along different moves aren't quite the same.
+ *
+ * A cell is kept in one of the probeLength slots following its hash. The table starts small and
+ * doubles when it is half full or a cell finds its slots taken, until the next size would go over
+ * the budget. From then on a cell finding its slots taken replaces the one reached in the oldest
+ * pass, so forgetting cells only costs the search the work of reaching them again.
+ */
+final class TranspositionTable
+{
+    // Key, f and pass of one slot
+    static final int slotBytes = Long.BYTES + Double.BYTES + Integer.BYTES;
+
+    private static final int probeLength = 4;
+    private static final int initialSlots = 1 << 10;
+    private static final long emptyKey = Long.MIN_VALUE;
+
+    // The same moves in another order reach the same position give or take rounding
+    private static final double tolerance = 1e-9;
+
+    private final int maxSlots;
+    private long[] keys;
+    private double[] f;
+    private int[] passes;
+    private int mask;
+    private int used;
+
+    TranspositionTable(long budgetBytes)
+    {
+        long slots = Long.highestOneBit(Math.max(probeLength, budgetBytes / slotBytes));
+        maxSlots = (int) Math.min(1 << 30, slots);
+        allocate(Math.min(initialSlots, maxSlots));
+    }
+
+    private void allocate(int slots)
+    {
+        keys = new long[slots];
+        f = new double[slots];
+        passes = new int[slots];
+        mask = slots - 1;
+        used = 0;
+        Arrays.fill(keys, emptyKey);
+    }
+
+    /**
+     * Record that the search reaches the cell with the given f in the given pass. False (and nothing
+     * recorded) when the cell was reached with a lower f, or with the same earlier in the same pass:
+     * everything beyond it was or will be searched from there.
+     */
+    boolean visit(long key, double cellF, int pass)
+    {
+        int home = slot(key);
+        int free = -1;
+        int oldest = home;
+        for (int probe = 0; probe < probeLength; probe++)
+        {
+            int slot = (home + probe) & mask;
+            if (keys[slot] == key)
+            {
+                if (f[slot] < cellF - tolerance || (f[slot] <= cellF + tolerance && passes[slot] == pass))
+                {
+                    return false;
+                }
+                store(slot, key, cellF, pass);
+                return true;
+            }
+            if (keys[slot] == emptyKey && free < 0)
+            {
+                free = slot;
+            }
+            if (passes[slot] < passes[oldest])
+            {
+                oldest = slot;
+            }
+        }
+
+        if ((free < 0 || used >= keys.length / 2) && keys.length < maxSlots)
+        {
+            grow();
+            return visit(key, cellF, pass);
+        }
+        if (free >= 0)
+        {
+            used++;
+            store(free, key, cellF, pass);
+        }
+        else
+        {
+            store(oldest, key, cellF, pass);
+        }
+        return true;
+    }
+
+    private void store(int slot, long key, double cellF, int pass)
+    {
+        keys[slot] = key;
+        f[slot] = cellF;
+        passes[slot] = pass;
+    }
+
+    // Twice the slots, every cell that still finds a free slot kept
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        double[] oldF = f;
+        int[] oldPasses = passes;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != emptyKey)
+            {
+                int home = slot(oldKeys[i]);
+                for (int probe = 0; probe < probeLength; probe++)
+                {
+                    int slot = (home + probe) & mask;
+                    if (keys[slot] == emptyKey)
+                    {
+                        used++;
+                        store(slot, oldKeys[i], oldF[i], oldPasses[i]);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private int slot(long key)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    long bytes()
+    {
+        return (long) keys.length * slotBytes;
+    }
+}
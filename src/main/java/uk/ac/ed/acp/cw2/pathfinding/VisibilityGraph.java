@@ -0,0 +1,200 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * VisibilityGraph class holds the corners a shortest route around the restricted areas can bend at:
+ * the convex vertices of every area, pushed outwards by a couple of moves so the realized legs keep clear
+ * of the edges. Edges between corners are not stored, they are tested lazily while routing, so only the
+ * pairs the search actually considers are ever checked.
+ */
+public class VisibilityGraph
+{
+    // How far outside the area the corners are placed, in degrees
+    private static final double inflation = Lattice.unitLength * 2;
+
+    // Very sharp corners are not pushed further than this
+    private static final double maxOffset = inflation * 4;
+
+    private final RestrictedAreaSnapshot snapshot;
+    private final double[] cornerLng;
+    private final double[] cornerLat;
+
+    public VisibilityGraph(RestrictedAreaSnapshot snapshot)
+    {
+        this.snapshot = snapshot;
+
+        ArrayList<double[]> corners = new ArrayList<>();
+        for (int area = 0; area < snapshot.areaCount(); area++)
+        {
+            addCorners(snapshot.getVertexLngs(area), snapshot.getVertexLats(area), corners);
+        }
+
+        cornerLng = new double[corners.size()];
+        cornerLat = new double[corners.size()];
+        for (int i = 0; i < corners.size(); i++)
+        {
+            cornerLng[i] = corners.get(i)[0];
+            cornerLat[i] = corners.get(i)[1];
+        }
+    }
+
+    private void addCorners(double[] lngs, double[] lats, ArrayList<double[]> corners)
+    {
+        // Ignore the closing vertex, the polygon is closed implicitly
+        int count = lngs.length;
+        if (count > 1 && lngs[0] == lngs[count - 1] && lats[0] == lats[count - 1])
+        {
+            count--;
+        }
+        if (count < 3)
+        {
+            return;
+        }
+
+        // Shoelace formula, positive for counter clockwise polygons
+        double signedArea = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int next = (i + 1) % count;
+            signedArea += lngs[i] * lats[next] - lngs[next] * lats[i];
+        }
+        double orientation = Math.signum(signedArea);
+
+        for (int i = 0; i < count; i++)
+        {
+            int previous = (i + count - 1) % count;
+            int next = (i + 1) % count;
+
+            double inLng = lngs[i] - lngs[previous];
+            double inLat = lats[i] - lats[previous];
+            double outLng = lngs[next] - lngs[i];
+            double outLat = lats[next] - lats[i];
+            double inLength = Math.hypot(inLng, inLat);
+            double outLength = Math.hypot(outLng, outLat);
+
+            // Only convex corners can be on a shortest route
+            double turn = inLng * outLat - inLat * outLng;
+            if (inLength == 0 || outLength == 0 || turn * orientation <= 0)
+            {
+                continue;
+            }
+
+            // Outward normals of both edges, the corner is moved along their mitre
+            double n1Lng = orientation * inLat / inLength;
+            double n1Lat = -orientation * inLng / inLength;
+            double n2Lng = orientation * outLat / outLength;
+            double n2Lat = -orientation * outLng / outLength;
+
+            double scale = inflation / (1 + n1Lng * n2Lng + n1Lat * n2Lat);
+            double offsetLng = (n1Lng + n2Lng) * scale;
+            double offsetLat = (n1Lat + n2Lat) * scale;
+            double offsetLength = Math.hypot(offsetLng, offsetLat);
+            if (offsetLength > maxOffset)
+            {
+                offsetLng *= maxOffset / offsetLength;
+                offsetLat *= maxOffset / offsetLength;
+            }
+
+            double cornerLng = lngs[i] + offsetLng;
+            double cornerLat = lats[i] + offsetLat;
+
+            // Corners squeezed against another area are useless
+            if (snapshot.isLegal(cornerLng, cornerLat, cornerLng, cornerLat))
+            {
+                corners.add(new double[] {cornerLng, cornerLat});
+            }
+        }
+    }
+
+    public int cornerCount()
+    {
+        return cornerLng.length;
+    }
+
+    public boolean isVisible(double fromLng, double fromLat, double toLng, double toLat)
+    {
+        return !snapshot.getEdgeIndex().isLongSegmentIntersecting(fromLng, fromLat, toLng, toLat);
+    }
+
+    /**
+     * A* from start to end over the corners, testing visibility only for the pairs that would improve a route.
+     * Returns the waypoints after start (end being the last one), or null when the corners don't connect them.
+     */
+    public ArrayList<double[]> route(double startLng, double startLat, double endLng, double endLat, SearchStats stats)
+    {
+        int corners = cornerLng.length;
+        int start = corners;
+        int end = corners + 1;
+        int nodes = corners + 2;
+
+        double[] lng = Arrays.copyOf(cornerLng, nodes);
+        double[] lat = Arrays.copyOf(cornerLat, nodes);
+        lng[start] = startLng;
+        lat[start] = startLat;
+        lng[end] = endLng;
+        lat[end] = endLat;
+
+        double[] g = new double[nodes];
+        int[] parent = new int[nodes];
+        boolean[] settled = new boolean[nodes];
+        Arrays.fill(g, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        g[start] = 0;
+
+        while (true)
+        {
+            // Small graph, a linear scan for the best open node is cheaper than a heap
+            int u = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int node = 0; node < nodes; node++)
+            {
+                if (!settled[node] && g[node] < Double.POSITIVE_INFINITY)
+                {
+                    double f = g[node] + Math.hypot(endLng - lng[node], endLat - lat[node]);
+                    if (f < best)
+                    {
+                        best = f;
+                        u = node;
+                    }
+                }
+            }
+
+            if (u == -1)
+            {
+                return null;
+            }
+            if (u == end)
+            {
+                break;
+            }
+            settled[u] = true;
+            stats.recordExpansion();
+
+            for (int v = 0; v < nodes; v++)
+            {
+                if (settled[v] || v == start)
+                {
+                    continue;
+                }
+                double candidate = g[u] + Math.hypot(lng[v] - lng[u], lat[v] - lat[u]);
+                if (candidate < g[v] && isVisible(lng[u], lat[u], lng[v], lat[v]))
+                {
+                    g[v] = candidate;
+                    parent[v] = u;
+                    stats.recordGenerated();
+                }
+            }
+        }
+
+        ArrayList<double[]> waypoints = new ArrayList<>();
+        for (int node = end; node != start; node = parent[node])
+        {
+            waypoints.add(new double[] {lng[node], lat[node]});
+        }
+        Collections.reverse(waypoints);
+        return waypoints;
+    }
+}
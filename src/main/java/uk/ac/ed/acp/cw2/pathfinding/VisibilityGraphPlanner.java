@@ -0,0 +1,55 @@
+package uk.ac.ed.acp.cw2.pathfinding;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * VisibilityGraphPlanner class routes over the visibility graph of the restricted area corners
+ * and then realizes every straight leg as 16 direction moves. A leg the straight walk can't complete
+ * (it grazes a corner) is repaired with a lattice search to the end of that leg only,
+ * and when the graph has no route the planner falls back to the full lattice search.
+ */
+public final class VisibilityGraphPlanner
+{
+    private VisibilityGraphPlanner()
+    {
+    }
+
+    public static ArrayList<Position> findPath(Position start, Position end, RestrictedAreaSnapshot snapshot, PlannerOptions options, SearchStats stats)
+    {
+        VisibilityGraph graph = snapshot.getDerived(VisibilityGraph.class, VisibilityGraph::new);
+        List<double[]> waypoints = graph.route(start.getLng(), start.getLat(), end.getLng(), end.getLat(), stats);
+
+        if (waypoints == null)
+        {
+            return LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, options.getMaxExpansions(), stats);
+        }
+
+        ArrayList<Position> path = new ArrayList<>();
+        path.add(start);
+
+        for (int i = 0; i < waypoints.size(); i++)
+        {
+            double[] waypoint = waypoints.get(i);
+            boolean last = (i == waypoints.size() - 1);
+
+            // Intermediate corners only need to be passed within one move
+            double stopRadius = last ? Lattice.closeRadius : Lattice.unitLength;
+            if (PathRealizer.walkStraight(path, waypoint[0], waypoint[1], stopRadius, snapshot))
+            {
+                continue;
+            }
+
+            Position from = path.getLast();
+            ArrayList<Position> repair = LatticeAStar.search(from.getLng(), from.getLat(), waypoint[0], waypoint[1], snapshot, options.getMaxExpansions(), stats);
+            if (repair.isEmpty())
+            {
+                return LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, options.getMaxExpansions(), stats);
+            }
+            path.addAll(repair.subList(1, repair.size()));
+        }
+        return path;
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import uk.ac.ed.acp.cw2.data.*;
+import uk.ac.ed.acp.cw2.utility.Utility;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,12 +14,14 @@ public class DataFetchServiceImplementation implements DataFetchService
 {
     private final RestTemplate restTemplate;
     private final String url;
+    private final Utility utility;
 
     @Autowired
-    public DataFetchServiceImplementation(RestTemplate restTemplate, String url)
+    public DataFetchServiceImplementation(RestTemplate restTemplate, String url, Utility utility)
     {
         this.restTemplate = restTemplate;
         this.url = url;
+        this.utility = utility;
     }
 
     @Override
@@ -46,7 +49,10 @@ public class DataFetchServiceImplementation implements DataFetchService
             return new ArrayList<>();
         }
 
-        return new ArrayList<>(Arrays.asList(restrictedAreas));
+        //Compile the areas as soon as they are fetched (only when they changed), so the planner finds the snapshot ready
+        ArrayList<RestrictedArea> fetched = new ArrayList<>(Arrays.asList(restrictedAreas));
+        utility.getRestrictedAreaSnapshot(fetched);
+        return fetched;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package uk.ac.ed.acp.cw2.service;
 
 import uk.ac.ed.acp.cw2.data.*;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerOptions;
 
 import java.util.ArrayList;
 
@@ -13,11 +14,12 @@ public interface RestService
     boolean isCloseTo(PositionsRequest Request);
     String nextPosition(PositionAngleRequest Request);
     boolean isInRegion(PositionRegionRequest Request);
+    RegionBitmap isInRegions(PositionsRegionsRequest Request);
     ArrayList<String> droneWithCooling(ArrayList<Drone> drones, boolean state);
     Drone droneDetails (ArrayList<Drone> drones, String droneId);
     ArrayList<String> query (ArrayList<Drone> drones, ArrayList<QueryRequest> queries);
     ArrayList<String> queryAvailableDrones (ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointDrones, ArrayList<ServicePoint> servicePoints,ArrayList<MedicineDispatchRequest> queries);
-    ReturnedPath calcDeliveryPath(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointDrones);
-    GeoJson calcDeliveryPathAsGeoJson(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointDrones);
+    ReturnedPath calcDeliveryPath(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointDrones, PlannerOptions plannerOptions);
+    GeoJson calcDeliveryPathAsGeoJson(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointDrones, PlannerOptions plannerOptions);
 
 }
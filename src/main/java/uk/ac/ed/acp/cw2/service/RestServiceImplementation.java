@@ -1,13 +1,22 @@
 package uk.ac.ed.acp.cw2.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import uk.ac.ed.acp.cw2.data.*;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerMode;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerOptions;
 import uk.ac.ed.acp.cw2.utility.Utility;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 //Service interface implementation
 /**
@@ -20,12 +29,26 @@ public class RestServiceImplementation implements RestService
 
     private final Utility utility;
     private static final Double unitLength = 0.00015;
+    // Threads planning the dates of every request, null when dates are planned one after the other on the calling thread
+    private final ExecutorService datePool;
+
+    public RestServiceImplementation(final Utility utility)
+    {
+        this(utility, 1);
+    }
 
     //Dependency inject the utility clas
     @Autowired
-    public RestServiceImplementation(final Utility utility)
+    public RestServiceImplementation(final Utility utility, @Value("${ilp.planner.date-parallelism:1}") int dateParallelism)
     {
         this.utility = utility;
+        // Platform threads, so each keeps its pooled search workspaces from one date to the next
+        this.datePool = (dateParallelism <= 1) ? null : Executors.newFixedThreadPool(dateParallelism, runnable ->
+        {
+            Thread thread = new Thread(runnable, "plan-date");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
@@ -70,6 +93,12 @@ public class RestServiceImplementation implements RestService
         return utility.isInRegion(Request);
     }
 
+    @Override
+    public RegionBitmap isInRegions(PositionsRegionsRequest Request)
+    {
+        return utility.isInRegions(Request);
+    }
+
     @Override
     public ArrayList<String> droneWithCooling(ArrayList<Drone> drones, boolean state)
     {
@@ -181,165 +210,277 @@ public class RestServiceImplementation implements RestService
     }
 
     @Override
-    public ReturnedPath calcDeliveryPath(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointsDrones)
+    public ReturnedPath calcDeliveryPath(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointsDrones, PlannerOptions plannerOptions)
     {
         Set<LocalDate> dates = utility.getAllDates(queries);
         List<LocalDate> sortedDates = dates.stream().sorted().toList();
+        plannerOptions.startTimeBudget();
+
+        // No cross date delivery allowed, so every date is planned on its own, possibly at the same time as the others
+        List<DatePlan> plans = planDates(sortedDates, date -> planDate(date, queries, servicePoints, restrictedAreas, drones, servicePointsDrones, plannerOptions));
 
+        // Merged in date order, so the result doesn't depend on which date finished first
         int totalMoves = 0;
         double totalCost = 0;
-        ReturnedPath returnedPath = new ReturnedPath(0.0,0, new ArrayList<>());
+        ReturnedPath returnedPath = new ReturnedPath(0.0,0, new ArrayList<>(), null);
+        for (DatePlan plan : plans)
+        {
+            for (DronePath dronePath : plan.returnedPath().getDronePaths())
+            {
+                for (Deliveries deliveries : dronePath.getDeliveries())
+                {
+                    utility.addDeliveriesToRetunedPath(dronePath.getDroneId(), deliveries.getDeliveryId(), deliveries.getFlightPath(), returnedPath);
+                }
+            }
+            totalMoves += plan.returnedPath().getTotalMoves();
+            for (double flightCost : plan.flightCosts())
+            {
+                totalCost += flightCost;
+            }
+        }
+        returnedPath.setTotalCost(totalCost);
+        returnedPath.setTotalMoves(totalMoves);
+        if (plannerOptions.getMode() == PlannerMode.ANYTIME)
+        {
+            returnedPath.setSuboptimalityBound(plannerOptions.getSuboptimalityBound());
+        }
+        utility.logReturnedPath(returnedPath,queries,servicePoints);
+
+        return returnedPath;
+    }
 
-        // Do this date by date, since no cross date delivery allowed
-        for (LocalDate date: sortedDates)
+    // Deliveries of one date, with the cost of every flight in the order they were flown
+    private record DatePlan(ReturnedPath returnedPath, ArrayList<Double> flightCosts)
+    {
+    }
+
+    // Plan the dates on the date pool, shared by all requests, and return the plans in the order of the dates
+    private List<DatePlan> planDates(List<LocalDate> dates, Function<LocalDate, DatePlan> planner)
+    {
+        if (datePool == null || dates.size() <= 1)
+        {
+            return dates.stream().map(planner).toList();
+        }
+
+        List<CompletableFuture<DatePlan>> futures = new ArrayList<>();
+        for (LocalDate date : dates)
+        {
+            futures.add(CompletableFuture.supplyAsync(() -> planner.apply(date), datePool));
+        }
+        try
+        {
+            return futures.stream().map(CompletableFuture::join).toList();
+        }
+        catch (CompletionException e)
+        {
+            // Surface the same exception the sequential planning would have thrown
+            if (e.getCause() instanceof RuntimeException cause)
+            {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private DatePlan planDate(LocalDate date, ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointsDrones, PlannerOptions plannerOptions)
+    {
+        int totalMoves = 0;
+        ArrayList<Double> flightCosts = new ArrayList<>();
+        ReturnedPath returnedPath = new ReturnedPath(0.0,0, new ArrayList<>(), null);
+
+        // Sort the deliveries based on the required arrival time of the orders
+        ArrayList<MedicineDispatchRequest> queryByDate = utility.getMedicineDispatchByDate(queries, date);
+        queryByDate.sort(Comparator.comparing(MedicineDispatchRequest::getTime));
+        DistanceMatrix distanceMatrix = utility.getDistanceMatrix(getServicePointsInUse(date, queryByDate, servicePoints, drones, servicePointsDrones), queryByDate, restrictedAreas, plannerOptions);
+        for (Drone drone : drones)
         {
-            // Sort the deliveries based on the required arrival time of the orders
-            ArrayList<MedicineDispatchRequest> queryByDate = utility.getMedicineDispatchByDate(queries, date);
-            queryByDate.sort(Comparator.comparing(MedicineDispatchRequest::getTime));
-            for (Drone drone : drones)
+            boolean progress;
+            do
             {
-                boolean progress;
-                do
+                progress = false;
+                Capability droneCapability = drone.getCapability();
+                double currentDroneCapacity = droneCapability.getCapacity();
+                int currentDroneMoves = 0;
+                int currentNumberOfDeliveries = 0;
+                double currentLandingAndTakeOffCost = droneCapability.getCostInitial() + droneCapability.getCostFinal();
+                boolean currentDroneCooling = droneCapability.getCooling();
+                boolean currentDroneHeating = droneCapability.getHeating();
+                Position currentDroneBase = null;
+                ArrayList<Position> currentDronePath = new ArrayList<>();
+                ArrayList<MedicineDispatchRequest> delivered = new ArrayList<>();
+                Position start;
+                Position end;
+
+                for(MedicineDispatchRequest query : queryByDate)
                 {
-                    progress = false;
-                    Capability droneCapability = drone.getCapability();
-                    double currentDroneCapacity = droneCapability.getCapacity();
-                    int currentDroneMoves = 0;
-                    int currentNumberOfDeliveries = 0;
-                    double currentCostPerDelivery;
-                    double currentLandingAndTakeOffCost = droneCapability.getCostInitial() + droneCapability.getCostFinal();
-                    boolean currentDroneCooling = droneCapability.getCooling();
-                    boolean currentDroneHeating = droneCapability.getHeating();
-                    Position currentDroneBase = null;
-                    ArrayList<Position> currentDronePath = new ArrayList<>();
-                    ArrayList<MedicineDispatchRequest> delivered = new ArrayList<>();
-                    Position start;
-                    Position end;
-
-                    for(MedicineDispatchRequest query : queryByDate)
+                    Requirements queryRequirements = query.getRequirements();
+                    LocalTime time = query.getTime();
+                    Position droneBase = utility.getServicePointPosition(drone.getId(), servicePointsDrones, servicePoints, date, time);
+
+                    // Current drone is not available
+                    if (droneBase == null)
                     {
-                        Requirements queryRequirements = query.getRequirements();
-                        LocalTime time = query.getTime();
-                        Position droneBase = utility.getServicePointPosition(drone.getId(), servicePointsDrones, servicePoints, date, time);
+                        // Move to next drone
+                        continue;
+                    }
 
-                        // Current drone is not available
-                        if (droneBase == null)
+                    // If haven't fixed a base for this flight, lock it in
+                    if (currentDroneBase == null)
+                    {
+                        currentDroneBase = droneBase;
+                    }
+                    else if (!currentDroneBase.equals(droneBase))
+                    {
+                        // This query would require starting from a different base,
+                        // so it can't belong to this particular string
+                        continue;
+                    }
+
+                    assert(currentDroneBase!=null); //assertion for R3, but already enforced by the code itself
+
+
+                    boolean canDeliver = !(currentDroneCapacity < queryRequirements.getCapacity());
+
+                    Boolean reqCooling = queryRequirements.getCooling();
+                    if (reqCooling != null && reqCooling && !currentDroneCooling)
+                    {
+                        canDeliver = false;
+                    }
+
+                    Boolean reqHeating = queryRequirements.getHeating();
+                    if (reqHeating != null && reqHeating && !currentDroneHeating)
+                    {
+                        canDeliver = false;
+                    }
+
+                    if (canDeliver)
+                    {
+                        end = query.getDelivery();
+
+                        // Decide on the precomputed matrix first, legs are measured from the exact points
+                        Position previous = delivered.isEmpty() ? droneBase : delivered.getLast().getDelivery();
+                        int movesTo = distanceMatrix.moves(previous, end);
+                        int movesBack = distanceMatrix.moves(end, droneBase);
+
+                        if (movesTo == DistanceMatrix.unreachable || movesBack == DistanceMatrix.unreachable)
                         {
-                            // Move to next drone
+                            // no valid path, treat as cannot deliver this query
                             continue;
                         }
 
-                        // If haven't fixed a base for this flight, lock it in
-                        if (currentDroneBase == null)
-                        {
-                            currentDroneBase = droneBase;
-                        }
-                        else if (!currentDroneBase.equals(droneBase))
+                        // For hover
+                        movesTo += 1;
+
+                        // Only the first leg is flown from the point the matrix measured, later ones start from the hover
+                        // position next to the previous delivery and may take a move less, so they are given that move.
+                        // Legs that fail even then are never planned, the others are checked again once planned
+                        int fewestMovesTo = delivered.isEmpty() ? movesTo : movesTo - 1;
+                        if (!isWithinLimits(droneCapability, queryRequirements, currentDroneMoves + fewestMovesTo + movesBack, currentNumberOfDeliveries + 1, currentLandingAndTakeOffCost))
                         {
-                            // This query would require starting from a different base,
-                            // so it can't belong to this particular string
                             continue;
                         }
 
-                        assert(currentDroneBase!=null); //assertion for R3, but already enforced by the code itself
-
-
-                        boolean canDeliver = !(currentDroneCapacity < queryRequirements.getCapacity());
-
-                        Boolean reqCooling = queryRequirements.getCooling();
-                        if (reqCooling != null && reqCooling && !currentDroneCooling)
+                        // The first leg is flown along the one the matrix measured, only later ones are planned now, from where the drone really is
+                        ArrayList<Position> toDeliver;
+                        if(currentDronePath.isEmpty())
                         {
-                            canDeliver = false;
+                            toDeliver = distanceMatrix.path(droneBase, end);
                         }
-
-                        Boolean reqHeating = queryRequirements.getHeating();
-                        if (reqHeating != null && reqHeating && !currentDroneHeating)
+                        else
                         {
-                            canDeliver = false;
+                            start = currentDronePath.getLast();
+                            toDeliver = utility.findPath(start,end,restrictedAreas,plannerOptions);
                         }
 
-                        if (canDeliver)
+                        if (toDeliver.isEmpty())
                         {
-                            if(currentDronePath.isEmpty())
-                            {
-                                start = droneBase;
-                            }
-                            else
-                            {
-                                start = currentDronePath.getLast();
-                            }
-                            end = query.getDelivery();
-
-                            ArrayList<Position> toDeliver = utility.aStarSearch(start,end,restrictedAreas);
-                            ArrayList<Position> toBase = utility.aStarSearch(end,droneBase,restrictedAreas);
-
-                            if (toDeliver.isEmpty() || toBase.isEmpty())
-                            {
-                                // no valid path, treat as cannot deliver this query
-                                continue;
-                            }
-
-                            // For hover
-                            toDeliver.add(toDeliver.getLast());
-                            int movesTo = toDeliver.size()-1;
-                            int movesBack = toBase.size()-1;
-
-                            int estimatedCurrentDroneMoves = currentDroneMoves + (movesTo + movesBack);
-                            int estimatedCurrentNumberOfDeliveries = currentNumberOfDeliveries + 1;
-                            double estimatedCurrentFlightCost = currentLandingAndTakeOffCost + estimatedCurrentDroneMoves * droneCapability.getCostPerMove();
-                            currentCostPerDelivery = estimatedCurrentFlightCost / estimatedCurrentNumberOfDeliveries;
-
-                            boolean lowerThanMaxMove = (estimatedCurrentDroneMoves <= droneCapability.getMaxMoves());
-                            boolean lowerThanMaxCost = ((queryRequirements.getMaxCost() == null) || (currentCostPerDelivery <= queryRequirements.getMaxCost()));
-
-                            if( lowerThanMaxMove && lowerThanMaxCost )
-                            {
-                                currentDroneMoves += movesTo;
-                                currentNumberOfDeliveries += 1;
-                                currentDroneCapacity -=  queryRequirements.getCapacity();
-                                currentDronePath.addAll(toDeliver);
-                                delivered.add(query);
-
-                                totalMoves += movesTo;
-
-                                utility.addDeliveriesToRetunedPath(drone.getId(),query.getId(),toDeliver,returnedPath);
-                            }
+                            continue;
                         }
+                        toDeliver.add(toDeliver.getLast());
+                        movesTo = toDeliver.size()-1;
 
-                    }
-                    // close flight if did anything
-                    if (!currentDronePath.isEmpty())
-                    {
-                        progress = true;
-                        Position last = currentDronePath.getLast();
-                        ArrayList<Position> back = utility.aStarSearch(last, currentDroneBase, restrictedAreas);
-                        utility.addDeliveriesToRetunedPath(drone.getId(),null,back,returnedPath);
-                        currentDroneMoves += back.size() - 1;
-                        totalMoves += back.size() - 1;
-                        totalCost += currentLandingAndTakeOffCost + currentDroneMoves * droneCapability.getCostPerMove();
-                        queryByDate.removeAll(delivered);
+                        if (isWithinLimits(droneCapability, queryRequirements, currentDroneMoves + movesTo + movesBack, currentNumberOfDeliveries + 1, currentLandingAndTakeOffCost))
+                        {
+                            currentDroneMoves += movesTo;
+                            currentNumberOfDeliveries += 1;
+                            currentDroneCapacity -=  queryRequirements.getCapacity();
+                            currentDronePath.addAll(toDeliver);
+                            delivered.add(query);
 
-                        assert(droneCapability.getMaxMoves() >= currentDroneMoves); // Assertion for LO1
+                            totalMoves += movesTo;
 
+                            utility.addDeliveriesToRetunedPath(drone.getId(),query.getId(),toDeliver,returnedPath);
+                        }
                     }
 
                 }
-                while(progress && !queryByDate.isEmpty());
+                // close flight if did anything
+                if (!currentDronePath.isEmpty())
+                {
+                    progress = true;
+                    Position last = currentDronePath.getLast();
+                    ArrayList<Position> back = utility.findPath(last, currentDroneBase, restrictedAreas, plannerOptions);
+                    utility.addDeliveriesToRetunedPath(drone.getId(),null,back,returnedPath);
+                    currentDroneMoves += back.size() - 1;
+                    totalMoves += back.size() - 1;
+                    flightCosts.add(currentLandingAndTakeOffCost + currentDroneMoves * droneCapability.getCostPerMove());
+                    queryByDate.removeAll(delivered);
+
+                    assert(droneCapability.getMaxMoves() >= currentDroneMoves); // Assertion for LO1
+
+                }
 
             }
+            while(progress && !queryByDate.isEmpty());
 
         }
-        returnedPath.setTotalCost(totalCost);
+
         returnedPath.setTotalMoves(totalMoves);
-        utility.logReturnedPath(returnedPath,queries,servicePoints);
+        return new DatePlan(returnedPath, flightCosts);
+    }
 
-        return returnedPath;
+    // Service points some drone is available at for one of the deliveries of the date, the only bases a flight can start from
+    private ArrayList<ServicePoint> getServicePointsInUse(LocalDate date, ArrayList<MedicineDispatchRequest> queryByDate, ArrayList<ServicePoint> servicePoints, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointsDrones)
+    {
+        Set<Position> bases = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Drone drone : drones)
+        {
+            for (MedicineDispatchRequest query : queryByDate)
+            {
+                Position droneBase = utility.getServicePointPosition(drone.getId(), servicePointsDrones, servicePoints, date, query.getTime());
+                if (droneBase != null)
+                {
+                    bases.add(droneBase);
+                }
+            }
+        }
+
+        ArrayList<ServicePoint> inUse = new ArrayList<>();
+        for (ServicePoint servicePoint : servicePoints)
+        {
+            if (bases.contains(servicePoint.getLocation()))
+            {
+                inUse.add(servicePoint);
+            }
+        }
+        return inUse;
+    }
+
+    // Check the move and cost limits of a flight that would make the given number of moves and deliveries
+    private boolean isWithinLimits(Capability droneCapability, Requirements queryRequirements, int estimatedDroneMoves, int estimatedNumberOfDeliveries, double landingAndTakeOffCost)
+    {
+        double estimatedFlightCost = landingAndTakeOffCost + estimatedDroneMoves * droneCapability.getCostPerMove();
+        double costPerDelivery = estimatedFlightCost / estimatedNumberOfDeliveries;
+
+        boolean lowerThanMaxMove = (estimatedDroneMoves <= droneCapability.getMaxMoves());
+        boolean lowerThanMaxCost = ((queryRequirements.getMaxCost() == null) || (costPerDelivery <= queryRequirements.getMaxCost()));
+        return lowerThanMaxMove && lowerThanMaxCost;
     }
 
     @Override
-    public GeoJson calcDeliveryPathAsGeoJson(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointDrones)
+    public GeoJson calcDeliveryPathAsGeoJson(ArrayList<MedicineDispatchRequest> queries, ArrayList<ServicePoint> servicePoints, ArrayList<RestrictedArea> restrictedAreas, ArrayList<Drone> drones, ArrayList<ServicePointDrones> servicePointDrones, PlannerOptions plannerOptions)
     {
-        ReturnedPath returnedPath = calcDeliveryPath(queries, servicePoints, restrictedAreas, drones, servicePointDrones);
+        ReturnedPath returnedPath = calcDeliveryPath(queries, servicePoints, restrictedAreas, drones, servicePointDrones, plannerOptions);
         GeoJson geoJson = new GeoJson("FeatureCollection",new ArrayList<>());
 
         for(DronePath dronePath: returnedPath.getDronePaths())
@@ -0,0 +1,75 @@
+package uk.ac.ed.acp.cw2.utility;
+
+import uk.ac.ed.acp.cw2.data.Position;
+
+import java.util.List;
+
+/**
+ * CompiledPolygon class is a region laid out for the batch point in polygon kernels: the ends and
+ * slope of every edge in primitive arrays, and the bounding box. The edges are the ones
+ * Utility.isInRegion walks, every vertex joined to the next one and the last one to the first.
+ */
+public final class CompiledPolygon
+{
+    final double[] x1;
+    final double[] y1;
+    final double[] x2;
+    final double[] y2;
+    // (y2 - y1) / (x2 - x1), for the ray casting check
+    final double[] slope;
+
+    final double minX;
+    final double maxX;
+    final double minY;
+    final double maxY;
+
+    private CompiledPolygon(List<Position> vertices)
+    {
+        int count = vertices.size();
+        x1 = new double[count];
+        y1 = new double[count];
+        x2 = new double[count];
+        y2 = new double[count];
+        slope = new double[count];
+
+        double lowX = Double.POSITIVE_INFINITY;
+        double highX = Double.NEGATIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        double highY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++)
+        {
+            Position start = vertices.get(i);
+            Position end = vertices.get((i + 1) % count);
+            x1[i] = start.getLng();
+            y1[i] = start.getLat();
+            x2[i] = end.getLng();
+            y2[i] = end.getLat();
+            slope[i] = (y2[i] - y1[i]) / (x2[i] - x1[i]);
+
+            lowX = Math.min(lowX, x1[i]);
+            highX = Math.max(highX, x1[i]);
+            lowY = Math.min(lowY, y1[i]);
+            highY = Math.max(highY, y1[i]);
+        }
+        minX = lowX;
+        maxX = highX;
+        minY = lowY;
+        maxY = highY;
+    }
+
+    public static CompiledPolygon of(List<Position> vertices)
+    {
+        return new CompiledPolygon(vertices);
+    }
+
+    public int edgeCount()
+    {
+        return x1.length;
+    }
+
+    // Points below, above or to the right of the bounding box are outside, with no edge to look at
+    boolean mayContain(double x, double y)
+    {
+        return y >= minY && y <= maxY && x <= maxX;
+    }
+}
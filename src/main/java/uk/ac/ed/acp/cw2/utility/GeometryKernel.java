@@ -0,0 +1,178 @@
+package uk.ac.ed.acp.cw2.utility;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * GeometryKernel class holds the primitive versions of the geometric predicates.
+ * Utility keeps its Position based methods for the endpoints and delegates here,
+ * while the search engines call these directly with raw coordinates.
+ */
+public final class GeometryKernel
+{
+    private static final double error = 1e-9;
+
+    // Distances are rounded to this many decimal places
+    private static final double scale = 1e5;
+    // Below this, value * scale and the halves between whole numbers are exact doubles
+    private static final double roundingLimit = 1e10;
+
+    private GeometryKernel()
+    {
+    }
+
+    //Squared Euclidean distance between the two points, enough to compare distances
+    public static double distanceSquared(double x1, double y1, double x2, double y2)
+    {
+        double xDiff = x2 - x1;
+        double yDiff = y2 - y1;
+        return xDiff * xDiff + yDiff * yDiff;
+    }
+
+    //Euclidean distance between the two points
+    public static double distance(double x1, double y1, double x2, double y2)
+    {
+        return Math.sqrt(distanceSquared(x1, y1, x2, y2));
+    }
+
+    //Round to five decimal places, ties to even, by the exact value of the double like DecimalFormat does
+    public static double roundToFiveDecimals(double value)
+    {
+        if (!Double.isFinite(value))
+        {
+            return value;
+        }
+        if (Math.abs(value) >= roundingLimit)
+        {
+            return new BigDecimal(value).setScale(5, RoundingMode.HALF_EVEN).doubleValue();
+        }
+        // DecimalFormat takes this one for an exact tie and rounds it to 0, though the double is a little above 0.000005
+        if (Math.abs(value) == 0.000005)
+        {
+            return Math.copySign(0.0, value);
+        }
+
+        // The product may be rounded, but the fused multiply add gives the exact sign of value * scale - (whole + 0.5)
+        double whole = Math.floor(value * scale);
+        double above = Math.fma(value, scale, -(whole + 0.5));
+        if (above > 0 || (above == 0 && whole % 2 != 0))
+        {
+            whole++;
+        }
+        return Math.copySign(whole / scale, value);
+    }
+
+    public static double orient(double ax, double ay, double bx, double by, double cx, double cy)
+    {
+        double x1 = bx - ax;
+        double y1 = by - ay;
+        double x2 = cx - ax;
+        double y2 = cy - ay;
+        return x1 * y2 - y1 * x2;
+    }
+
+    //using error to prevent floating point error
+    public static boolean onSegment(double ax, double ay, double bx, double by, double cx, double cy)
+    {
+        // check if c is between a and b (inclusive)
+        double minLng = Math.min(ax, bx) - error;
+        double maxLng = Math.max(ax, bx) + error;
+        double minLat = Math.min(ay, by) - error;
+        double maxLat = Math.max(ay, by) + error;
+        return cx >= minLng && cx <= maxLng && cy >= minLat && cy <= maxLat;
+    }
+
+    //using error to prevent floating point error
+    public static boolean segmentsIntersect(double p1x, double p1y, double p2x, double p2y, double q1x, double q1y, double q2x, double q2y)
+    {
+        double o1 = orient(p1x, p1y, p2x, p2y, q1x, q1y);
+        double o2 = orient(p1x, p1y, p2x, p2y, q2x, q2y);
+        double o3 = orient(q1x, q1y, q2x, q2y, p1x, p1y);
+        double o4 = orient(q1x, q1y, q2x, q2y, p2x, p2y);
+
+        // intersection
+        if (o1 * o2 < 0 && o3 * o4 < 0)
+        {
+            return true;
+        }
+
+        // Touching cases
+        return (Math.abs(o1) < error && onSegment(p1x, p1y, p2x, p2y, q1x, q1y))
+                || (Math.abs(o2) < error && onSegment(p1x, p1y, p2x, p2y, q2x, q2y))
+                || (Math.abs(o3) < error && onSegment(q1x, q1y, q2x, q2y, p1x, p1y))
+                || (Math.abs(o4) < error && onSegment(q1x, q1y, q2x, q2y, p2x, p2y));
+    }
+
+    //Squared distance from the point (px,py) to the closest point of the segment (ax,ay)-(bx,by)
+    public static double pointSegmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by)
+    {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = (lengthSquared == 0) ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double x = ax + t * dx - px;
+        double y = ay + t * dy - py;
+        return x * x + y * y;
+    }
+
+    //Checking if the two segments intersect or come within distance of each other
+    public static boolean segmentsWithin(double p1x, double p1y, double p2x, double p2y, double q1x, double q1y, double q2x, double q2y, double distance)
+    {
+        if (segmentsIntersect(p1x, p1y, p2x, p2y, q1x, q1y, q2x, q2y))
+        {
+            return true;
+        }
+        // Segments that don't cross are closest at one of their four ends
+        double limit = distance * distance;
+        return pointSegmentDistanceSquared(p1x, p1y, q1x, q1y, q2x, q2y) <= limit
+                || pointSegmentDistanceSquared(p2x, p2y, q1x, q1y, q2x, q2y) <= limit
+                || pointSegmentDistanceSquared(q1x, q1y, p1x, p1y, p2x, p2y) <= limit
+                || pointSegmentDistanceSquared(q2x, q2y, p1x, p1y, p2x, p2y) <= limit;
+    }
+
+    //Checking if the given point is on the edge (x1,y1)-(x2,y2)
+    public static boolean isPointOnEdge(double xv, double yv, double x1, double y1, double x2, double y2)
+    {
+        //Gradient check
+        if (Math.abs((y2-y1)*(xv-x1) - (yv-y1)*(x2-x1)) <= error)
+        {
+            //Boundary checks
+            return Math.min(y1, y2) <= yv && yv <= Math.max(y1, y2) && Math.min(x1, x2) <= xv && xv <= Math.max(x1, x2);
+        }
+        return false;
+    }
+
+    //Check if the horizontal ray going right from the point is intersecting with the edge
+    public static boolean isEdgeIntersectWithRay(double xv, double yv, double x1, double y1, double x2, double y2)
+    {
+        return isEdgeIntersectWithRay(xv, yv, x1, y1, x2, y2, (y2-y1)/(x2-x1));
+    }
+
+    //Same check with the slope (y2-y1)/(x2-x1) of the edge computed beforehand, unused for horizontal and vertical edges
+    public static boolean isEdgeIntersectWithRay(double xv, double yv, double x1, double y1, double x2, double y2, double m)
+    {
+        //We don't take the horizontal line into consideration
+        //Also, if the vertex is on the right of the right most point of the edge then there is no intersection
+        if (y1 == y2 || Math.max(x1, x2) <= xv)
+        {
+            return false;
+        }
+
+        //Then consider when the ray is between two points of the edge
+        if (Math.min(y1, y2) <= yv && yv <= Math.max(y1, y2))
+        {
+            //In the case where line is vertical, there must be an intersection
+            if (x1 == x2)
+            {
+                return true;
+            }
+            //Otherwise we calculate the x coordinate of the intersection
+            double xi = (yv - y1)/m + x1;
+            return xv < xi;
+        }
+
+        //If the ray is lower or higher than the edge, return false
+        return false;
+    }
+}
@@ -0,0 +1,88 @@
+package uk.ac.ed.acp.cw2.utility;
+
+/**
+ * PointInPolygonKernel class tests many points against a compiled polygon at once, with the
+ * semantics of Utility.isInRegion (points on an edge count as inside). The points go through
+ * VectorPointInPolygon when it was compiled in (mvn -Pvector, from src/vector/java) and the
+ * jdk.incubator.vector module was added to the JVM (--add-modules jdk.incubator.vector). The last
+ * few that don't fill a vector, and every point otherwise, go through the scalar loop.
+ */
+public final class PointInPolygonKernel
+{
+    // Whole vectors of points, returning how many were done
+    interface Batch
+    {
+        int contains(double[] xs, double[] ys, CompiledPolygon polygon, long[] inside);
+    }
+
+    private static final Batch vectorKernel = loadVectorKernel();
+
+    private PointInPolygonKernel()
+    {
+    }
+
+    // Looked up by name, so the default build neither compiles against nor warns about the incubator module
+    private static Batch loadVectorKernel()
+    {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+        {
+            return null;
+        }
+        try
+        {
+            return (Batch) Class.forName("uk.ac.ed.acp.cw2.utility.VectorPointInPolygon").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            return null;
+        }
+    }
+
+    public static boolean isVectorised()
+    {
+        return vectorKernel != null;
+    }
+
+    /**
+     * Bit p (word p / 64, bit p % 64) is set when the point (xs[p], ys[p]) is in the polygon.
+     */
+    public static long[] contains(double[] xs, double[] ys, CompiledPolygon polygon)
+    {
+        long[] inside = new long[(xs.length + 63) >>> 6];
+        int done = (vectorKernel != null) ? vectorKernel.contains(xs, ys, polygon, inside) : 0;
+        for (int point = done; point < xs.length; point++)
+        {
+            if (contains(polygon, xs[point], ys[point]))
+            {
+                inside[point >>> 6] |= 1L << point;
+            }
+        }
+        return inside;
+    }
+
+    public static boolean contains(CompiledPolygon polygon, double xv, double yv)
+    {
+        if (!polygon.mayContain(xv, yv))
+        {
+            return false;
+        }
+
+        int count = 0;
+        for (int edge = 0; edge < polygon.edgeCount(); edge++)
+        {
+            double x1 = polygon.x1[edge];
+            double y1 = polygon.y1[edge];
+            double x2 = polygon.x2[edge];
+            double y2 = polygon.y2[edge];
+            if (GeometryKernel.isPointOnEdge(xv, yv, x1, y1, x2, y2))
+            {
+                return true;
+            }
+            else if (GeometryKernel.isEdgeIntersectWithRay(xv, yv, x1, y1, x2, y2, polygon.slope[edge]))
+            {
+                count++;
+            }
+        }
+        return count % 2 != 0;
+    }
+}
@@ -3,21 +3,34 @@ package uk.ac.ed.acp.cw2.utility;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Getter;
-import lombok.Setter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import uk.ac.ed.acp.cw2.data.*;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceField;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceFieldRegistry;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+import uk.ac.ed.acp.cw2.pathfinding.IncrementalLegs;
+import uk.ac.ed.acp.cw2.pathfinding.MultiGoalSearch;
+import uk.ac.ed.acp.cw2.pathfinding.PathCache;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerMode;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerOptions;
+import uk.ac.ed.acp.cw2.pathfinding.RestrictedAreaSnapshot;
+import uk.ac.ed.acp.cw2.pathfinding.SearchStats;
+import uk.ac.ed.acp.cw2.pathfinding.StraightLegs;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.math.RoundingMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.text.DecimalFormat;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Utility class contains helper functions.
@@ -27,58 +40,42 @@ import java.util.*;
 @Component
 public class Utility
 {
+    private static final Logger logger = LoggerFactory.getLogger(Utility.class);
     private static final double unitLength = 0.00015;
-    private static final double error = 1e-9;
     private final ObjectMapper objectMapper;
+    private final AtomicReference<RestrictedAreaSnapshot> restrictedAreaSnapshot = new AtomicReference<>();
+    private final AtomicLong snapshotVersion = new AtomicLong();
+    @Getter
+    private final PathCache pathCache;
+    @Getter
+    private final DistanceFieldRegistry distanceFields;
+    @Getter
+    private final IncrementalLegs incrementalLegs;
+    @Getter
+    private final StraightLegs straightLegs = new StraightLegs();
 
     public Utility(ObjectMapper objectMapper)
     {
-        this.objectMapper = objectMapper;
+        this(objectMapper, new PathCache(PathCache.defaultCapacity), DistanceFieldRegistry.disabled());
     }
 
-    @Setter
-    @Getter
-    public static class Node implements Comparable<Node>
+    public Utility(ObjectMapper objectMapper, PathCache pathCache, DistanceFieldRegistry distanceFields)
     {
-        private Node parent;
-        private Position position;
-        private Double gScore;
-        private Double fScore;
-
-        public Node(Node parent, Position position, Double gScore, Double heuristic)
-        {
-            this.parent = parent;
-            this.position = position;
-            this.gScore = gScore;
-            this.fScore = heuristic + this.gScore;
-        }
-
-        @Override
-        public int compareTo(Node other)
-        {
-            return Double.compare(fScore, other.fScore);
-        }
+        this(objectMapper, pathCache, distanceFields, new IncrementalLegs(IncrementalLegs.defaultMaxNodes));
+    }
 
+    public Utility(ObjectMapper objectMapper, PathCache pathCache, DistanceFieldRegistry distanceFields, IncrementalLegs incrementalLegs)
+    {
+        this.objectMapper = objectMapper;
+        this.pathCache = pathCache;
+        this.distanceFields = distanceFields;
+        this.incrementalLegs = incrementalLegs;
     }
 
-    //Calculate the Euclidean distance between two given positions
+    //Calculate the Euclidean distance between two given positions, rounded to five decimal places
     public Double calculateDistance(Position position1, Position position2)
     {
-        Double lng1 = position1.getLng();
-        Double lat1 = position1.getLat();
-        Double lng2 = position2.getLng();
-        Double lat2 = position2.getLat();
-
-        double lngDiff = lng2 - lng1;
-        double latDiff = lat2 - lat1;
-
-        Double distance = Math.sqrt(Math.pow(lngDiff, 2) + Math.pow(latDiff, 2));
-
-        //Rounding the result to five decimal places before returning
-        DecimalFormat df = new DecimalFormat("#.#####");
-        df.setRoundingMode(RoundingMode.HALF_EVEN);
-
-        return  Double.parseDouble(df.format(distance));
+        return GeometryKernel.roundToFiveDecimals(GeometryKernel.distance(position1.getLng(), position1.getLat(), position2.getLng(), position2.getLat()));
     }
 
     //Return list of edges based on the given vertices
@@ -105,86 +102,46 @@ public class Utility
     //Checking if the given position is on an edge of the region
     public boolean isPositionOnEdge(Position vertex, PositionsRequest edge)
     {
-        Double x1 = edge.getPosition1().getLng();
-        Double y1 = edge.getPosition1().getLat();
-        Double x2 = edge.getPosition2().getLng();
-        Double y2 = edge.getPosition2().getLat();
-        Double xv = vertex.getLng();
-        Double yv = vertex.getLat();
-
-        //Gradient check
-        if (Math.abs((y2-y1)*(xv-x1) - (yv-y1)*(x2-x1)) <= 1e-9)
-        {
-            //Boundary checks
-            if (Math.min(y1, y2) <= yv && yv <= Math.max(y1, y2))
-            {
-                if (Math.min(x1, x2) <= xv && xv <= Math.max(x1, x2))
-                {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return GeometryKernel.isPointOnEdge(vertex.getLng(), vertex.getLat(),
+                edge.getPosition1().getLng(), edge.getPosition1().getLat(),
+                edge.getPosition2().getLng(), edge.getPosition2().getLat());
     }
 
     //Check if the horizontal ray is intersecting with an edge of the region
     public boolean isEdgeIntersectWithRay(Position vertex, PositionsRequest edge)
     {
-        Double x1 = edge.getPosition1().getLng();
-        Double y1 = edge.getPosition1().getLat();
-        Double x2 = edge.getPosition2().getLng();
-        Double y2 = edge.getPosition2().getLat();
-        Double xv = vertex.getLng();
-        Double yv = vertex.getLat();
-
-        //We don't take the horizontal line into consideration
-        //Also, if the vertex is on the right of the right most point of the edge then there is no intersection
-        if(Objects.equals(y1, y2) || Math.max(x1,x2) <= xv)
-        {
-            return false;
-        }
-
-        //Then consider when the ray is between two points of the edge
-        if(Math.min(y1,y2) <= yv && yv <= Math.max(y1,y2))
-        {
-            //In the case where line is vertical, there must be an intersection
-            if(Objects.equals(x1, x2))
-            {
-                return true;
-            }
-            //Otherwise we calculate the x coordinate of the intersection
-            else
-            {
-                double m = (y2-y1)/(x2-x1);
-                double xi = (yv - y1)/m + x1;
-                return xv < xi;
-            }
-        }
-
-        //If the ray is lower or higher than the edge, return false
-        return false;
+        return GeometryKernel.isEdgeIntersectWithRay(vertex.getLng(), vertex.getLat(),
+                edge.getPosition1().getLng(), edge.getPosition1().getLat(),
+                edge.getPosition2().getLng(), edge.getPosition2().getLat());
     }
 
     public boolean isInRegion(PositionRegionRequest Request)
     {
         //Ray casting algorithm
-        Position position = Request.getPosition();
-        Region region = Request.getRegion();
+        double xv = Request.getPosition().getLng();
+        double yv = Request.getPosition().getLat();
+        ArrayList<Position> vertices = Request.getRegion().getVertices();
 
         //Number of intersection between the ray and the region edges
         int count = 0;
-        ArrayList<PositionsRequest> edges = getRegionEdges(region);
 
-        //Iterate through all edges
-        for(PositionsRequest edge : edges)
+        //Iterate through all edges, the last vertex is joined back to the first one like in getRegionEdges
+        for (int i = 0; i < vertices.size(); i++)
         {
+            Position start = vertices.get(i);
+            Position end = vertices.get((i + 1) % vertices.size());
+            double x1 = start.getLng();
+            double y1 = start.getLat();
+            double x2 = end.getLng();
+            double y2 = end.getLat();
+
             //If the position is on the edge of the region, return true directly
-            if (isPositionOnEdge(position,edge))
+            if (GeometryKernel.isPointOnEdge(xv, yv, x1, y1, x2, y2))
             {
                 return true;
             }
             //Else check if the ray intersect with the edge
-            else if(isEdgeIntersectWithRay(position, edge))
+            else if (GeometryKernel.isEdgeIntersectWithRay(xv, yv, x1, y1, x2, y2))
             {
                 count++;
             }
@@ -194,6 +151,36 @@ public class Utility
         return count % 2 != 0;
     }
 
+    // Every position against every region at once, see RegionBitmap for the layout of the answer
+    public RegionBitmap isInRegions(PositionsRegionsRequest request)
+    {
+        ArrayList<Position> positions = request.getPositions();
+        ArrayList<Region> regions = request.getRegions();
+        int regionCount = regions.size();
+        double[] xs = new double[positions.size()];
+        double[] ys = new double[positions.size()];
+        for (int i = 0; i < positions.size(); i++)
+        {
+            xs[i] = positions.get(i).getLng();
+            ys[i] = positions.get(i).getLat();
+        }
+
+        byte[] bitmap = new byte[(int) (((long) xs.length * regionCount + 7) / 8)];
+        for (int region = 0; region < regionCount; region++)
+        {
+            long[] inside = PointInPolygonKernel.contains(xs, ys, CompiledPolygon.of(regions.get(region).getVertices()));
+            for (int word = 0; word < inside.length; word++)
+            {
+                for (long bits = inside[word]; bits != 0; bits &= bits - 1)
+                {
+                    long bit = (long) (word * 64 + Long.numberOfTrailingZeros(bits)) * regionCount + region;
+                    bitmap[(int) (bit >>> 3)] |= (byte) (1 << (bit & 7));
+                }
+            }
+        }
+        return new RegionBitmap(xs.length, regionCount, Base64.getEncoder().encodeToString(bitmap));
+    }
+
     // Called by the main loop, try the get the attribute value based on the string
     public Object getDroneAttributeValue(Drone drone, String attribute)
     {
@@ -313,7 +300,8 @@ public class Utility
         }
         else
         {
-            double distance = calculateDistance(query.getDelivery(), droneBase) * 2;
+            Position delivery = query.getDelivery();
+            double distance = GeometryKernel.roundToFiveDecimals(GeometryKernel.distance(delivery.getLng(), delivery.getLat(), droneBase.getLng(), droneBase.getLat())) * 2;
             double moves = Math.round( distance / unitLength);
             double cost = capability.getCostInitial() + capability.getCostFinal() + moves * capability.getCostPerMove();
 
@@ -472,165 +460,202 @@ public class Utility
 
     }
 
-    private double orient(Position a, Position b, Position c) {
-        double x1 = b.getLng() - a.getLng();
-        double y1 = b.getLat() - a.getLat();
-        double x2 = c.getLng() - a.getLng();
-        double y2 = c.getLat() - a.getLat();
-        return x1 * y2 - y1 * x2;
-    }
-
-    //using error to prevent floating point error
-    private boolean onSegment(Position a, Position b, Position c) {
-        // check if c is between a and b (inclusive)
-        double minLng = Math.min(a.getLng(), b.getLng()) - error;
-        double maxLng = Math.max(a.getLng(), b.getLng()) + error;
-        double minLat = Math.min(a.getLat(), b.getLat()) - error;
-        double maxLat = Math.max(a.getLat(), b.getLat()) + error;
-        return c.getLng() >= minLng && c.getLng() <= maxLng && c.getLat() >= minLat && c.getLat() <= maxLat;
-    }
-
     //using error to prevent floating point error
     public boolean segmentsIntersect(Position p1, Position p2, Position q1, Position q2)
     {
-        double o1 = orient(p1, p2, q1);
-        double o2 = orient(p1, p2, q2);
-        double o3 = orient(q1, q2, p1);
-        double o4 = orient(q1, q2, p2);
-
-        // intersection
-        if (o1 * o2 < 0 && o3 * o4 < 0)
-        {
-            return true;
-        }
-
-        // Touching cases
-        if (Math.abs(o1) < error && onSegment(p1, p2, q1))
-        {
-            return true;
-        }
-        if (Math.abs(o2) < error && onSegment(p1, p2, q2))
-        {
-            return true;
-        }
-        if (Math.abs(o3) < error && onSegment(q1, q2, p1))
-        {
-            return true;
-        }
-        if (Math.abs(o4) < error && onSegment(q1, q2, p2))
-        {
-            return true;
-        }
-
-        return false;
+        return GeometryKernel.segmentsIntersect(p1.getLng(), p1.getLat(), p2.getLng(), p2.getLat(),
+                q1.getLng(), q1.getLat(), q2.getLng(), q2.getLat());
     }
 
     public boolean isPathIntersectingAreaEdges(PositionsRequest path, RestrictedArea restrictedArea)
     {
-        boolean intersects = false;
-        ArrayList<PositionsRequest> edges = getRegionEdges(new Region(restrictedArea.getName(), restrictedArea.getVertices()));
-
-        Position p1 = path.getPosition1();
-        Position p2 = path.getPosition2();
+        ArrayList<Position> vertices = restrictedArea.getVertices();
+        double p1x = path.getPosition1().getLng();
+        double p1y = path.getPosition1().getLat();
+        double p2x = path.getPosition2().getLng();
+        double p2y = path.getPosition2().getLat();
 
-        for (PositionsRequest edge : edges)
+        for (int i = 0; i < vertices.size(); i++)
         {
-            Position q1 = edge.getPosition1();
-            Position q2 = edge.getPosition2();
+            Position q1 = vertices.get(i);
+            Position q2 = vertices.get((i + 1) % vertices.size());
 
-            if (segmentsIntersect(p1, p2, q1, q2))
+            if (GeometryKernel.segmentsIntersect(p1x, p1y, p2x, p2y, q1.getLng(), q1.getLat(), q2.getLng(), q2.getLat()))
             {
-                intersects = true;
-                break;
+                return true;
             }
         }
-        return intersects;
+        return false;
     }
 
-
-
+    // Goes through the snapshot, so only the edges close to the path are looked at
     public boolean isPathCrossingRestrictionArea (PositionsRequest path, ArrayList<RestrictedArea> restrictedAreas)
     {
-        boolean crossed = false;
+        Position from = path.getPosition1();
+        Position to = path.getPosition2();
+        return !getRestrictedAreaSnapshot(restrictedAreas).isLegal(from.getLng(), from.getLat(), to.getLng(), to.getLat());
+    }
 
-        for (RestrictedArea restrictedArea: restrictedAreas)
+    // Return the snapshot for the given restricted areas, only rebuilding it when the areas changed
+    public RestrictedAreaSnapshot getRestrictedAreaSnapshot(ArrayList<RestrictedArea> restrictedAreas)
+    {
+        RestrictedAreaSnapshot current = restrictedAreaSnapshot.get();
+        if (current != null && current.matches(restrictedAreas))
         {
-            Region region = new Region(restrictedArea.getName(), restrictedArea.getVertices());
-            PositionRegionRequest positionRegionRequest = new PositionRegionRequest(path.getPosition2(),region);
-            if(isInRegion(positionRegionRequest) || isPathIntersectingAreaEdges(path,restrictedArea))
-            {
-                crossed = true;
-                break;
-            }
+            return current;
         }
 
-        return crossed;
+        // Every snapshot gets its own version, even when two requests build one at the same time
+        RestrictedAreaSnapshot built = RestrictedAreaSnapshot.build(restrictedAreas, snapshotVersion.incrementAndGet());
+
+        // Another request may have swapped in a snapshot meanwhile, ours is still valid for this caller
+        restrictedAreaSnapshot.compareAndSet(current, built);
+        return built;
     }
 
-    public String getKey(Position position)
+    public ArrayList<Position> aStarSearch(Position start, Position end, ArrayList<RestrictedArea> restrictedAreas)
     {
-        long lngRounded = Math.round(position.getLng() / unitLength);
-        long latRounded = Math.round(position.getLat() / unitLength);
+        return findPath(start, end, restrictedAreas, new PlannerOptions());
+    }
+
+    // Same contract as aStarSearch, using the engine selected in the options.
+    // Legs with nothing near the straight line between their ends are walked along it, without search or cache.
+    // Legs whose end lies in another component of the free space than their start are empty without any search.
+    // The incremental planner repairs the kept search of the leg when the restricted areas changed since it was planned.
+    // Legs the anytime or ALT planners couldn't prove optimal depend on the time left or the landmarks, so they aren't cached,
+    // and neither are the provisional ones the ALT planner found before its landmarks were built.
+    // Neither are legs that came back empty: the search may only have run out of expansions (or been interrupted), and
+    // the legs that really can't be flown are mostly told apart by the component labels before any search.
+    public ArrayList<Position> findPath(Position start, Position end, ArrayList<RestrictedArea> restrictedAreas, PlannerOptions options)
+    {
+        RestrictedAreaSnapshot snapshot = getRestrictedAreaSnapshot(restrictedAreas);
+        ArrayList<Position> straight = options.isStraightLegs() ? straightLegs.find(start, end, snapshot) : null;
+        if (straight != null)
+        {
+            return straight;
+        }
+        if (!isReachable(start, end, snapshot))
+        {
+            return new ArrayList<>();
+        }
+        ArrayList<Position> cached = pathCache.find(start, end, snapshot, options);
+        if (cached != null)
+        {
+            return cached;
+        }
 
-        return lngRounded + "," + latRounded;
-    }
+        SearchStats stats = new SearchStats();
+        ArrayList<Position> path = (options.getMode() == PlannerMode.INCREMENTAL)
+                ? incrementalLegs.findPath(start, end, snapshot, options, stats)
+                : options.getMode().getPlanner().findPath(start, end, snapshot, options, stats);
+        logger.debug("{} leg of {} moves: {}, {}, {}", options.getMode(), path.size() - 1, stats, pathCache, straightLegs);
 
-    public ArrayList<Position> calculatePath(Node node)
-    {
-        ArrayList<Position> path = new ArrayList<>();
-        while(node.parent != null)
+        options.recordSuboptimalityBound(stats.getSuboptimalityBound());
+        if (!path.isEmpty() && stats.getSuboptimalityBound() <= 1 && !stats.isProvisional())
         {
-            path.add(node.position);
-            node = node.parent;
+            pathCache.put(start, end, snapshot, options, path);
         }
-        path.add(node.position);
-        Collections.reverse(path);
         return path;
     }
 
-    public ArrayList<Position> aStarSearch(Position start, Position end, ArrayList<RestrictedArea> restrictedAreas)
+    private boolean isReachable(Position start, Position end, RestrictedAreaSnapshot snapshot)
     {
-        // Set up
-        int expansions = 0;
-        int maxExpansions = 1000000;
-        PriorityQueue<Node> minHeap = new PriorityQueue<>();
-        Set<String> visited = new HashSet<>();
-        minHeap.add(new Node( null, start,0.0,calculateDistance(start,end)));
-
-        //main loop
-        while (!minHeap.isEmpty())
+        if (snapshot.getComponentLabels().mayReach(start.getLng(), start.getLat(), end.getLng(), end.getLat()))
         {
-            Node u = minHeap.poll();
+            return true;
+        }
+        logger.debug("Leg to {} rejected, its end can't be reached from {}", end, start);
+        return false;
+    }
 
-            if (expansions++ >= maxExpansions)
+    /**
+     * Paths from one start to every end, in the order of the ends (empty when an end can't be reached).
+     * With the lattice planner the ends neither walked straight nor unreachable are searched together in one expansion
+     * from the start, the other planners plan them one by one.
+     * The path cache is left out: which path a shared search picks among equally short ones depends on its other ends,
+     * so cached legs from another request (or date) would change the paths and counts of this one.
+     */
+    public ArrayList<ArrayList<Position>> findPaths(Position start, List<Position> ends, ArrayList<RestrictedArea> restrictedAreas, PlannerOptions options)
+    {
+        if (options.getMode() != PlannerMode.LATTICE)
+        {
+            ArrayList<ArrayList<Position>> paths = new ArrayList<>();
+            for (Position end : ends)
             {
-                return new ArrayList<>(); // treat as "no path", too many expansions
+                paths.add(findPath(start, end, restrictedAreas, options));
             }
+            return paths;
+        }
 
-            if (calculateDistance(u.getPosition(), end) < unitLength)
+        RestrictedAreaSnapshot snapshot = getRestrictedAreaSnapshot(restrictedAreas);
+        ArrayList<ArrayList<Position>> paths = new ArrayList<>();
+        ArrayList<Position> missing = new ArrayList<>();
+        for (Position end : ends)
+        {
+            ArrayList<Position> straight = options.isStraightLegs() ? straightLegs.find(start, end, snapshot) : null;
+            if (straight == null && !isReachable(start, end, snapshot))
             {
-                return calculatePath(u);
+                paths.add(new ArrayList<>());
+                continue;
             }
-            if (!visited.contains(getKey(u.getPosition())))
+            paths.add(straight);
+            if (straight == null)
             {
-                visited.add(getKey(u.getPosition()));
-                for (double angle = 0.0; angle < 360; angle += 22.5)
-                {
-                    double angleRad = Math.toRadians(angle);
-                    Double nextLng = unitLength * Math.cos(angleRad) + u.getPosition().getLng();
-                    Double nextLat = unitLength * Math.sin(angleRad) + u.getPosition().getLat();
-                    Position nextPosition = new Position(nextLng,nextLat);
-                    PositionsRequest path = new  PositionsRequest(u.getPosition(),nextPosition);
-                    Node v = new Node(u, nextPosition, u.getGScore() + unitLength, calculateDistance(nextPosition, end));
-
-                    if (!visited.contains(getKey(v.getPosition())) && !isPathCrossingRestrictionArea(path,restrictedAreas))
-                    {
-                        minHeap.add(v);
-                    }
-                }
+                missing.add(end);
             }
         }
-        return new ArrayList<>();
+        if (missing.isEmpty())
+        {
+            return paths;
+        }
+
+        SearchStats stats = new SearchStats();
+        ArrayList<ArrayList<Position>> found = MultiGoalSearch.search(start, missing, snapshot, options.getMaxExpansions(), stats);
+        logger.debug("{} goals from one start: {}", missing.size(), stats);
+
+        int next = 0;
+        for (int i = 0; i < paths.size(); i++)
+        {
+            if (paths.get(i) == null)
+            {
+                paths.set(i, found.get(next++));
+            }
+        }
+        return paths;
+    }
+
+    // Moves of every leg between the service points and the delivery points of one date, planned in parallel one start at a time.
+    // Legs back to a service point are counted on its distance field when it is built, and searched like the others until then.
+    public DistanceMatrix getDistanceMatrix(ArrayList<ServicePoint> servicePoints, ArrayList<MedicineDispatchRequest> queries, ArrayList<RestrictedArea> restrictedAreas, PlannerOptions options)
+    {
+        ArrayList<Position> servicePointPositions = new ArrayList<>();
+        for (ServicePoint servicePoint : servicePoints)
+        {
+            servicePointPositions.add(servicePoint.getLocation());
+        }
+        ArrayList<Position> deliveryPositions = new ArrayList<>();
+        for (MedicineDispatchRequest query : queries)
+        {
+            deliveryPositions.add(query.getDelivery());
+        }
+
+        RestrictedAreaSnapshot snapshot = getRestrictedAreaSnapshot(restrictedAreas);
+        IdentityHashMap<Position, DistanceField> fields = new IdentityHashMap<>();
+        for (Position servicePoint : servicePointPositions)
+        {
+            fields.put(servicePoint, distanceFields.get(servicePoint, snapshot));
+        }
+
+        return DistanceMatrix.build(servicePointPositions, deliveryPositions,
+                (from, to) -> movesHome(from, fields.get(to)),
+                (from, to) -> findPaths(from, to, restrictedAreas, options), ForkJoinPool.commonPool());
+    }
+
+    // Only a bound for the limits of a flight, the leg flown home is planned with findPath, which never takes more moves
+    private int movesHome(Position from, DistanceField field)
+    {
+        int moves = (field == null) ? DistanceField.unknown : field.homeMoves(from.getLng(), from.getLat());
+        return (moves == DistanceField.unknown) ? DistanceMatrix.unreachable : moves;
     }
 
     private String safe(String s) {
@@ -0,0 +1,310 @@
+package uk.ac.ed.acp.cw2.benchmark;
+
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.RestrictedArea;
+import uk.ac.ed.acp.cw2.pathfinding.EdgeIndex;
+import uk.ac.ed.acp.cw2.pathfinding.Heuristic;
+import uk.ac.ed.acp.cw2.pathfinding.Landmarks;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.LatticeAStar;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerMode;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerOptions;
+import uk.ac.ed.acp.cw2.pathfinding.RestrictedAreaSnapshot;
+import uk.ac.ed.acp.cw2.pathfinding.SearchStats;
+import uk.ac.ed.acp.cw2.utility.GeometryKernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark harness comparing the planner engines on a few fixed scenarios.
+ * Not a test (surefire only picks up *Tests classes), run it with
+ * mvn -B test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=uk.ac.ed.acp.cw2.benchmark.PlannerBenchmark
+ */
+public class PlannerBenchmark
+{
+    private static final int warmupRuns = 3;
+    private static final int measuredRuns = 5;
+
+    record Scenario(String name, Position start, Position end, List<RestrictedArea> restrictedAreas)
+    {
+    }
+
+    static RestrictedArea area(String name, double... coordinates)
+    {
+        ArrayList<Position> vertices = new ArrayList<>();
+        for (int i = 0; i < coordinates.length; i += 2)
+        {
+            vertices.add(new Position(coordinates[i], coordinates[i + 1]));
+        }
+        vertices.add(vertices.getFirst());
+        return new RestrictedArea(name, 0, vertices);
+    }
+
+    static List<Scenario> scenarios()
+    {
+        // Roughly the George Square area the REST service returns
+        RestrictedArea georgeSquare = area("George Square",
+                -3.190578818321228, 55.94402412577528,
+                -3.1899887323379517, 55.94284650540911,
+                -3.187097311019897, 55.94328811724263,
+                -3.187682032585144, 55.944477740393744);
+
+        // A deep cup that the straight line runs into, so the lattice search floods it before leaving
+        RestrictedArea cup = area("Cup",
+                -3.195, 55.935,
+                -3.175, 55.935,
+                -3.175, 55.950,
+                -3.177, 55.950,
+                -3.177, 55.937,
+                -3.193, 55.937,
+                -3.193, 55.950,
+                -3.195, 55.950);
+
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(new Scenario("open field", new Position(-3.20, 55.94), new Position(-3.17, 55.95), List.of()));
+        scenarios.add(new Scenario("George Square detour", new Position(-3.1915, 55.9435), new Position(-3.1860, 55.9438), List.of(georgeSquare)));
+        scenarios.add(new Scenario("out of a cup", new Position(-3.185, 55.945), new Position(-3.185, 55.930), List.of(cup)));
+        scenarios.add(new Scenario("long haul past a cup", new Position(-3.185, 55.945), new Position(-3.10, 55.90), List.of(cup)));
+        return scenarios;
+    }
+
+    static void run(Scenario scenario, PlannerMode mode)
+    {
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(scenario.restrictedAreas(), 0);
+        PlannerOptions options = new PlannerOptions();
+        options.setMode(mode);
+
+        // Landmarks are built in the background, time the searches that use them
+        if (mode == PlannerMode.ALT)
+        {
+            snapshot.getDerived(Landmarks.class, Landmarks::new).await();
+        }
+
+        int moves = 0;
+        SearchStats stats = null;
+        for (int i = 0; i < warmupRuns; i++)
+        {
+            mode.getPlanner().findPath(scenario.start(), scenario.end(), snapshot, options, new SearchStats());
+        }
+
+        long started = System.nanoTime();
+        for (int i = 0; i < measuredRuns; i++)
+        {
+            stats = new SearchStats();
+            moves = mode.getPlanner().findPath(scenario.start(), scenario.end(), snapshot, options, stats).size() - 1;
+        }
+        double millis = (System.nanoTime() - started) / 1e6 / measuredRuns;
+
+        System.out.printf("%-22s %-14s %10.2f ms %10d expansions (%d backward) %8d max open %6d moves (bound %.2f)%n",
+                scenario.name(), mode, millis, stats.getExpansions(), stats.getBackwardExpansions(), stats.getMaxOpenSize(), moves, stats.getSuboptimalityBound());
+    }
+
+    static void runSearch(Scenario scenario, String label, Heuristic heuristic)
+    {
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(scenario.restrictedAreas(), 0);
+        Position start = scenario.start();
+        Position end = scenario.end();
+
+        int moves = 0;
+        SearchStats stats = null;
+        for (int i = 0; i < warmupRuns; i++)
+        {
+            LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), heuristic, snapshot, LatticeAStar.defaultMaxExpansions, new SearchStats());
+        }
+
+        long started = System.nanoTime();
+        for (int i = 0; i < measuredRuns; i++)
+        {
+            stats = new SearchStats();
+            moves = LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), heuristic, snapshot, LatticeAStar.defaultMaxExpansions, stats).size() - 1;
+        }
+        double millis = (System.nanoTime() - started) / 1e6 / measuredRuns;
+
+        System.out.printf("%-22s %-14s %10.2f ms %10d expansions %8d max open %6d moves%n",
+                scenario.name(), label, millis, stats.getExpansions(), stats.getMaxOpenSize(), moves);
+    }
+
+    // The lattice search on the bucket queue against the same search on the binary heap
+    static void compareOpenLists(Scenario scenario)
+    {
+        Heuristic buckets = Heuristic.lattice(scenario.end().getLng(), scenario.end().getLat());
+        // Same estimate, but not known to be consistent, so the search keeps the heap
+        Heuristic heap = buckets::estimate;
+        runSearch(scenario, "binary heap", heap);
+        runSearch(scenario, "bucket queue", buckets);
+    }
+
+    // The straight line heuristic against the fewest moves of the 16 directions
+    static void compareHeuristics(Scenario scenario)
+    {
+        runSearch(scenario, "straight line", Heuristic.euclidean(scenario.end().getLng(), scenario.end().getLat()));
+        runSearch(scenario, "lattice", Heuristic.lattice(scenario.end().getLng(), scenario.end().getLat()));
+    }
+
+    // Time of one estimate over random positions around the goal, each function timed by its own method
+    static void timeEstimates()
+    {
+        Random random = new Random(1);
+        double[] positions = new double[2 << 16];
+        for (int i = 0; i < positions.length; i += 2)
+        {
+            positions[i] = -3.20 + random.nextDouble() * 0.03;
+            positions[i + 1] = 55.93 + random.nextDouble() * 0.03;
+        }
+
+        double straightLine = 0;
+        double lattice = 0;
+        for (int run = 0; run <= 10 * warmupRuns; run++)
+        {
+            straightLine = timeStraightLine(positions);
+            lattice = timeLattice(positions);
+        }
+        System.out.printf("straight line %6.2f ns per estimate, lattice %6.2f ns per estimate%n", straightLine, lattice);
+    }
+
+    private static double timeStraightLine(double[] positions)
+    {
+        double sum = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < positions.length; i += 2)
+        {
+            sum += Lattice.movesBetween(positions[i], positions[i + 1], -3.186, 55.944);
+        }
+        return (System.nanoTime() - started) / (positions.length / 2.0) + ((sum < 0) ? 1 : 0);
+    }
+
+    private static double timeLattice(double[] positions)
+    {
+        double sum = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < positions.length; i += 2)
+        {
+            sum += Lattice.fewestMovesBetween(positions[i], positions[i + 1], -3.186, 55.944);
+        }
+        return (System.nanoTime() - started) / (positions.length / 2.0) + ((sum < 0) ? 1 : 0);
+    }
+
+    // Regular polygon of the given number of corners, about as wide as George Square
+    static RestrictedArea polygon(int corners)
+    {
+        double[] coordinates = new double[2 * corners];
+        for (int i = 0; i < corners; i++)
+        {
+            coordinates[2 * i] = -3.189 + 0.0015 * Math.cos(2 * Math.PI * i / corners);
+            coordinates[2 * i + 1] = 55.9435 + 0.0008 * Math.sin(2 * Math.PI * i / corners);
+        }
+        return area(corners + " corners", coordinates);
+    }
+
+    // Time of the exact check of one move against one area, for the moves of random nodes around the area:
+    // through the buckets of the edge index, as the snapshot does, and against every edge of the area in turn
+    static void timeSegmentChecks()
+    {
+        List<RestrictedArea> areas = new ArrayList<>(List.of(scenarios().get(1).restrictedAreas().getFirst(), scenarios().get(2).restrictedAreas().getFirst()));
+        for (int corners : new int[]{16, 32, 64})
+        {
+            areas.add(polygon(corners));
+        }
+
+        for (RestrictedArea area : areas)
+        {
+            EdgeIndex edgeIndex = RestrictedAreaSnapshot.build(List.of(area), 0).getEdgeIndex();
+            List<Position> vertices = area.getVertices();
+            double[] edges = new double[4 * vertices.size()];
+            for (int i = 0; i < vertices.size(); i++)
+            {
+                Position next = vertices.get((i + 1) % vertices.size());
+                edges[4 * i] = vertices.get(i).getLng();
+                edges[4 * i + 1] = vertices.get(i).getLat();
+                edges[4 * i + 2] = next.getLng();
+                edges[4 * i + 3] = next.getLat();
+            }
+
+            double minLng = vertices.stream().mapToDouble(Position::getLng).min().orElseThrow() - 2 * Lattice.unitLength;
+            double maxLng = vertices.stream().mapToDouble(Position::getLng).max().orElseThrow() + 2 * Lattice.unitLength;
+            double minLat = vertices.stream().mapToDouble(Position::getLat).min().orElseThrow() - 2 * Lattice.unitLength;
+            double maxLat = vertices.stream().mapToDouble(Position::getLat).max().orElseThrow() + 2 * Lattice.unitLength;
+            Random random = new Random(1);
+            double[] moves = new double[4 * Lattice.directions * 4096];
+            for (int i = 0; i < moves.length; i += 4 * Lattice.directions)
+            {
+                double lng = minLng + random.nextDouble() * (maxLng - minLng);
+                double lat = minLat + random.nextDouble() * (maxLat - minLat);
+                for (int direction = 0; direction < Lattice.directions; direction++)
+                {
+                    int move = i + 4 * direction;
+                    moves[move] = lng;
+                    moves[move + 1] = lat;
+                    moves[move + 2] = lng + Lattice.stepLng(direction);
+                    moves[move + 3] = lat + Lattice.stepLat(direction);
+                }
+            }
+
+            // Best of many runs, the machine is shared
+            double buckets = Double.POSITIVE_INFINITY;
+            double everyEdge = Double.POSITIVE_INFINITY;
+            for (int run = 0; run <= 30 * warmupRuns; run++)
+            {
+                buckets = Math.min(buckets, timeBucketChecks(edgeIndex, moves));
+                everyEdge = Math.min(everyEdge, timeEdgeChecks(edges, moves));
+            }
+            System.out.printf("%-14s %3d edges: buckets %6.1f ns per move, every edge %6.1f ns per move%n",
+                    area.getName(), edgeIndex.edgeCount(), buckets, everyEdge);
+        }
+    }
+
+    private static double timeBucketChecks(EdgeIndex edgeIndex, double[] moves)
+    {
+        int crossing = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < moves.length; i += 4)
+        {
+            if (edgeIndex.isSegmentIntersecting(0, moves[i], moves[i + 1], moves[i + 2], moves[i + 3]))
+            {
+                crossing++;
+            }
+        }
+        return (System.nanoTime() - started) / (moves.length / 4.0) + ((crossing < 0) ? 1 : 0);
+    }
+
+    private static double timeEdgeChecks(double[] edges, double[] moves)
+    {
+        int crossing = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < moves.length; i += 4)
+        {
+            for (int edge = 0; edge < edges.length; edge += 4)
+            {
+                if (GeometryKernel.segmentsIntersect(moves[i], moves[i + 1], moves[i + 2], moves[i + 3], edges[edge], edges[edge + 1], edges[edge + 2], edges[edge + 3]))
+                {
+                    crossing++;
+                    break;
+                }
+            }
+        }
+        return (System.nanoTime() - started) / (moves.length / 4.0) + ((crossing < 0) ? 1 : 0);
+    }
+
+    public static void main(String[] args)
+    {
+        for (Scenario scenario : scenarios())
+        {
+            for (PlannerMode mode : PlannerMode.values())
+            {
+                run(scenario, mode);
+            }
+        }
+        for (Scenario scenario : scenarios())
+        {
+            compareOpenLists(scenario);
+        }
+        for (Scenario scenario : scenarios())
+        {
+            compareHeuristics(scenario);
+        }
+        timeEstimates();
+        timeSegmentChecks();
+    }
+}
@@ -881,4 +881,52 @@ public class ControllerTests
                     .content(requestBody))
                     .andExpect(status().isBadRequest());
     }
+
+    private Region getSquareRegion(double low, double high)
+    {
+        ArrayList<Position> vertices =  new ArrayList<>();
+        vertices.add(new Position(low,low));
+        vertices.add(new Position(low,high));
+        vertices.add(new Position(high,high));
+        vertices.add(new Position(high,low));
+        vertices.add(new Position(low,low));
+        return new Region("Name",vertices);
+    }
+
+    @Test
+    public void isInRegions_should_returnBitmapAnd200_whenPositionsAndRegionsAreGiven() throws Exception
+    {
+        ArrayList<Position> positions = new ArrayList<>();
+        positions.add(new Position(0.02,0.02));
+        positions.add(new Position(0.12,0.12));
+        positions.add(new Position(0.07,0.07));
+        positions.add(new Position(0.5,0.5));
+        ArrayList<Region> regions = new ArrayList<>();
+        regions.add(getSquareRegion(0.0, 0.1));
+        regions.add(getSquareRegion(0.05, 0.15));
+        PositionsRegionsRequest requestBody = new PositionsRegionsRequest(positions,regions);
+
+        // Bits 0 (first position, first region), 3, 4 and 5: the byte 0x39
+        this.mockMvc.perform(post("/api/v1/isInRegions")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(requestBody)))
+                    .andExpect(status().isOk())
+                    .andExpect(content().json("{\"positions\":4,\"regions\":2,\"bitmap\":\"OQ==\"}"));
+    }
+
+    @Test
+    public void isInRegions_should_return400_whenARegionIsNotClosed() throws Exception
+    {
+        ArrayList<Position> positions = new ArrayList<>();
+        positions.add(new Position(0.02,0.02));
+        ArrayList<Region> regions = new ArrayList<>();
+        regions.add(getSquareRegion(0.0, 0.1));
+        regions.getFirst().getVertices().removeLast();
+        PositionsRegionsRequest requestBody = new PositionsRegionsRequest(positions,regions);
+
+        this.mockMvc.perform(post("/api/v1/isInRegions")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(requestBody)))
+                    .andExpect(status().isBadRequest());
+    }
 }
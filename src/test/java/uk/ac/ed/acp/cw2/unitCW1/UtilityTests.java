@@ -10,11 +10,18 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.when;
 import uk.ac.ed.acp.cw2.data.Position;
 import uk.ac.ed.acp.cw2.data.PositionRegionRequest;
+import uk.ac.ed.acp.cw2.data.PositionsRegionsRequest;
 import uk.ac.ed.acp.cw2.data.PositionsRequest;
 import uk.ac.ed.acp.cw2.data.Region;
+import uk.ac.ed.acp.cw2.data.RegionBitmap;
+import uk.ac.ed.acp.cw2.utility.GeometryKernel;
 import uk.ac.ed.acp.cw2.utility.Utility;
 
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Random;
 
 /**
  * Test class that conduct unit test for the Utility class.
@@ -72,6 +79,33 @@ public class UtilityTests
         assert(0.00000 == result);
     }
 
+    @Test
+    public void calculateDistance_should_roundLikeDecimalFormat_whenTheDistanceIsOnOrNearATie()
+    {
+        DecimalFormat df = new DecimalFormat("#.#####");
+        df.setRoundingMode(RoundingMode.HALF_EVEN);
+        double[] distances = {0.015625, 0.046875, 0.000015, 0.000025, 0.000005, 0.0000049, 1.234565, 123456.000005, 0.0, 0.00015};
+
+        for (double distance : distances)
+        {
+            for (double value : new double[]{distance, Math.nextUp(distance), Math.nextDown(distance)})
+            {
+                double expected = Double.parseDouble(df.format(value));
+                assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(GeometryKernel.roundToFiveDecimals(value)));
+            }
+        }
+
+        // Exact binary ties go to the even digit
+        assertEquals(0.01562, GeometryKernel.roundToFiveDecimals(0.015625));
+        assertEquals(0.04688, GeometryKernel.roundToFiveDecimals(0.046875));
+
+        when(position1.getLng()).thenReturn(0.0);
+        when(position1.getLat()).thenReturn(0.0);
+        when(position2.getLng()).thenReturn(0.015625);
+        when(position2.getLat()).thenReturn(0.0);
+        assertEquals(0.01562, utility.calculateDistance(position1, position2));
+    }
+
     @Test
     public void getRegionEdges_should_returnCorrectListOfEdges_whenValidVerticesAreGiven()
     {
@@ -454,4 +488,49 @@ public class UtilityTests
 
         assert(result);
     }
+
+    @Test
+    public void isInRegions_should_agreeWithIsInRegion_forEveryPositionAndRegion()
+    {
+        ArrayList<Position> notched = new ArrayList<>();
+        double[][] corners = {{-3.190, 55.940}, {-3.180, 55.940}, {-3.180, 55.945}, {-3.185, 55.945}, {-3.185, 55.9425},
+                {-3.1851, 55.9425}, {-3.1851, 55.945}, {-3.190, 55.945}, {-3.190, 55.940}};
+        for (double[] corner : corners)
+        {
+            notched.add(new Position(corner[0], corner[1]));
+        }
+        ArrayList<Position> triangle = new ArrayList<>();
+        triangle.add(new Position(-3.188, 55.941));
+        triangle.add(new Position(-3.182, 55.941));
+        triangle.add(new Position(-3.185, 55.944));
+        triangle.add(new Position(-3.188, 55.941));
+        ArrayList<Region> regions = new ArrayList<>();
+        regions.add(new Region("notched", notched));
+        regions.add(new Region("triangle", triangle));
+
+        // Random positions around both regions, plus every vertex (on an edge counts as inside)
+        Random random = new Random(11);
+        ArrayList<Position> positions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+        {
+            positions.add(new Position(-3.1915 + random.nextDouble() * 0.013, 55.9385 + random.nextDouble() * 0.008));
+        }
+        positions.addAll(notched);
+        positions.addAll(triangle);
+
+        RegionBitmap result = utility.isInRegions(new PositionsRegionsRequest(positions, regions));
+        byte[] bitmap = Base64.getDecoder().decode(result.getBitmap());
+
+        assertEquals(positions.size(), result.getPositions());
+        assertEquals(regions.size(), result.getRegions());
+        for (int p = 0; p < positions.size(); p++)
+        {
+            for (int r = 0; r < regions.size(); r++)
+            {
+                int bit = p * regions.size() + r;
+                boolean inside = (bitmap[bit / 8] & (1 << (bit % 8))) != 0;
+                assertEquals(utility.isInRegion(new PositionRegionRequest(positions.get(p), regions.get(r))), inside);
+            }
+        }
+    }
 }
@@ -0,0 +1,1183 @@
+package uk.ac.ed.acp.cw2.unitCW2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.web.client.RestTemplate;
+import uk.ac.ed.acp.cw2.data.Availability;
+import uk.ac.ed.acp.cw2.data.Capability;
+import uk.ac.ed.acp.cw2.data.Deliveries;
+import uk.ac.ed.acp.cw2.data.Drone;
+import uk.ac.ed.acp.cw2.data.DronePath;
+import uk.ac.ed.acp.cw2.data.DroneAvailability;
+import uk.ac.ed.acp.cw2.data.MedicineDispatchRequest;
+import uk.ac.ed.acp.cw2.data.Position;
+import uk.ac.ed.acp.cw2.data.PositionRegionRequest;
+import uk.ac.ed.acp.cw2.data.PositionsRequest;
+import uk.ac.ed.acp.cw2.data.Region;
+import uk.ac.ed.acp.cw2.data.Requirements;
+import uk.ac.ed.acp.cw2.data.RestrictedArea;
+import uk.ac.ed.acp.cw2.data.ReturnedPath;
+import uk.ac.ed.acp.cw2.data.ServicePoint;
+import uk.ac.ed.acp.cw2.data.ServicePointDrones;
+import uk.ac.ed.acp.cw2.pathfinding.AnytimeAStar;
+import uk.ac.ed.acp.cw2.pathfinding.BidirectionalAStar;
+import uk.ac.ed.acp.cw2.pathfinding.ComponentLabels;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceField;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceFieldRegistry;
+import uk.ac.ed.acp.cw2.pathfinding.DistanceMatrix;
+import uk.ac.ed.acp.cw2.pathfinding.EdgeIndex;
+import uk.ac.ed.acp.cw2.pathfinding.HierarchicalPlanner;
+import uk.ac.ed.acp.cw2.pathfinding.Heuristic;
+import uk.ac.ed.acp.cw2.pathfinding.IncrementalAStar;
+import uk.ac.ed.acp.cw2.pathfinding.IncrementalLegs;
+import uk.ac.ed.acp.cw2.pathfinding.Landmarks;
+import uk.ac.ed.acp.cw2.pathfinding.Lattice;
+import uk.ac.ed.acp.cw2.pathfinding.LatticeAStar;
+import uk.ac.ed.acp.cw2.pathfinding.LongIntHashMap;
+import uk.ac.ed.acp.cw2.pathfinding.MemoryBoundedAStar;
+import uk.ac.ed.acp.cw2.pathfinding.MoveValidator;
+import uk.ac.ed.acp.cw2.pathfinding.MultiGoalSearch;
+import uk.ac.ed.acp.cw2.pathfinding.ParallelAStar;
+import uk.ac.ed.acp.cw2.pathfinding.PathCache;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerMode;
+import uk.ac.ed.acp.cw2.pathfinding.PlannerOptions;
+import uk.ac.ed.acp.cw2.pathfinding.RestrictedAreaSnapshot;
+import uk.ac.ed.acp.cw2.pathfinding.SearchStats;
+import uk.ac.ed.acp.cw2.pathfinding.SearchWorkspace;
+import uk.ac.ed.acp.cw2.pathfinding.StraightLegs;
+import uk.ac.ed.acp.cw2.service.DataFetchServiceImplementation;
+import uk.ac.ed.acp.cw2.service.RestServiceImplementation;
+import uk.ac.ed.acp.cw2.utility.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class that conduct unit test for the lattice search engines.
+ */
+public class PathfindingTests
+{
+    Utility utility = new Utility(new ObjectMapper());
+
+    private ArrayList<RestrictedArea> getRestrictedAreas()
+    {
+        // A concave polygon with a thin notch, closed like the ones returned by the REST service
+        ArrayList<Position> vertices = new ArrayList<>();
+        vertices.add(new Position(-3.190, 55.940));
+        vertices.add(new Position(-3.180, 55.940));
+        vertices.add(new Position(-3.180, 55.945));
+        vertices.add(new Position(-3.1849, 55.9425));
+        vertices.add(new Position(-3.1851, 55.9450));
+        vertices.add(new Position(-3.190, 55.945));
+        vertices.add(new Position(-3.190, 55.940));
+
+        ArrayList<RestrictedArea> restrictedAreas = new ArrayList<>();
+        restrictedAreas.add(new RestrictedArea("notched", 1, vertices));
+        return restrictedAreas;
+    }
+
+    private RestrictedArea getRectangle(String name, double minLng, double minLat, double maxLng, double maxLat)
+    {
+        ArrayList<Position> vertices = new ArrayList<>();
+        vertices.add(new Position(minLng, minLat));
+        vertices.add(new Position(maxLng, minLat));
+        vertices.add(new Position(maxLng, maxLat));
+        vertices.add(new Position(minLng, maxLat));
+        vertices.add(new Position(minLng, minLat));
+        return new RestrictedArea(name, 2, vertices);
+    }
+
+    // Reference answer, every edge of every area checked with the DTO based helpers
+    private boolean isPathCrossingByBruteForce(PositionsRequest path, ArrayList<RestrictedArea> restrictedAreas)
+    {
+        for (RestrictedArea restrictedArea : restrictedAreas)
+        {
+            Region region = new Region(restrictedArea.getName(), restrictedArea.getVertices());
+            if (utility.isInRegion(new PositionRegionRequest(path.getPosition2(), region)) || utility.isPathIntersectingAreaEdges(path, restrictedArea))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void key_should_roundTripCellIndices_whenNegativeCoordinatesAreGiven()
+    {
+        long key = Lattice.key(-3.18635808, 55.94468067);
+
+        assert(Lattice.keyX(key) == Lattice.cellX(-3.18635808));
+        assert(Lattice.keyY(key) == Lattice.cellY(55.94468067));
+        assert(key != Lattice.key(-3.18635808 + Lattice.unitLength, 55.94468067));
+    }
+
+    @Test
+    public void fewestMovesBetween_should_neverExceedMovesTaken_andDropByAtMostOnePerMove()
+    {
+        // Every sequence of four moves: the bound of where it ends is at most four and never below the straight line
+        for (int sequence = 0; sequence < 1 << 16; sequence++)
+        {
+            double lng = -3.18635808;
+            double lat = 55.94468067;
+            for (int move = 0; move < 4; move++)
+            {
+                int direction = (sequence >> (4 * move)) & 0xF;
+                lng += Lattice.stepLng(direction);
+                lat += Lattice.stepLat(direction);
+            }
+            double bound = Lattice.fewestMovesBetween(-3.18635808, 55.94468067, lng, lat);
+            assert(bound <= 4 + 1e-9);
+            assert(bound >= Lattice.movesBetween(-3.18635808, 55.94468067, lng, lat) - 1e-9);
+        }
+
+        // From anywhere, no move gets the bound down by more than one
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++)
+        {
+            double lng = -3.19 + random.nextDouble() * 0.01;
+            double lat = 55.94 + random.nextDouble() * 0.01;
+            double bound = Lattice.fewestMovesBetween(lng, lat, -3.186, 55.944);
+            for (int direction = 0; direction < Lattice.directions; direction++)
+            {
+                assert(bound <= 1 + Lattice.fewestMovesBetween(lng + Lattice.stepLng(direction), lat + Lattice.stepLat(direction), -3.186, 55.944) + 1e-9);
+            }
+        }
+        assert(Math.abs(Lattice.fewestMovesBetween(0, 0, 10 * Lattice.stepLng(3), 10 * Lattice.stepLat(3)) - 10) < 1e-9);
+    }
+
+    @Test
+    public void longIntHashMap_should_keepAllEntries_whenGrowingPastInitialCapacity()
+    {
+        LongIntHashMap map = new LongIntHashMap(4);
+        for (int i = 0; i < 1000; i++)
+        {
+            map.put(Lattice.key(-i, i), i);
+        }
+
+        assert(map.size() == 1000);
+        for (int i = 0; i < 1000; i++)
+        {
+            assert(map.get(Lattice.key(-i, i)) == i);
+        }
+        assert(map.get(Lattice.key(1, 1)) == LongIntHashMap.missing);
+    }
+
+    @Test
+    public void searchWorkspace_should_popInOrder_whenQueuedNodesGetALowerF()
+    {
+        SearchWorkspace workspace = new SearchWorkspace();
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++)
+        {
+            workspace.push(workspace.addNode(i, i, -1, 0, 1000 + random.nextInt(1000)));
+        }
+        for (int i = 0; i < 500; i += 3)
+        {
+            workspace.decreaseKey(i, -i, -i, 0, 1, workspace.f(i) - 1000 + random.nextInt(500));
+        }
+
+        assert(workspace.heapSize() == 500);
+        double previous = Double.NEGATIVE_INFINITY;
+        while (!workspace.isHeapEmpty())
+        {
+            int node = workspace.pop();
+            assert(!workspace.isQueued(node));
+            assert(workspace.f(node) >= previous);
+            previous = workspace.f(node);
+        }
+        assert(workspace.lng(3) == -3 && workspace.parent(3) == 0);
+    }
+
+    @Test
+    public void searchWorkspace_should_dropWorkspaces_whenTheirNodesOrClosedSetGrewPastTheRetainedSize()
+    {
+        SearchWorkspace small = SearchWorkspace.acquire();
+        small.close();
+        assert(SearchWorkspace.acquire() == small);
+
+        // Many nodes
+        SearchWorkspace grown = SearchWorkspace.acquire();
+        for (int i = 0; i <= SearchWorkspace.retainedCapacity; i++)
+        {
+            grown.addNode(i, i, -1, 0, 0);
+        }
+        grown.close();
+        SearchWorkspace next = SearchWorkspace.acquire();
+        assert(next != grown);
+        next.close();
+
+        // Few nodes but a large closed set
+        SearchWorkspace wide = SearchWorkspace.acquire();
+        for (int i = 0; i <= 2 * SearchWorkspace.retainedCapacity; i++)
+        {
+            wide.closed().put(Lattice.key(i, -i), i);
+        }
+        wide.close();
+        next = SearchWorkspace.acquire();
+        assert(next != wide);
+        next.close();
+        small.close();
+    }
+
+    @Test
+    public void bucketQueue_should_popInSliceOrder_andFindAsShortAPathAsTheHeap()
+    {
+        SearchWorkspace workspace = new SearchWorkspace();
+        workspace.useBuckets();
+        Random random = new Random(11);
+        workspace.push(workspace.addNode(0, 0, -1, 0, 10));
+        double previous = Double.NEGATIVE_INFINITY;
+        int popped = 0;
+        while (!workspace.isHeapEmpty())
+        {
+            int node = workspace.pop();
+            popped++;
+            assert(!workspace.isQueued(node));
+            assert(workspace.f(node) > previous - 1.0 / 64);
+            previous = Math.max(previous, workspace.f(node));
+
+            // Children within two moves above, some of the queued nodes brought down towards the popped f
+            for (int i = 0; i < 3 && workspace.nodeCount() < 2000; i++)
+            {
+                workspace.push(workspace.addNode(0, 0, node, 0, workspace.f(node) + 2 * random.nextDouble()));
+            }
+            int other = random.nextInt(workspace.nodeCount());
+            if (workspace.isQueued(other))
+            {
+                workspace.decreaseKey(other, 0, 0, node, 0, workspace.f(node) + (workspace.f(other) - workspace.f(node)) / 2);
+            }
+        }
+        assert(popped == workspace.nodeCount());
+
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(List.of(getRectangle("Wall", -3.1880, 55.9420, -3.1870, 55.9460)), 0);
+        Heuristic onBuckets = Heuristic.euclidean(-3.1850, 55.9441);
+        Heuristic onHeap = onBuckets::estimate;
+        ArrayList<Position> bucketPath = LatticeAStar.search(-3.1900, 55.9440, -3.1850, 55.9441, onBuckets, snapshot, LatticeAStar.defaultMaxExpansions, new SearchStats());
+        ArrayList<Position> heapPath = LatticeAStar.search(-3.1900, 55.9440, -3.1850, 55.9441, onHeap, snapshot, LatticeAStar.defaultMaxExpansions, new SearchStats());
+
+        assert(onBuckets.isConsistent() && !onHeap.isConsistent());
+        assert(!bucketPath.isEmpty() && bucketPath.size() == heapPath.size());
+    }
+
+    @Test
+    public void search_should_returnStraightPath_whenNothingIsInTheWay()
+    {
+        SearchStats stats = new SearchStats();
+        ArrayList<Position> path = LatticeAStar.search(-3.18635808, 55.94468067, -3.18635808 + 0.0015, 55.94468067,
+                (fromLng, fromLat, toLng, toLat) -> true, LatticeAStar.defaultMaxExpansions, stats);
+
+        assert(path.size() == 11);
+        assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), -3.18635808 + 0.0015, 55.94468067));
+        assert(stats.getExpansions() == 10);
+    }
+
+    @Test
+    public void search_should_returnEmptyPath_whenEveryMoveIsIllegal()
+    {
+        ArrayList<Position> path = LatticeAStar.search(0.0, 0.0, 0.01, 0.0,
+                (fromLng, fromLat, toLng, toLat) -> false, LatticeAStar.defaultMaxExpansions, new SearchStats());
+
+        assert(path.isEmpty());
+    }
+
+    @Test
+    public void snapshot_should_agreeWithExactCheck_whenMovesAreSampledAroundTheArea()
+    {
+        ArrayList<RestrictedArea> restrictedAreas = getRestrictedAreas();
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(restrictedAreas);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++)
+        {
+            double fromLng = -3.1915 + random.nextDouble() * 0.013;
+            double fromLat = 55.9385 + random.nextDouble() * 0.008;
+            int direction = random.nextInt(Lattice.directions);
+            double toLng = fromLng + Lattice.stepLng(direction);
+            double toLat = fromLat + Lattice.stepLat(direction);
+
+            PositionsRequest path = new PositionsRequest(new Position(fromLng, fromLat), new Position(toLng, toLat));
+            boolean exact = !isPathCrossingByBruteForce(path, restrictedAreas);
+
+            assert(snapshot.isLegal(fromLng, fromLat, toLng, toLat) == exact);
+        }
+    }
+
+    @Test
+    public void getRestrictedAreaSnapshot_should_reuseSnapshot_whenAreasAreUnchanged()
+    {
+        RestrictedAreaSnapshot first = utility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        RestrictedAreaSnapshot second = utility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        RestrictedAreaSnapshot third = utility.getRestrictedAreaSnapshot(new ArrayList<>());
+
+        assert(first == second);
+        assert(third.getVersion() == first.getVersion() + 1);
+    }
+
+    @Test
+    public void restrictedAreas_should_beCompiled_whenTheyAreFetched()
+    {
+        Utility fetching = new Utility(new ObjectMapper());
+        RestTemplate restTemplate = Mockito.mock(RestTemplate.class);
+        Mockito.when(restTemplate.getForObject("http://ilp/restricted-areas", RestrictedArea[].class))
+                .thenReturn(getRestrictedAreas().toArray(new RestrictedArea[0]));
+        DataFetchServiceImplementation dataFetchService = new DataFetchServiceImplementation(restTemplate, "http://ilp", fetching);
+
+        ArrayList<RestrictedArea> fetched = dataFetchService.getRestrictedAreas();
+        RestrictedAreaSnapshot compiled = fetching.getRestrictedAreaSnapshot(fetched);
+
+        // Built by the fetch, and not again when the same areas are fetched once more
+        assert(compiled.getVersion() == 1);
+        assert(fetching.getRestrictedAreaSnapshot(dataFetchService.getRestrictedAreas()) == compiled);
+    }
+
+    @Test
+    public void edgeIndex_should_agreeWithIsInRegion_whenPointsAreSampledAroundTheArea()
+    {
+        ArrayList<RestrictedArea> restrictedAreas = getRestrictedAreas();
+        EdgeIndex edgeIndex = utility.getRestrictedAreaSnapshot(restrictedAreas).getEdgeIndex();
+        Region region = new Region("notched", restrictedAreas.getFirst().getVertices());
+        Random random = new Random(7);
+
+        for (int i = 0; i < 20000; i++)
+        {
+            Position position = new Position(-3.1915 + random.nextDouble() * 0.013, 55.9385 + random.nextDouble() * 0.008);
+
+            assert(edgeIndex.containsPoint(0, position.getLng(), position.getLat()) == utility.isInRegion(new PositionRegionRequest(position, region)));
+        }
+
+        // Vertices and points on an edge count as inside
+        assert(edgeIndex.containsPoint(0, -3.185, 55.940));
+        assert(edgeIndex.containsPoint(0, -3.1849, 55.9425));
+    }
+
+    @Test
+    public void visibilityPlanner_should_returnLegalPath_whenRoutingAroundTheArea()
+    {
+        ArrayList<RestrictedArea> restrictedAreas = getRestrictedAreas();
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(restrictedAreas);
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        PlannerOptions options = new PlannerOptions();
+        options.setMode(PlannerMode.VISIBILITY);
+
+        ArrayList<Position> path = utility.findPath(start, end, restrictedAreas, options);
+        ArrayList<Position> lattice = LatticeAStar.search(start, end, snapshot);
+
+        assert(!path.isEmpty());
+        assert(path.getFirst() == start);
+        assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < path.size(); i++)
+        {
+            Position from = path.get(i - 1);
+            Position to = path.get(i);
+            assert(Math.abs(Math.hypot(to.getLng() - from.getLng(), to.getLat() - from.getLat()) - Lattice.unitLength) < 1e-12);
+            assert(!isPathCrossingByBruteForce(new PositionsRequest(from, to), restrictedAreas));
+        }
+        // Not optimal on the lattice, but close to it
+        assert(path.size() <= lattice.size() * 1.1);
+    }
+
+    @Test
+    public void bidirectionalSearch_should_returnLegalPath_whenRoutingAroundTheArea()
+    {
+        ArrayList<RestrictedArea> restrictedAreas = getRestrictedAreas();
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(restrictedAreas);
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        SearchStats bidirectionalStats = new SearchStats();
+
+        ArrayList<Position> forward = LatticeAStar.search(start, end, snapshot);
+        ArrayList<Position> path = BidirectionalAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(),
+                snapshot, LatticeAStar.defaultMaxExpansions, bidirectionalStats);
+
+        assert(!path.isEmpty());
+        assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < path.size(); i++)
+        {
+            assert(!isPathCrossingByBruteForce(new PositionsRequest(path.get(i - 1), path.get(i)), restrictedAreas));
+        }
+        assert(Math.abs(path.size() - forward.size()) <= 2);
+        assert(bidirectionalStats.getBackwardExpansions() > 0);
+    }
+
+    @Test
+    public void bidirectionalSearch_should_expandFewerNodes_whenLegIsLong()
+    {
+        SearchStats forwardStats = new SearchStats();
+        SearchStats bidirectionalStats = new SearchStats();
+
+        ArrayList<Position> forward = LatticeAStar.search(-3.20, 55.94, -3.17, 55.95,
+                (fromLng, fromLat, toLng, toLat) -> true, LatticeAStar.defaultMaxExpansions, forwardStats);
+        ArrayList<Position> path = BidirectionalAStar.search(-3.20, 55.94, -3.17, 55.95,
+                (fromLng, fromLat, toLng, toLat) -> true, LatticeAStar.defaultMaxExpansions, bidirectionalStats);
+
+        assert(path.size() <= forward.size());
+        assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), -3.17, 55.95));
+        assert(bidirectionalStats.getExpansions() < forwardStats.getExpansions());
+    }
+
+    @Test
+    public void bidirectionalSearch_should_returnStart_whenStartIsAlreadyClose()
+    {
+        ArrayList<Position> path = BidirectionalAStar.search(0.0, 0.0, 0.0001, 0.0,
+                (fromLng, fromLat, toLng, toLat) -> true, LatticeAStar.defaultMaxExpansions, new SearchStats());
+
+        assert(path.size() == 1);
+    }
+
+    @Test
+    public void pathCache_should_hitOnRepeatedLegs_andMissWhenPositionOrAreasChange()
+    {
+        PathCache pathCache = new PathCache(2);
+        PlannerOptions options = new PlannerOptions();
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(getRestrictedAreas(), 1);
+        RestrictedAreaSnapshot changed = RestrictedAreaSnapshot.build(new ArrayList<>(), 2);
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        int[] planned = {0};
+
+        ArrayList<Position> first = pathCache.get(start, end, snapshot, options, () ->
+        {
+            planned[0]++;
+            return LatticeAStar.search(start, end, snapshot);
+        });
+        ArrayList<Position> second = pathCache.get(new Position(-3.1925, 55.9425), end, snapshot, options, () ->
+        {
+            planned[0]++;
+            return new ArrayList<>();
+        });
+
+        assert(planned[0] == 1);
+        assert(first != second && first.size() == second.size());
+        assert(pathCache.getHits() == 1 && pathCache.getMisses() == 1);
+
+        // Same cells but not the same position
+        pathCache.get(new Position(-3.1925 + 1e-6, 55.9425), end, snapshot, options, ArrayList::new);
+        assert(pathCache.getMisses() == 2);
+
+        // Same leg planned with a setting that can change the path
+        PlannerOptions memoryBounded = options.copy();
+        memoryBounded.setMemoryBudgetKb(options.getMemoryBudgetKb() / 2);
+        assert(pathCache.find(start, end, snapshot, memoryBounded) == null);
+        PlannerOptions weighted = options.copy();
+        weighted.setInitialWeight(1.5);
+        assert(pathCache.find(start, end, snapshot, weighted) == null);
+        PlannerOptions parallel = options.copy();
+        parallel.setParallelWorkers(4);
+        assert(pathCache.find(start, end, snapshot, parallel) == null);
+        assert(pathCache.getMisses() == 5);
+
+        // A newer snapshot invalidates everything planned before it
+        pathCache.get(start, end, changed, options, ArrayList::new);
+        assert(pathCache.getMisses() == 6);
+        assert(pathCache.size() == 1);
+
+        // Least recently used leg goes first
+        pathCache.get(end, start, changed, options, ArrayList::new);
+        pathCache.get(start, start, changed, options, ArrayList::new);
+        assert(pathCache.size() == 2);
+        assert(pathCache.getEvictions() == 1);
+    }
+
+    @Test
+    public void findPath_should_notCacheALeg_whenTheSearchRanOutOfExpansions()
+    {
+        PathCache pathCache = new PathCache(PathCache.defaultCapacity);
+        Utility cachedUtility = new Utility(new ObjectMapper(), pathCache, DistanceFieldRegistry.disabled());
+        PlannerOptions capped = new PlannerOptions();
+        capped.setMaxExpansions(10);
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+
+        // Behind the area, far more than 10 expansions away
+        assert(cachedUtility.findPath(start, end, getRestrictedAreas(), capped).isEmpty());
+        assert(pathCache.size() == 0);
+
+        ArrayList<Position> found = cachedUtility.findPath(start, end, getRestrictedAreas(), new PlannerOptions());
+        assert(!found.isEmpty() && pathCache.size() == 1);
+    }
+
+    @Test
+    public void calcDeliveryPath_should_takeLegsFromThePathCache_whenTheSameRequestIsPlannedAgain()
+    {
+        PathCache pathCache = new PathCache(PathCache.defaultCapacity);
+        Utility cachedUtility = new Utility(new ObjectMapper(), pathCache, DistanceFieldRegistry.disabled());
+        ArrayList<ServicePoint> servicePoints = new ArrayList<>(List.of(new ServicePoint("base", 1, new Position(-3.1925, 55.9425))));
+        ArrayList<Availability> availability = new ArrayList<>(List.of(new Availability(DayOfWeek.MONDAY, LocalTime.MIN, LocalTime.MAX)));
+        ArrayList<ServicePointDrones> servicePointsDrones = new ArrayList<>(List.of(new ServicePointDrones(1,
+                new ArrayList<>(List.of(new DroneAvailability("1", availability))))));
+        ArrayList<Drone> drones = new ArrayList<>(List.of(new Drone("drone", "1", new Capability(true, true, 20, 2000, 0.01, 1.0, 1.0))));
+
+        // One delivery behind the area, the leg there is flown from the distance matrix, the flight home round the area
+        // starts from where the drone hovered and is the only leg planned with findPath
+        ArrayList<MedicineDispatchRequest> queries = new ArrayList<>(List.of(new MedicineDispatchRequest(1, LocalDate.of(2026, 1, 5),
+                LocalTime.of(9, 0), new Requirements(2.0, false, false, null), new Position(-3.1775, 55.9425))));
+
+        RestServiceImplementation restService = new RestServiceImplementation(cachedUtility, 1);
+        ReturnedPath first = restService.calcDeliveryPath(new ArrayList<>(queries), servicePoints, getRestrictedAreas(), drones, servicePointsDrones, new PlannerOptions());
+        long misses = pathCache.getMisses();
+        long hits = pathCache.getHits();
+        ReturnedPath second = restService.calcDeliveryPath(new ArrayList<>(queries), servicePoints, getRestrictedAreas(), drones, servicePointsDrones, new PlannerOptions());
+
+        assert(first.getDronePaths().getFirst().getDeliveries().size() == 2);
+        assert(misses == 1 && hits == 0);
+        assert(pathCache.getMisses() == misses);
+        assert(pathCache.getHits() == 1);
+        assert(second.getTotalMoves().equals(first.getTotalMoves()));
+    }
+
+    @Test
+    public void distanceMatrix_should_planEveryLegExceptBetweenServicePoints()
+    {
+        Position base = new Position(-3.20, 55.94);
+        Position otherBase = new Position(-3.19, 55.94);
+        Position delivery = new Position(-3.20, 55.9415);
+        Position unreachable = new Position(-3.20, 55.95);
+        AtomicInteger planned = new AtomicInteger();
+
+        DistanceMatrix matrix = DistanceMatrix.build(List.of(base, otherBase), List.of(delivery, unreachable, delivery), (from, ends) ->
+        {
+            ArrayList<ArrayList<Position>> paths = new ArrayList<>();
+            for (Position end : ends)
+            {
+                planned.incrementAndGet();
+                paths.add((end == unreachable || from == unreachable) ? new ArrayList<>()
+                        : LatticeAStar.search(from, end, (fromLng, fromLat, toLng, toLat) -> true));
+            }
+            return paths;
+        }, new ForkJoinPool(2));
+
+        // 4 distinct points, 12 ordered pairs, minus the 2 between service points
+        assert(matrix.size() == 4);
+        assert(planned.get() == 10);
+        assert(matrix.moves(base, delivery) == 10);
+        assert(matrix.moves(delivery, delivery) == 0);
+        assert(matrix.moves(base, otherBase) == DistanceMatrix.unreachable);
+        assert(matrix.moves(delivery, unreachable) == DistanceMatrix.unreachable);
+    }
+
+    @Test
+    public void multiGoalSearch_should_matchSingleSearches_whenFanningOutFromOneStart()
+    {
+        ArrayList<RestrictedArea> restrictedAreas = getRestrictedAreas();
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(restrictedAreas);
+        Position start = new Position(-3.1925, 55.9425);
+        List<Position> goals = List.of(new Position(-3.1775, 55.9425), new Position(-3.1850, 55.9470),
+                new Position(-3.1950, 55.9380), new Position(-3.1800, 55.9390));
+        SearchStats multiStats = new SearchStats();
+        long singleExpansions = 0;
+
+        ArrayList<ArrayList<Position>> paths = MultiGoalSearch.search(start, goals, snapshot, LatticeAStar.defaultMaxExpansions, multiStats);
+
+        for (int i = 0; i < goals.size(); i++)
+        {
+            Position goal = goals.get(i);
+            SearchStats singleStats = new SearchStats();
+            ArrayList<Position> single = LatticeAStar.search(start.getLng(), start.getLat(), goal.getLng(), goal.getLat(),
+                    snapshot, LatticeAStar.defaultMaxExpansions, singleStats);
+            singleExpansions += singleStats.getExpansions();
+
+            ArrayList<Position> path = paths.get(i);
+            assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), goal.getLng(), goal.getLat()));
+            assert(path.size() <= single.size() + 2);
+            for (int j = 1; j < path.size(); j++)
+            {
+                assert(!isPathCrossingByBruteForce(new PositionsRequest(path.get(j - 1), path.get(j)), restrictedAreas));
+            }
+        }
+        assert(multiStats.getExpansions() < singleExpansions);
+    }
+
+    @Test
+    public void distanceField_should_leadHomeWithinItsBound_andReloadFromDisk() throws IOException
+    {
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        Path directory = Files.createTempDirectory("distance-fields");
+        Position base = new Position(-3.1925, 55.9425);
+        List<Position> starts = List.of(new Position(-3.1775, 55.9425), new Position(-3.1850, 55.9470),
+                new Position(-3.1775, 55.9380), new Position(-3.1800, 55.9390), base);
+
+        DistanceField field = new DistanceFieldRegistry(directory, 150).await(base, snapshot);
+
+        for (Position start : starts)
+        {
+            int homeMoves = field.homeMoves(start.getLng(), start.getLat());
+            ArrayList<Position> path = field.pathHome(start, snapshot);
+            ArrayList<Position> searched = LatticeAStar.search(start, base, snapshot);
+
+            assert(homeMoves != DistanceField.unknown && path != null);
+            assert(path.size() - 1 <= homeMoves);
+            assert(homeMoves <= searched.size() + 4);
+            assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), base.getLng(), base.getLat()));
+            for (int j = 1; j < path.size(); j++)
+            {
+                assert(snapshot.isLegal(path.get(j - 1).getLng(), path.get(j - 1).getLat(), path.get(j).getLng(), path.get(j).getLat()));
+            }
+        }
+
+        // A new registry maps the persisted field instead of building it again
+        try (var files = Files.list(directory))
+        {
+            assert(files.count() == 1);
+        }
+        DistanceField reloaded = new DistanceFieldRegistry(directory, 150).await(base, snapshot);
+        for (Position start : starts)
+        {
+            assert(reloaded.homeMoves(start.getLng(), start.getLat()) == field.homeMoves(start.getLng(), start.getLat()));
+        }
+        assert(DistanceFieldRegistry.disabled().await(base, snapshot) == null);
+    }
+
+    @Test
+    public void distanceFieldRegistry_should_answerWithoutWaiting_andDeleteTheFieldsItDrops() throws IOException
+    {
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        Path directory = Files.createTempDirectory("distance-fields");
+        Position first = new Position(-3.1925, 55.9425);
+        Position second = new Position(-3.1775, 55.9380);
+        DistanceFieldRegistry distanceFields = new DistanceFieldRegistry(directory, 150, 1);
+
+        // Nothing built yet, the lookup starts the build instead of waiting for it
+        assert(distanceFields.get(first, snapshot) == null);
+        DistanceField field = distanceFields.await(first, snapshot);
+        assert(field != null && distanceFields.get(first, snapshot) == field);
+
+        // Room for one field only, the first one goes with its file
+        assert(distanceFields.await(second, snapshot) != null);
+        try (var files = Files.list(directory))
+        {
+            assert(files.count() == 1);
+        }
+        assert(distanceFields.get(second, snapshot) != null);
+    }
+
+    @Test
+    public void calcDeliveryPath_should_flyHomeNoLongerThanTheSearch_whenTheDistanceFieldIsReady()
+    {
+        Position base = new Position(-3.1925, 55.9425);
+        DistanceFieldRegistry distanceFields = new DistanceFieldRegistry(null, 150);
+        Utility fieldUtility = new Utility(new ObjectMapper(), new PathCache(PathCache.defaultCapacity), distanceFields);
+        RestrictedAreaSnapshot snapshot = fieldUtility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        distanceFields.await(base, snapshot);
+
+        ArrayList<ServicePoint> servicePoints = new ArrayList<>(List.of(new ServicePoint("base", 1, base)));
+        ArrayList<Availability> availability = new ArrayList<>();
+        for (DayOfWeek day : DayOfWeek.values())
+        {
+            availability.add(new Availability(day, LocalTime.MIN, LocalTime.MAX));
+        }
+        ArrayList<ServicePointDrones> servicePointsDrones = new ArrayList<>(List.of(new ServicePointDrones(1,
+                new ArrayList<>(List.of(new DroneAvailability("1", availability))))));
+        ArrayList<Drone> drones = new ArrayList<>(List.of(new Drone("drone", "1", new Capability(true, true, 20, 2000, 0.01, 1.0, 1.0))));
+
+        // One delivery a day behind the area, so every flight home has to go round it
+        List<Position> deliveries = List.of(new Position(-3.1775, 55.9425), new Position(-3.1850, 55.9470),
+                new Position(-3.1775, 55.9380), new Position(-3.1800, 55.9390));
+        ArrayList<MedicineDispatchRequest> queries = new ArrayList<>();
+        for (int day = 0; day < deliveries.size(); day++)
+        {
+            queries.add(new MedicineDispatchRequest(day, LocalDate.of(2026, 1, 5).plusDays(day), LocalTime.of(9, 0),
+                    new Requirements(2.0, false, false, null), deliveries.get(day)));
+        }
+
+        ReturnedPath returnedPath = new RestServiceImplementation(fieldUtility, 1)
+                .calcDeliveryPath(queries, servicePoints, getRestrictedAreas(), drones, servicePointsDrones, new PlannerOptions());
+
+        int flightsHome = 0;
+        for (DronePath dronePath : returnedPath.getDronePaths())
+        {
+            for (Deliveries leg : dronePath.getDeliveries())
+            {
+                if (leg.getDeliveryId() != null)
+                {
+                    continue;
+                }
+                ArrayList<Position> searched = LatticeAStar.search(leg.getFlightPath().getFirst(), base, snapshot);
+                assert(!searched.isEmpty() && leg.getFlightPath().size() <= searched.size());
+                flightsHome++;
+            }
+        }
+        assert(flightsHome == deliveries.size());
+    }
+
+    @Test
+    public void calcDeliveryPath_should_notPlanTheLeg_whenTheMatrixAlreadyBreaksTheLimits()
+    {
+        Position base = new Position(-3.1925, 55.9425);
+        ArrayList<ServicePoint> servicePoints = new ArrayList<>(List.of(new ServicePoint("base", 1, base)));
+        ArrayList<Availability> availability = new ArrayList<>();
+        for (DayOfWeek day : DayOfWeek.values())
+        {
+            availability.add(new Availability(day, LocalTime.MIN, LocalTime.MAX));
+        }
+        ArrayList<ServicePointDrones> servicePointsDrones = new ArrayList<>(List.of(new ServicePointDrones(1,
+                new ArrayList<>(List.of(new DroneAvailability("1", availability))))));
+        ArrayList<Drone> drones = new ArrayList<>(List.of(new Drone("drone", "1", new Capability(true, true, 20, 100, 0.01, 1.0, 1.0))));
+
+        // The first delivery is 20 moves out, the second 200 moves out and beyond the drone on any flight
+        LocalDate date = LocalDate.of(2026, 1, 5);
+        ArrayList<MedicineDispatchRequest> queries = new ArrayList<>(List.of(
+                new MedicineDispatchRequest(1, date, LocalTime.of(9, 0), new Requirements(1.0, false, false, null), new Position(-3.1895, 55.9425)),
+                new MedicineDispatchRequest(2, date, LocalTime.of(10, 0), new Requirements(1.0, false, false, null), new Position(-3.1625, 55.9425))));
+
+        Utility spiedUtility = Mockito.spy(new Utility(new ObjectMapper()));
+        ReturnedPath returnedPath = new RestServiceImplementation(spiedUtility)
+                .calcDeliveryPath(queries, servicePoints, new ArrayList<>(), drones, servicePointsDrones, new PlannerOptions());
+
+        // The first leg is flown along the matrix path, so the flight home is the only leg planned
+        assert(returnedPath.getDronePaths().size() == 1 && returnedPath.getDronePaths().getFirst().getDeliveries().size() == 2);
+        Mockito.verify(spiedUtility, Mockito.times(1)).findPath(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void calcDeliveryPath_should_matchSequentialPlanning_whenDatesArePlannedInParallel() throws Exception
+    {
+        ArrayList<ServicePoint> servicePoints = new ArrayList<>(List.of(new ServicePoint("base", 1, new Position(-3.1925, 55.9425))));
+        ArrayList<Availability> availability = new ArrayList<>();
+        for (DayOfWeek day : DayOfWeek.values())
+        {
+            availability.add(new Availability(day, LocalTime.MIN, LocalTime.MAX));
+        }
+        ArrayList<ServicePointDrones> servicePointsDrones = new ArrayList<>(List.of(new ServicePointDrones(1,
+                new ArrayList<>(List.of(new DroneAvailability("1", availability), new DroneAvailability("2", availability))))));
+        ArrayList<Drone> drones = new ArrayList<>(List.of(
+                new Drone("small", "1", new Capability(false, false, 4, 1000, 0.01, 1.0, 1.0)),
+                new Drone("large", "2", new Capability(true, true, 20, 2000, 0.02, 2.0, 2.0))));
+
+        // Two deliveries a day around the area, the second one too heavy for the small drone
+        ArrayList<MedicineDispatchRequest> queries = new ArrayList<>();
+        for (int day = 0; day < 4; day++)
+        {
+            LocalDate date = LocalDate.of(2026, 1, 5).plusDays(day);
+            queries.add(new MedicineDispatchRequest(2 * day, date, LocalTime.of(9, 0), new Requirements(2.0, false, false, null), new Position(-3.1775, 55.9425 - 0.001 * day)));
+            queries.add(new MedicineDispatchRequest(2 * day + 1, date, LocalTime.of(10, 0), new Requirements(8.0, false, false, null), new Position(-3.1800, 55.9390)));
+        }
+
+        // Both on the same distance field, built before either starts so the legs home are counted the same way
+        ObjectMapper objectMapper = new ObjectMapper();
+        DistanceFieldRegistry distanceFields = new DistanceFieldRegistry(null, 150);
+        distanceFields.await(servicePoints.getFirst().getLocation(), utility.getRestrictedAreaSnapshot(getRestrictedAreas()));
+        ReturnedPath sequential = new RestServiceImplementation(new Utility(new ObjectMapper(), new PathCache(PathCache.defaultCapacity), distanceFields), 1)
+                .calcDeliveryPath(queries, servicePoints, getRestrictedAreas(), drones, servicePointsDrones, new PlannerOptions());
+        ReturnedPath parallel = new RestServiceImplementation(new Utility(new ObjectMapper(), new PathCache(PathCache.defaultCapacity), distanceFields), 4)
+                .calcDeliveryPath(queries, servicePoints, getRestrictedAreas(), drones, servicePointsDrones, new PlannerOptions());
+
+        assert(sequential.getDronePaths().size() == 2);
+        assert(objectMapper.writeValueAsString(parallel).equals(objectMapper.writeValueAsString(sequential)));
+    }
+
+    @Test
+    public void altSearch_should_expandFewerNodes_whenGoalIsBehindTheArea()
+    {
+        // A cup opening away from the goal, the straight line heuristic floods it before leaving
+        ArrayList<Position> vertices = new ArrayList<>();
+        vertices.add(new Position(-3.190, 55.935));
+        vertices.add(new Position(-3.180, 55.935));
+        vertices.add(new Position(-3.180, 55.943));
+        vertices.add(new Position(-3.182, 55.943));
+        vertices.add(new Position(-3.182, 55.937));
+        vertices.add(new Position(-3.188, 55.937));
+        vertices.add(new Position(-3.188, 55.943));
+        vertices.add(new Position(-3.190, 55.943));
+        vertices.add(new Position(-3.190, 55.935));
+        ArrayList<RestrictedArea> restrictedAreas = new ArrayList<>();
+        restrictedAreas.add(new RestrictedArea("cup", 1, vertices));
+
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(restrictedAreas, 1);
+        Position start = new Position(-3.185, 55.941);
+        Position end = new Position(-3.185, 55.932);
+        SearchStats latticeStats = new SearchStats();
+        SearchStats altStats = new SearchStats();
+        PlannerOptions options = new PlannerOptions();
+        options.setMode(PlannerMode.ALT);
+
+        assert(snapshot.getDerived(Landmarks.class, Landmarks::new).await() == 8);
+        ArrayList<Position> lattice = PlannerMode.LATTICE.getPlanner().findPath(start, end, snapshot, options, latticeStats);
+        ArrayList<Position> alt = PlannerMode.ALT.getPlanner().findPath(start, end, snapshot, options, altStats);
+
+        assert(Lattice.isClose(alt.getLast().getLng(), alt.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < alt.size(); i++)
+        {
+            assert(snapshot.isLegal(alt.get(i - 1).getLng(), alt.get(i - 1).getLat(), alt.get(i).getLng(), alt.get(i).getLat()));
+        }
+        assert(alt.size() <= lattice.size());
+        assert(altStats.getExpansions() < 0.7 * latticeStats.getExpansions());
+    }
+
+    @Test
+    public void altSearch_should_notCacheItsLegs_beforeOrAfterTheLandmarksAreBuilt()
+    {
+        PathCache pathCache = new PathCache(PathCache.defaultCapacity);
+        Utility altUtility = new Utility(new ObjectMapper(), pathCache, DistanceFieldRegistry.disabled());
+        RestrictedAreaSnapshot snapshot = altUtility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        PlannerOptions options = new PlannerOptions();
+        options.setMode(PlannerMode.ALT);
+
+        // Searched while the landmarks are still being built
+        assert(!altUtility.findPath(start, end, getRestrictedAreas(), options).isEmpty());
+        assert(pathCache.size() == 0 && options.getSuboptimalityBound() == 1);
+
+        // With the landmarks the leg round the area is only proven against the straight line
+        assert(snapshot.getDerived(Landmarks.class, Landmarks::new).await() == 8);
+        assert(!altUtility.findPath(start, end, getRestrictedAreas(), options).isEmpty());
+        assert(pathCache.size() == 0 && options.getSuboptimalityBound() > 1);
+    }
+
+    @Test
+    public void incrementalLegs_should_stayWithinTheirNodeBudget_andNotKeepFailedSearches()
+    {
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        Position base = new Position(-3.1925, 55.9425);
+        Position first = new Position(-3.1775, 55.9425);
+        Position second = new Position(-3.1800, 55.9390);
+        PlannerOptions options = new PlannerOptions();
+        int firstNodes = IncrementalAStar.plan(base, first, snapshot, options.getMaxExpansions(), new SearchStats()).nodeCount();
+        int secondNodes = IncrementalAStar.plan(base, second, snapshot, options.getMaxExpansions(), new SearchStats()).nodeCount();
+
+        // Room for either tree but not both, the older one is dropped
+        IncrementalLegs legs = new IncrementalLegs(firstNodes + secondNodes - 1);
+        assert(!legs.findPath(base, first, snapshot, options, new SearchStats()).isEmpty());
+        assert(!legs.findPath(base, second, snapshot, options, new SearchStats()).isEmpty());
+        assert(legs.size() == 1 && legs.retainedNodes() == secondNodes);
+
+        // A search that ran out of expansions isn't kept
+        options.setMaxExpansions(10);
+        assert(legs.findPath(base, first, snapshot, options, new SearchStats()).isEmpty());
+        assert(legs.size() == 1 && legs.retainedNodes() == secondNodes);
+    }
+
+    @Test
+    public void incrementalSearch_should_matchFreshSearch_whenAreasChange()
+    {
+        RestrictedArea notched = getRestrictedAreas().getFirst();
+        RestrictedArea block = getRectangle("block", -3.1775, 55.9390, -3.1765, 55.9440);
+        RestrictedArea reshaped = getRectangle("block", -3.1775, 55.9390, -3.1765, 55.9460);
+        RestrictedArea farAway = getRectangle("far", -3.1500, 55.9000, -3.1490, 55.9010);
+        List<List<RestrictedArea>> changes = List.of(List.of(notched, block), List.of(notched, reshaped), List.of(reshaped), List.of(), List.of(notched));
+
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1700, 55.9420);
+        PlannerOptions options = new PlannerOptions();
+        options.setMode(PlannerMode.INCREMENTAL);
+        long version = 1;
+        IncrementalAStar search = IncrementalAStar.plan(start, end, RestrictedAreaSnapshot.build(new ArrayList<>(List.of(notched)), version), options.getMaxExpansions(), new SearchStats());
+        utility.findPath(start, end, new ArrayList<>(List.of(notched)), options);
+
+        long repairedExpansions = 0;
+        long freshExpansions = 0;
+        for (List<RestrictedArea> areas : changes)
+        {
+            RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(new ArrayList<>(areas), ++version);
+            SearchStats repairedStats = new SearchStats();
+            SearchStats freshStats = new SearchStats();
+            ArrayList<Position> repaired = search.replan(snapshot, repairedStats);
+            ArrayList<Position> fresh = LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, options.getMaxExpansions(), freshStats);
+            repairedExpansions += repairedStats.getExpansions();
+            freshExpansions += freshStats.getExpansions();
+
+            assert(Lattice.isClose(repaired.getLast().getLng(), repaired.getLast().getLat(), end.getLng(), end.getLat()));
+            for (int i = 1; i < repaired.size(); i++)
+            {
+                assert(snapshot.isLegal(repaired.get(i - 1).getLng(), repaired.get(i - 1).getLat(), repaired.get(i).getLng(), repaired.get(i).getLat()));
+            }
+            assert(repaired.size() <= fresh.size() + 1);
+
+            // Same leg through the utility, repaired from the kept search and compared with a fresh aStarSearch
+            ArrayList<Position> planned = utility.findPath(start, end, new ArrayList<>(areas), options);
+            assert(planned.size() <= utility.aStarSearch(start, end, new ArrayList<>(areas)).size() + 1);
+        }
+        assert(repairedExpansions < freshExpansions);
+
+        // An area nowhere near the leg leaves the path as it is without searching
+        ArrayList<Position> before = search.getPath();
+        SearchStats farStats = new SearchStats();
+        ArrayList<Position> after = search.replan(RestrictedAreaSnapshot.build(new ArrayList<>(List.of(notched, farAway)), ++version), farStats);
+        assert(after.equals(before));
+        assert(farStats.getExpansions() == 0);
+    }
+
+    @Test
+    public void anytimeSearch_should_reportItsBound_andReachOptimalWithoutDeadline()
+    {
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(getRestrictedAreas(), 1);
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1700, 55.9420);
+        SearchStats latticeStats = new SearchStats();
+        ArrayList<Position> optimal = LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, LatticeAStar.defaultMaxExpansions, latticeStats);
+
+        // Deadline already passed: only the weighted first pass runs
+        SearchStats quickStats = new SearchStats();
+        ArrayList<Position> quick = AnytimeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, 3, LatticeAStar.defaultMaxExpansions, System.nanoTime(), quickStats);
+        assert(Lattice.isClose(quick.getLast().getLng(), quick.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < quick.size(); i++)
+        {
+            assert(snapshot.isLegal(quick.get(i - 1).getLng(), quick.get(i - 1).getLat(), quick.get(i).getLng(), quick.get(i).getLat()));
+        }
+        assert(quickStats.getSuboptimalityBound() >= 1 && quickStats.getSuboptimalityBound() <= 3);
+        assert(quick.size() - 1 <= quickStats.getSuboptimalityBound() * (optimal.size() - 1) + 1);
+        assert(quickStats.getExpansions() < latticeStats.getExpansions());
+
+        // No deadline: the passes go down to weight 1
+        SearchStats fullStats = new SearchStats();
+        ArrayList<Position> full = AnytimeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, 3, LatticeAStar.defaultMaxExpansions, 0, fullStats);
+        assert(fullStats.getSuboptimalityBound() == 1);
+        assert(full.size() <= optimal.size() + 1);
+
+        // Reported through the planner options, the worst leg wins
+        PlannerOptions options = new PlannerOptions();
+        options.setMode(PlannerMode.ANYTIME);
+        options.setTimeBudgetMillis(60000);
+        options.startTimeBudget();
+        utility.findPath(start, end, getRestrictedAreas(), options);
+        assert(options.getSuboptimalityBound() == 1);
+        options.recordSuboptimalityBound(1.5);
+        options.recordSuboptimalityBound(1.2);
+        assert(options.getSuboptimalityBound() == 1.5);
+    }
+
+    @Test
+    public void hierarchicalPlanner_should_returnLegalPath_andOnlyRebuildBlocksNearAChangedArea()
+    {
+        ArrayList<Position> vertices = new ArrayList<>();
+        vertices.add(new Position(-3.195, 55.935));
+        vertices.add(new Position(-3.175, 55.935));
+        vertices.add(new Position(-3.175, 55.950));
+        vertices.add(new Position(-3.177, 55.950));
+        vertices.add(new Position(-3.177, 55.937));
+        vertices.add(new Position(-3.193, 55.937));
+        vertices.add(new Position(-3.193, 55.950));
+        vertices.add(new Position(-3.195, 55.950));
+        vertices.add(new Position(-3.195, 55.935));
+        ArrayList<RestrictedArea> restrictedAreas = new ArrayList<>();
+        restrictedAreas.add(new RestrictedArea("cup", 1, vertices));
+
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(restrictedAreas, 1);
+        Position start = new Position(-3.185, 55.945);
+        Position end = new Position(-3.185, 55.930);
+        PlannerOptions options = new PlannerOptions();
+        SearchStats latticeStats = new SearchStats();
+        SearchStats hierarchicalStats = new SearchStats();
+        ArrayList<Position> lattice = PlannerMode.LATTICE.getPlanner().findPath(start, end, snapshot, options, latticeStats);
+        ArrayList<Position> hierarchical = PlannerMode.HIERARCHICAL.getPlanner().findPath(start, end, snapshot, options, hierarchicalStats);
+
+        assert(Lattice.isClose(hierarchical.getLast().getLng(), hierarchical.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < hierarchical.size(); i++)
+        {
+            assert(snapshot.isLegal(hierarchical.get(i - 1).getLng(), hierarchical.get(i - 1).getLat(), hierarchical.get(i).getLng(), hierarchical.get(i).getLat()));
+        }
+        assert(hierarchical.size() - 1 <= 1.1 * (lattice.size() - 1));
+        assert(hierarchicalStats.getExpansions() < latticeStats.getExpansions());
+
+        // A small area added next to the cup only touches the few blocks around it
+        restrictedAreas.add(getRectangle("new", -3.1740, 55.9400, -3.1735, 55.9405));
+        RestrictedAreaSnapshot changed = RestrictedAreaSnapshot.build(restrictedAreas, 2);
+        int before = HierarchicalPlanner.cachedClusters();
+        ArrayList<Position> replanned = PlannerMode.HIERARCHICAL.getPlanner().findPath(start, end, changed, options, new SearchStats());
+        assert(HierarchicalPlanner.cachedClusters() - before <= 4);
+        assert(Lattice.isClose(replanned.getLast().getLng(), replanned.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < replanned.size(); i++)
+        {
+            assert(changed.isLegal(replanned.get(i - 1).getLng(), replanned.get(i - 1).getLat(), replanned.get(i).getLng(), replanned.get(i).getLat()));
+        }
+    }
+
+    @Test
+    public void straightLegs_should_walkClearCorridors_andLeaveBlockedOnesToThePlanner()
+    {
+        RestrictedAreaSnapshot snapshot = RestrictedAreaSnapshot.build(List.of(getRectangle("Wall", -3.1880, 55.9420, -3.1870, 55.9460)), 0);
+        StraightLegs straightLegs = new StraightLegs();
+        Random random = new Random(9);
+        for (int i = 0; i < 200; i++)
+        {
+            // Legs west of the wall, their corridors clear, at every bearing
+            Position start = new Position(-3.1950 + random.nextDouble() * 0.005, 55.9400 + random.nextDouble() * 0.008);
+            Position end = new Position(-3.1950 + random.nextDouble() * 0.005, 55.9400 + random.nextDouble() * 0.008);
+            ArrayList<Position> path = straightLegs.find(start, end, snapshot);
+            ArrayList<Position> searched = LatticeAStar.search(start, end, snapshot);
+
+            assert(path != null && path.size() <= searched.size());
+            assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), end.getLng(), end.getLat()));
+            for (int j = 1; j < path.size(); j++)
+            {
+                assert(snapshot.isLegal(path.get(j - 1).getLng(), path.get(j - 1).getLat(), path.get(j).getLng(), path.get(j).getLat()));
+            }
+        }
+
+        // Through the wall, and passing a third of a move beside it
+        assert(straightLegs.find(new Position(-3.1900, 55.9440), new Position(-3.1850, 55.9440), snapshot) == null);
+        assert(straightLegs.find(new Position(-3.1880 - 0.00005, 55.9400), new Position(-3.1880 - 0.00005, 55.9480), snapshot) == null);
+        assert(straightLegs.getHits() == 200 && straightLegs.getMisses() == 2);
+        assert(Math.abs(straightLegs.getHitRate() - 200.0 / 202) < 1e-12);
+    }
+
+    @Test
+    public void componentLabels_should_rejectPocketsAndInteriors_andNeverAReachableLeg()
+    {
+        // Four walls closing a pocket around (-3.1880, 55.9435)
+        ArrayList<RestrictedArea> walls = new ArrayList<>(List.of(
+                getRectangle("West", -3.1900, 55.9420, -3.1894, 55.9450),
+                getRectangle("East", -3.1866, 55.9420, -3.1860, 55.9450),
+                getRectangle("South", -3.1900, 55.9420, -3.1860, 55.9426),
+                getRectangle("North", -3.1900, 55.9444, -3.1860, 55.9450)));
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(walls);
+        ComponentLabels labels = snapshot.getComponentLabels();
+        Position outside = new Position(-3.1950, 55.9400);
+        Position pocket = new Position(-3.1880, 55.9435);
+
+        assert(labels.getScale() == 1 && labels.getComponentCount() == 2);
+        assert(!labels.mayReach(outside.getLng(), outside.getLat(), pocket.getLng(), pocket.getLat()));
+        assert(!labels.mayReach(pocket.getLng(), pocket.getLat(), outside.getLng(), outside.getLat()));
+        assert(!labels.mayReach(outside.getLng(), outside.getLat(), -3.1897, 55.9435));
+        assert(labels.mayReach(pocket.getLng(), pocket.getLat(), -3.1875, 55.9430));
+
+        // Rejected before any search, which would otherwise use up every expansion
+        long before = System.nanoTime();
+        assert(utility.findPath(outside, pocket, walls, new PlannerOptions()).isEmpty());
+        assert(utility.findPaths(outside, List.of(pocket, new Position(-3.1950, 55.9460)), walls, new PlannerOptions()).getFirst().isEmpty());
+        assert(System.nanoTime() - before < 1_000_000_000L);
+
+        Random random = new Random(19);
+        for (int i = 0; i < 100; i++)
+        {
+            Position start = new Position(-3.1910 + random.nextDouble() * 0.006, 55.9410 + random.nextDouble() * 0.005);
+            Position end = new Position(-3.1910 + random.nextDouble() * 0.006, 55.9410 + random.nextDouble() * 0.005);
+            ArrayList<Position> path = LatticeAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(), snapshot, 20000, new SearchStats());
+            assert(path.isEmpty() || labels.mayReach(start.getLng(), start.getLat(), end.getLng(), end.getLat()));
+        }
+    }
+
+    @Test
+    public void memoryBoundedSearch_should_matchTheLatticeSearch_withinItsBudget()
+    {
+        ArrayList<RestrictedArea> restrictedAreas = getRestrictedAreas();
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(restrictedAreas);
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        long budget = 1 << 20;
+        SearchStats stats = new SearchStats();
+
+        ArrayList<Position> forward = LatticeAStar.search(start, end, snapshot);
+        ArrayList<Position> path = MemoryBoundedAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(),
+                snapshot, budget, LatticeAStar.defaultMaxExpansions, stats);
+
+        assert(path.size() == forward.size());
+        assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < path.size(); i++)
+        {
+            assert(!isPathCrossingByBruteForce(new PositionsRequest(path.get(i - 1), path.get(i)), restrictedAreas));
+        }
+        assert(stats.getMemoryBytes() > 0 && stats.getMemoryBytes() <= budget);
+        assert(stats.getSuboptimalityBound() == 1);
+
+        // Too little memory for the stack of the path: the search gives up instead of going over
+        SearchStats starved = new SearchStats();
+        assert(MemoryBoundedAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(),
+                snapshot, 8192, LatticeAStar.defaultMaxExpansions, starved).isEmpty());
+        assert(starved.getMemoryBytes() <= 8192);
+    }
+
+    @Test
+    public void parallelSearch_should_findAsShortALegalPath_asTheLatticeSearch()
+    {
+        ArrayList<RestrictedArea> restrictedAreas = getRestrictedAreas();
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(restrictedAreas);
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        SearchStats stats = new SearchStats();
+
+        ArrayList<Position> serial = LatticeAStar.search(start, end, snapshot);
+        ArrayList<Position> path = ParallelAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(),
+                snapshot, 4, LatticeAStar.defaultMaxExpansions, stats);
+
+        // Rounding of positions may let one of the searches save a move
+        assert(Math.abs(path.size() - serial.size()) <= 1);
+        assert(path.getFirst().getLng().equals(start.getLng()) && path.getFirst().getLat().equals(start.getLat()));
+        assert(Lattice.isClose(path.getLast().getLng(), path.getLast().getLat(), end.getLng(), end.getLat()));
+        for (int i = 1; i < path.size(); i++)
+        {
+            assert(!isPathCrossingByBruteForce(new PositionsRequest(path.get(i - 1), path.get(i)), restrictedAreas));
+        }
+        assert(stats.getExpansions() > 0);
+    }
+
+    @Test
+    public void parallelSearch_should_throwInsteadOfReturningNoPath_whenInterrupted() throws Exception
+    {
+        // The goal is walled off far out, so the search would run until its expansion limit
+        double goalLng = -3.10;
+        double goalLat = 55.94;
+        MoveValidator walledOff = (fromLng, fromLat, toLng, toLat) -> Math.hypot(toLng - goalLng, toLat - goalLat) > 0.01;
+        Throwable[] thrown = new Throwable[1];
+        boolean[] interrupted = new boolean[1];
+        Thread searching = new Thread(() ->
+        {
+            try
+            {
+                ParallelAStar.search(-3.19, 55.94, goalLng, goalLat, walledOff, 2, Integer.MAX_VALUE, new SearchStats());
+            }
+            catch (Throwable e)
+            {
+                thrown[0] = e;
+            }
+            interrupted[0] = Thread.currentThread().isInterrupted();
+        });
+        searching.start();
+        Thread.sleep(200);
+        searching.interrupt();
+        searching.join(60000);
+
+        assert(!searching.isAlive());
+        assert(thrown[0] instanceof CancellationException);
+        assert(interrupted[0]);
+
+        // Every thread of the aborted search was given back
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        assert(!ParallelAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(),
+                utility.getRestrictedAreaSnapshot(getRestrictedAreas()), Integer.MAX_VALUE, LatticeAStar.defaultMaxExpansions, new SearchStats()).isEmpty());
+    }
+
+    @Test
+    public void parallelSearch_should_finishEverySearch_whenMoreAreStartedThanThereAreThreads() throws Exception
+    {
+        RestrictedAreaSnapshot snapshot = utility.getRestrictedAreaSnapshot(getRestrictedAreas());
+        Position start = new Position(-3.1925, 55.9425);
+        Position end = new Position(-3.1775, 55.9425);
+        int searches = 2 * Runtime.getRuntime().availableProcessors() + 2;
+
+        // Each search asks for more workers than there are threads for all of them, they take turns
+        List<Future<ArrayList<Position>>> running = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for (int i = 0; i < searches; i++)
+            {
+                running.add(executor.submit(() -> ParallelAStar.search(start.getLng(), start.getLat(), end.getLng(), end.getLat(),
+                        snapshot, 4, LatticeAStar.defaultMaxExpansions, new SearchStats())));
+            }
+            ArrayList<Position> first = running.getFirst().get(60, TimeUnit.SECONDS);
+            assert(!first.isEmpty());
+            for (Future<ArrayList<Position>> search : running)
+            {
+                // Rounding of positions may let one of them save a move, as against the serial search
+                assert(Math.abs(search.get(60, TimeUnit.SECONDS).size() - first.size()) <= 1);
+            }
+        }
+    }
+}
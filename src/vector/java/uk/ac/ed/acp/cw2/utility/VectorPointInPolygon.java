@@ -0,0 +1,82 @@
+package uk.ac.ed.acp.cw2.utility;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorPointInPolygon class runs the point in polygon test on as many points at once as the
+ * widest double vector of the machine holds. Each lane does the very same operations as
+ * GeometryKernel.isPointOnEdge and isEdgeIntersectWithRay, in the same order, so the answers
+ * are the ones of Utility.isInRegion bit for bit. Only compiled with the vector profile
+ * (mvn -Pvector), and only loaded when the jdk.incubator.vector module is present (see PointInPolygonKernel).
+ */
+final class VectorPointInPolygon implements PointInPolygonKernel.Batch
+{
+    private static final VectorSpecies<Double> species = DoubleVector.SPECIES_PREFERRED;
+
+    private static final double error = 1e-9;
+
+    // Created by PointInPolygonKernel through reflection, the default build doesn't have this class
+    VectorPointInPolygon()
+    {
+    }
+
+    /**
+     * Set bit p of inside for every point p in the polygon, up to the last whole vector of points.
+     * Returns the number of points done, the rest is left to the caller.
+     */
+    @Override
+    public int contains(double[] xs, double[] ys, CompiledPolygon polygon, long[] inside)
+    {
+        int bound = species.loopBound(xs.length);
+        for (int base = 0; base < bound; base += species.length())
+        {
+            DoubleVector xv = DoubleVector.fromArray(species, xs, base);
+            DoubleVector yv = DoubleVector.fromArray(species, ys, base);
+            VectorMask<Double> candidates = yv.compare(VectorOperators.GE, polygon.minY)
+                    .and(yv.compare(VectorOperators.LE, polygon.maxY))
+                    .and(xv.compare(VectorOperators.LE, polygon.maxX));
+            if (!candidates.anyTrue())
+            {
+                continue;
+            }
+
+            VectorMask<Double> onEdge = species.maskAll(false);
+            VectorMask<Double> odd = species.maskAll(false);
+            for (int edge = 0; edge < polygon.edgeCount(); edge++)
+            {
+                double x1 = polygon.x1[edge];
+                double y1 = polygon.y1[edge];
+                double x2 = polygon.x2[edge];
+                double y2 = polygon.y2[edge];
+                VectorMask<Double> withinY = yv.compare(VectorOperators.GE, Math.min(y1, y2))
+                        .and(yv.compare(VectorOperators.LE, Math.max(y1, y2)));
+
+                // Gradient check, then boundary checks
+                DoubleVector gradient = xv.sub(x1).mul(y2 - y1).sub(yv.sub(y1).mul(x2 - x1));
+                onEdge = onEdge.or(gradient.abs().compare(VectorOperators.LE, error)
+                        .and(withinY)
+                        .and(xv.compare(VectorOperators.GE, Math.min(x1, x2)))
+                        .and(xv.compare(VectorOperators.LE, Math.max(x1, x2))));
+
+                // Horizontal edges never cross the ray, vertical ones always do within their y range
+                if (y1 != y2)
+                {
+                    VectorMask<Double> crossing = withinY.and(xv.compare(VectorOperators.LT, Math.max(x1, x2)));
+                    if (x1 != x2)
+                    {
+                        crossing = crossing.and(xv.compare(VectorOperators.LT, yv.sub(y1).div(polygon.slope[edge]).add(x1)));
+                    }
+                    odd = odd.xor(crossing);
+                }
+            }
+
+            // The lane count divides 64, so the bits of one vector never straddle two words
+            long bits = onEdge.or(odd).and(candidates).toLong();
+            inside[base >>> 6] |= bits << (base & 63);
+        }
+        return bound;
+    }
+}